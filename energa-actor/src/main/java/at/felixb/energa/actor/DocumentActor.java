@@ -0,0 +1,256 @@
+package at.felixb.energa.actor;
+
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.crdt.UserOperation;
+import at.felixb.energa.presence.PresenceRegistry;
+import at.felixb.energa.presence.Raw;
+import at.felixb.energa.presence.ResolvedState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Single owner of a {@link Document} and its {@link PresenceRegistry}.
+ * <p>
+ * Everything that touches the document is submitted as a message and answered through
+ * a future. Messages are processed in submission order by one drain task at a time on
+ * the given executor, so the document itself needs no synchronization. Idle actors hold
+ * no thread, thousands of them can share one executor.
+ * <p>
+ * A drain task takes up to {@link #MAX_BATCH_SIZE} messages from the mailbox. Consecutive
+ * remote op messages within a batch are applied in one {@link Document#applyAll} pass.
+ * If there are more messages, the actor re-schedules itself instead of looping, so one
+ * busy document does not starve the others.
+ * <br/>
+ * Futures are completed on the executor thread; dependent stages that are not async
+ * run there too and should be short. On Java 21+ a virtual-thread-per-task executor
+ * gives every active document its own virtual thread.
+ */
+public final class DocumentActor {
+
+    static final int MAX_BATCH_SIZE = 256;
+
+    private final Document document;
+    private final PresenceRegistry presenceRegistry;
+    private final Executor executor;
+
+    private final ConcurrentLinkedQueue<Message> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mailboxSize = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicLong processedBatches = new AtomicLong();
+
+    /**
+     * @param document document that is from now on only accessed through this actor
+     * @param executor runs the drain tasks
+     */
+    public DocumentActor(Document document, Executor executor) {
+        if (document == null || executor == null) {
+            throw new IllegalArgumentException("document and executor must not be null");
+        }
+        this.document = document;
+        this.presenceRegistry = PresenceRegistry.create(document);
+        this.executor = executor;
+    }
+
+    public static DocumentActor create(Executor executor) {
+        return new DocumentActor(Document.create(), executor);
+    }
+
+    /**
+     * Applies operations received from other replicas.
+     *
+     * @return revision of the document after the operations were applied
+     */
+    public CompletableFuture<Long> applyRemote(List<? extends CrdtOperation> operations) {
+        RemoteOps message = new RemoteOps(List.copyOf(operations));
+        submit(message);
+        return message.result;
+    }
+
+    /**
+     * Transforms and applies an operation of a local user.
+     *
+     * @return the CRDT operations that were applied, to be sent to the other replicas
+     */
+    public <T extends CrdtOperation> CompletableFuture<List<T>> applyLocal(UserOperation<T> operation) {
+        return ask(() -> {
+            List<T> operations = operation.transformToInternal(document);
+            document.applyAll(operations);
+            return operations;
+        });
+    }
+
+    public CompletableFuture<Void> addPresence(String sessionId) {
+        return ask(() -> {
+            presenceRegistry.addPresence(sessionId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> updatePresence(String sessionId, long seq, String metaBlob, List<Raw> rawList) {
+        return ask(() -> {
+            presenceRegistry.updatePresence(sessionId, seq, metaBlob, rawList);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deletePresence(String sessionId) {
+        return ask(() -> {
+            presenceRegistry.deletePresence(sessionId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<ResolvedState> getResolvedState() {
+        return ask(presenceRegistry::getResolvedState);
+    }
+
+    /**
+     * Runs a query (e.g. {@link Document#render()}) in the actor. The document must not be
+     * modified and must not be kept beyond the call.
+     */
+    public <R> CompletableFuture<R> query(Function<? super Document, R> query) {
+        return ask(() -> query.apply(document));
+    }
+
+    /**
+     * Number of messages submitted but not processed yet.
+     */
+    public int getMailboxSize() {
+        return mailboxSize.get();
+    }
+
+    /**
+     * Number of drain tasks that processed at least one message.
+     */
+    public long getProcessedBatchCount() {
+        return processedBatches.get();
+    }
+
+    // #### Private
+
+    private <R> CompletableFuture<R> ask(Supplier<R> action) {
+        Task<R> message = new Task<>(action);
+        submit(message);
+        return message.result;
+    }
+
+    private void submit(Message message) {
+        mailbox.add(message);
+        mailboxSize.incrementAndGet();
+        scheduleIfIdle();
+    }
+
+    private void scheduleIfIdle() {
+        if (!scheduled.compareAndSet(false, true)) return;
+
+        try {
+            executor.execute(this::drain);
+        } catch (RuntimeException e) {
+            scheduled.set(false);
+            // nothing will process the mailbox now, fail what is waiting
+            for (Message pending; (pending = mailbox.poll()) != null; ) {
+                mailboxSize.decrementAndGet();
+                pending.fail(e);
+            }
+            throw e;
+        }
+    }
+
+    private void drain() {
+        List<RemoteOps> remoteBatch = new ArrayList<>();
+        int processed = 0;
+
+        try {
+            for (Message message; processed < MAX_BATCH_SIZE && (message = mailbox.poll()) != null; processed++) {
+                mailboxSize.decrementAndGet();
+
+                if (message instanceof RemoteOps remoteOps) {
+                    remoteBatch.add(remoteOps);
+                    continue;
+                }
+                applyRemoteBatch(remoteBatch);
+                ((Task<?>) message).run();
+            }
+            applyRemoteBatch(remoteBatch);
+        } finally {
+            if (processed > 0) processedBatches.incrementAndGet();
+
+            // whatever happened above, the actor must not stay marked as scheduled
+            scheduled.set(false);
+            if (!mailbox.isEmpty()) scheduleIfIdle();
+        }
+    }
+
+    // One applyAll pass for consecutive remote op messages. If it fails, all of them fail;
+    // applying CRDT ops again is harmless, so the sender may simply resend them.
+    // Errors are caught as well: they end up in the futures instead of stopping the actor.
+    private void applyRemoteBatch(List<RemoteOps> remoteBatch) {
+        if (remoteBatch.isEmpty()) return;
+
+        try {
+            if (remoteBatch.size() == 1) {
+                document.applyAll(remoteBatch.get(0).operations);
+            } else {
+                List<CrdtOperation> operations = new ArrayList<>();
+                for (RemoteOps remoteOps : remoteBatch) operations.addAll(remoteOps.operations);
+                document.applyAll(operations);
+            }
+
+            Long revision = document.getRevision();
+            for (RemoteOps remoteOps : remoteBatch) remoteOps.result.complete(revision);
+        } catch (Throwable e) {
+            for (RemoteOps remoteOps : remoteBatch) remoteOps.result.completeExceptionally(e);
+        }
+        remoteBatch.clear();
+    }
+
+    private interface Message {
+        void fail(Throwable cause);
+    }
+
+    private static final class RemoteOps implements Message {
+        final List<? extends CrdtOperation> operations;
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        RemoteOps(List<? extends CrdtOperation> operations) {
+            this.operations = operations;
+        }
+
+        @Override
+        public void fail(Throwable cause) {
+            result.completeExceptionally(cause);
+        }
+    }
+
+    private static final class Task<R> implements Message {
+        final Supplier<R> action;
+        final CompletableFuture<R> result = new CompletableFuture<>();
+
+        Task(Supplier<R> action) {
+            this.action = action;
+        }
+
+        void run() {
+            try {
+                result.complete(action.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void fail(Throwable cause) {
+            result.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package at.felixb.energa.actor;
+
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.Document;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+@Tag("perf")
+public class DocumentActorPerformanceTest {
+
+    private static final int DOCUMENTS = 10_000;
+    private static final int OPS_PER_DOCUMENT = 50;
+    private static final int PRODUCERS = 4;
+    private static final long RANDOM_SEED = 42L;
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        try { Thread.sleep(15); } catch (InterruptedException ignored) {}
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Jeder Producer tippt reihum in zufällige Dokumente (ein Op pro Nachricht),
+    // gemessen wird bis alle Futures erfüllt sind
+    private void runTypingLoad(ForkJoinPool actorPool, String label) throws Exception {
+        long heapBefore = usedHeap();
+
+        List<DocumentActor> actors = new ArrayList<>(DOCUMENTS);
+        for (int i = 0; i < DOCUMENTS; i++) actors.add(DocumentActor.create(actorPool));
+
+        // pro Dokument und Producer eine eigene Site, die fortlaufend tippt
+        CrdtNodeId[][] carets = new CrdtNodeId[PRODUCERS][DOCUMENTS];
+        UUID[] sites = new UUID[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            sites[p] = UUID.randomUUID();
+            Arrays.fill(carets[p], rootId());
+        }
+
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        long start = System.nanoTime();
+        List<CompletableFuture<List<CompletableFuture<Long>>>> submitted = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            submitted.add(CompletableFuture.supplyAsync(() -> {
+                Random random = new Random(RANDOM_SEED + producer);
+                int[] counters = new int[DOCUMENTS];
+                List<CompletableFuture<Long>> results = new ArrayList<>(DOCUMENTS * OPS_PER_DOCUMENT / PRODUCERS);
+                for (int i = 0; i < DOCUMENTS * OPS_PER_DOCUMENT / PRODUCERS; i++) {
+                    int doc = random.nextInt(DOCUMENTS);
+                    CrdtNodeId id = new CrdtNodeId(sites[producer], ++counters[doc]);
+                    results.add(actors.get(doc).applyRemote(List.of(
+                            new CrdtInsertOp(carets[producer][doc], id, (char) ('a' + random.nextInt(26))))));
+                    carets[producer][doc] = id;
+                }
+                return results;
+            }, producers));
+        }
+
+        long ops = 0;
+        for (CompletableFuture<List<CompletableFuture<Long>>> producerResults : submitted) {
+            List<CompletableFuture<Long>> results = producerResults.get(5, TimeUnit.MINUTES);
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(5, TimeUnit.MINUTES);
+            ops += results.size();
+        }
+        long end = System.nanoTime();
+        producers.shutdown();
+
+        long batches = 0;
+        for (DocumentActor actor : actors) batches += actor.getProcessedBatchCount();
+        long heapAfter = usedHeap();
+
+        double seconds = (end - start) / 1e9;
+        System.out.printf(Locale.ROOT,
+                "%-38s docs=%d | %9d ops in %7.2f s = %9.0f ops/s | %5.1f msgs/batch | heap %6.1f MB (%.1f KB/doc)%n",
+                label, DOCUMENTS, ops, seconds, ops / seconds, (double) ops / batches,
+                (heapAfter - heapBefore) / 1_048_576.0, (heapAfter - heapBefore) / 1024.0 / DOCUMENTS);
+
+        long revisions = 0;
+        for (DocumentActor actor : actors) revisions += actor.query(Document::getRevision).get(1, TimeUnit.MINUTES);
+        if (revisions != ops) throw new AssertionError("ops lost: " + revisions + " of " + ops);
+    }
+
+    @Test
+    void benchmarkTenThousandDocumentActors() throws Exception {
+        // Java 17: Work-Stealing-Pool statt virtueller Threads
+        ForkJoinPool actorPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            runTypingLoad(actorPool, "warmup");
+            runTypingLoad(actorPool, "actors remote typing 1 op/msg");
+        } finally {
+            actorPool.shutdown();
+        }
+    }
+}
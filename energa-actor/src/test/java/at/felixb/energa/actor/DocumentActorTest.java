@@ -0,0 +1,176 @@
+package at.felixb.energa.actor;
+
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.crdt.OperationFactory;
+import at.felixb.energa.presence.RawCaret;
+import at.felixb.energa.presence.ResolvedCaret;
+import at.felixb.energa.presence.ResolvedState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentActorTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    // Executor, der Tasks erst auf Anforderung ausführt
+    private static class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task; (task = tasks.poll()) != null; ) task.run();
+        }
+    }
+
+    @Test
+    void consecutiveRemoteOps_areAppliedInOneBatch() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DocumentActor actor = DocumentActor.create(executor);
+
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        CrdtNodeId parent = rootId();
+        for (int i = 1; i <= 5; i++) {
+            CrdtNodeId id = new CrdtNodeId(SITE, i);
+            results.add(actor.applyRemote(List.of(new CrdtInsertOp(parent, id, (char) ('a' + i - 1)))));
+            parent = id;
+        }
+        CompletableFuture<String> text = actor.query(Document::render);
+
+        assertEquals(1, executor.tasks.size()); // nur ein Drain-Task geplant
+        assertEquals(6, actor.getMailboxSize());
+
+        executor.runAll();
+
+        assertEquals("abcde", text.get());
+        for (CompletableFuture<Long> result : results) {
+            assertEquals(5L, result.get()); // gemeinsamer applyAll-Durchlauf
+        }
+        assertEquals(1, actor.getProcessedBatchCount());
+        assertEquals(0, actor.getMailboxSize());
+    }
+
+    @Test
+    void localOps_andPresence_areProcessedInOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            DocumentActor actor = DocumentActor.create(executor);
+
+            CompletableFuture<List<CrdtInsertOp>> local = actor.applyLocal(OperationFactory.createInsertOp(0, "hello"));
+            actor.addPresence("s1");
+            actor.updatePresence("s1", 1, null, List.of(new RawCaret(5, -1)));
+            actor.applyLocal(OperationFactory.createInsertOp(0, ">> "));
+            ResolvedState state = actor.getResolvedState().get(5, TimeUnit.SECONDS);
+
+            assertEquals(5, local.get().size());
+            assertEquals(new ResolvedCaret(8), state.getStateMap().get("s1").resolutions().get(0));
+            assertEquals(">> hello", actor.query(Document::render).get(5, TimeUnit.SECONDS));
+
+            // lokale Ops lassen sich auf einem zweiten Replikat anwenden
+            DocumentActor replica = DocumentActor.create(executor);
+            replica.applyRemote(new ArrayList<CrdtOperation>(local.get())).get(5, TimeUnit.SECONDS);
+            assertEquals("hello", replica.query(Document::render).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void failingMessage_failsOnlyItsFuture() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DocumentActor actor = DocumentActor.create(executor);
+
+        CompletableFuture<Character> failing = actor.query(d -> d.charAt(0));
+        CompletableFuture<Long> next = actor.applyRemote(List.of(new CrdtInsertOp(rootId(), new CrdtNodeId(SITE, 1), 'a')));
+        executor.runAll();
+
+        ExecutionException e = assertThrows(ExecutionException.class, failing::get);
+        assertInstanceOf(IndexOutOfBoundsException.class, e.getCause());
+        assertEquals(1L, next.get());
+    }
+
+    @Test
+    void errorInMessage_failsItsFuture_andActorKeepsProcessing() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        DocumentActor actor = DocumentActor.create(executor);
+
+        CompletableFuture<Object> failing = actor.query(d -> {
+            throw new AssertionError("broken invariant");
+        });
+        executor.runAll();
+
+        ExecutionException e = assertThrows(ExecutionException.class, failing::get);
+        assertInstanceOf(AssertionError.class, e.getCause());
+
+        // danach wird wieder eingeplant und abgearbeitet
+        CompletableFuture<Long> next = actor.applyRemote(List.of(new CrdtInsertOp(rootId(), new CrdtNodeId(SITE, 1), 'a')));
+        CompletableFuture<String> text = actor.query(Document::render);
+        executor.runAll();
+        assertEquals(1L, next.get());
+        assertEquals("a", text.get());
+    }
+
+    @Test
+    void rejectedExecution_failsPendingMessages() {
+        DocumentActor actor = DocumentActor.create(command -> {
+            throw new RejectedExecutionException("shut down");
+        });
+
+        assertThrows(RejectedExecutionException.class, () -> actor.query(Document::render));
+        assertEquals(0, actor.getMailboxSize());
+    }
+
+    @Test
+    void manyProducers_messagesAreSerialized() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService producers = Executors.newFixedThreadPool(4);
+        try {
+            DocumentActor actor = DocumentActor.create(executor);
+            int perProducer = 2_000;
+
+            List<CompletableFuture<?>> done = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                UUID site = UUID.randomUUID();
+                done.add(CompletableFuture.runAsync(() -> {
+                    CrdtNodeId parent = rootId();
+                    for (int i = 1; i <= perProducer; i++) {
+                        CrdtNodeId id = new CrdtNodeId(site, i);
+                        actor.applyRemote(List.of(new CrdtInsertOp(parent, id, 'x')));
+                        parent = id;
+                    }
+                }, producers));
+            }
+            CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+            assertEquals(4 * perProducer, actor.query(d -> d.render().length()).get(30, TimeUnit.SECONDS));
+            assertEquals(4L * perProducer, actor.query(Document::getRevision).get(30, TimeUnit.SECONDS));
+        } finally {
+            producers.shutdown();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package at.felixb.energa.crdt;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decouples a (possibly slow) {@link DocumentChangedListener} from op ingest.
+ * <p>
+ * Register the dispatcher instead of the listener itself. Events are queued on the
+ * applying thread and delivered in order on the given executor, at most one delivery
+ * task runs at a time. While an event is still queued, following events of the same
+ * origin that continue it (typing forward, typing at the same caret, forward delete,
+ * backspace) are merged into it, so a burst of single-character ops reaches the
+ * listener as a few range events. An event stops absorbing changes once it is older
+ * than the coalescing window.
+ * <p>
+ * Overflow: if the listener falls behind by more than {@code maxPendingEvents} (after
+ * coalescing), the queued events are dropped and replaced by a single
+ * {@link DocumentChangeEvent.DocumentChangeEventType#RESYNC} event, which also absorbs
+ * everything arriving until it is delivered. The applying thread never waits for the
+ * listener, so a listener that reads the document (e.g. under the write lock of a
+ * {@link ConcurrentDocument}) cannot deadlock ingest.
+ * <br/>
+ * Any executor works, e.g. a virtual-thread-per-task executor on Java 21+.
+ */
+public final class AsyncChangeDispatcher implements DocumentChangedListener {
+
+    private final DocumentChangedListener delegate;
+    private final Executor executor;
+    private final long coalesceWindowNanos;
+    private final int maxPendingEvents;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<PendingEvent> queue = new ArrayDeque<>();
+    private boolean draining = false;
+
+    private long receivedEvents = 0;
+    private long deliveredEvents = 0;
+    private long resyncs = 0;
+
+    /**
+     * @param delegate         listener that receives the (coalesced) events
+     * @param executor         runs the delivery task
+     * @param coalesceWindow   how long a queued event may keep absorbing follow-up changes,
+     *                         {@link Duration#ZERO} disables coalescing
+     * @param maxPendingEvents queued events after which they are replaced by a resync event
+     */
+    public AsyncChangeDispatcher(DocumentChangedListener delegate, Executor executor,
+                                 Duration coalesceWindow, int maxPendingEvents) {
+        if (delegate == null || executor == null || coalesceWindow == null) {
+            throw new IllegalArgumentException("delegate, executor and coalesceWindow must not be null");
+        }
+        if (coalesceWindow.isNegative()) {
+            throw new IllegalArgumentException("coalesceWindow must not be negative");
+        }
+        if (maxPendingEvents < 1) {
+            throw new IllegalArgumentException("maxPendingEvents must be >= 1");
+        }
+
+        this.delegate = delegate;
+        this.executor = executor;
+        this.coalesceWindowNanos = coalesceWindow.toNanos();
+        this.maxPendingEvents = maxPendingEvents;
+    }
+
+    @Override
+    public void onDocumentChanged(DocumentChangeEvent event) {
+        long now = System.nanoTime();
+        boolean schedule;
+
+        lock.lock();
+        try {
+            receivedEvents++;
+
+            PendingEvent tail = queue.peekLast();
+            if (tail != null && (tail.isResync() || isWithinCoalesceWindow(tail, now)) && tail.absorb(event)) {
+                return;
+            }
+
+            if (queue.size() >= maxPendingEvents) {
+                // the listener is too far behind, it re-reads the document instead
+                queue.clear();
+                queue.addLast(new PendingEvent(DocumentChangeEvent.resync(event.revision()), now));
+                resyncs++;
+            } else {
+                queue.addLast(new PendingEvent(event, now));
+            }
+
+            schedule = !draining;
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+
+        if (schedule) scheduleDrain();
+    }
+
+    /**
+     * Number of events waiting for delivery (after coalescing).
+     */
+    public int getPendingEventCount() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of events received from the document.
+     */
+    public long getReceivedEventCount() {
+        lock.lock();
+        try {
+            return receivedEvents;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of (coalesced) events handed to the listener.
+     */
+    public long getDeliveredEventCount() {
+        lock.lock();
+        try {
+            return deliveredEvents;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of times the queue overflowed and was replaced by a resync event.
+     */
+    public long getResyncCount() {
+        lock.lock();
+        try {
+            return resyncs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // #### Private
+
+    // ZERO disables coalescing, even for events with the same nanoTime
+    private boolean isWithinCoalesceWindow(PendingEvent tail, long now) {
+        return coalesceWindowNanos > 0 && now - tail.createdAtNanos <= coalesceWindowNanos;
+    }
+
+    // called without the lock, so a direct executor does not run drain() under it
+    private void scheduleDrain() {
+        try {
+            executor.execute(this::drain);
+        } catch (RuntimeException | Error e) {
+            // the next event schedules again
+            lock.lock();
+            try {
+                draining = false;
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            DocumentChangeEvent next;
+
+            lock.lock();
+            try {
+                PendingEvent pending = queue.pollFirst();
+                if (pending == null) {
+                    draining = false;
+                    return;
+                }
+                deliveredEvents++;
+                next = pending.toEvent();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                delegate.onDocumentChanged(next);
+            } catch (Throwable failure) {
+                // Errors included: keep delivering the remaining events in a fresh task
+                rescheduleAfterFailure(failure);
+                throw failure;
+            }
+        }
+    }
+
+    private void rescheduleAfterFailure(Throwable failure) {
+        boolean schedule;
+        lock.lock();
+        try {
+            schedule = !queue.isEmpty();
+            if (!schedule) draining = false;
+        } finally {
+            lock.unlock();
+        }
+
+        if (!schedule) return;
+        try {
+            scheduleDrain();
+        } catch (RuntimeException | Error e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Mutable accumulator for one queued (possibly coalesced) event.
+     */
+    private static class PendingEvent {
+        final DocumentChangeEvent.DocumentChangeEventType type;
+        final UUID originSiteId;
+        final long createdAtNanos;
+        final StringBuilder text;
+
+        int visibleIndex;
+        int length;
+        long revision;
+
+        PendingEvent(DocumentChangeEvent event, long createdAtNanos) {
+            this.type = event.eventType();
+            this.originSiteId = event.originSiteId();
+            this.createdAtNanos = createdAtNanos;
+            this.text = new StringBuilder(event.text());
+            this.visibleIndex = event.visibleIndex();
+            this.length = event.length();
+            this.revision = event.revision();
+        }
+
+        boolean isResync() {
+            return type == DocumentChangeEvent.DocumentChangeEventType.RESYNC;
+        }
+
+        boolean absorb(DocumentChangeEvent event) {
+            if (isResync()) {
+                revision = Math.max(revision, event.revision()); // covered by the re-read
+                return true;
+            }
+            if (event.eventType() != type || !Objects.equals(event.originSiteId(), originSiteId)) return false;
+
+            if (type == DocumentChangeEvent.DocumentChangeEventType.INSERT) {
+                if (event.visibleIndex() == visibleIndex + length) {
+                    text.append(event.text());                  // typing forward
+                } else if (event.visibleIndex() == visibleIndex) {
+                    text.insert(0, event.text());               // typing at a fixed caret
+                } else {
+                    return false;
+                }
+            } else {
+                if (event.visibleIndex() == visibleIndex) {
+                    // forward delete, nothing to adjust
+                } else if (event.visibleIndex() + event.length() == visibleIndex) {
+                    visibleIndex = event.visibleIndex();        // backspace
+                } else {
+                    return false;
+                }
+            }
+
+            length += event.length();
+            revision = Math.max(revision, event.revision());
+            return true;
+        }
+
+        DocumentChangeEvent toEvent() {
+            return new DocumentChangeEvent(type, visibleIndex, text.toString(), length, originSiteId, revision);
+        }
+    }
+}
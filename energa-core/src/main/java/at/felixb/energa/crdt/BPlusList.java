@@ -1,21 +1,43 @@
 package at.felixb.energa.crdt;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 import java.util.stream.IntStream;
 
 public class BPlusList<V> {
 
+    // parallel traversal: subtrees up to this size are walked by a single task
+    private static final int SEQUENTIAL_SUBTREE_SIZE = 4_096;
+    // spliterator: smaller halves are not worth a descent and a task
+    private static final int SPLIT_MIN_SIZE = 1_024;
+
     private final int t;
     private final int maxValues;    // max. Werte pro Blatt
     private final int maxChildren;  // max. Kinder pro innerem Knoten
 
+    /**
+     * Registered summaries (additive measures of visible values), see {@link #registerSummary}.
+     * Every node keeps one sum per summary in {@code Node.sums}, same index.
+     */
+    private final List<ToLongFunction<V>> summaries = new ArrayList<>();
+
     private Node<V> root;
     private int size;
+    private int modCount; // bumped on every leaf mutation, checked by VisibleCursor
 
     /**
      * Value -> NodeLocation (Leaf + Offset).
@@ -141,11 +163,12 @@ public class BPlusList<V> {
         Node<V> leaf = loc.leaf;
         rebuildLeafVisibility(leaf);
 
-        // Propagate delta up the tree
+        // Propagate delta up the tree (the leaf's sums are already rebuilt)
         int delta = visible ? 1 : -1;
         Node<V> n = leaf;
         while (n != null) {
             n.visibleSubtreeSize += delta;
+            if (n != leaf) addMeasures(n, value, delta);
             n = n.parent;
         }
 
@@ -157,9 +180,18 @@ public class BPlusList<V> {
      * Returns -1 if value not found or not visible.
      */
     public int indexOfVisible(V value) {
+        if (!isVisible(value)) return -1;
+        return visibleRank(value);
+    }
+
+    /**
+     * Number of VISIBLE elements before the value (the value itself excluded),
+     * regardless of whether the value itself is visible.
+     * Returns -1 if value not found.
+     */
+    public int visibleRank(V value) {
         NodeLocation<V> loc = locationMap.get(value);
         if (loc == null) return -1;
-        if (!isVisible(value)) return -1;
 
         Node<V> node = loc.leaf;
 
@@ -189,28 +221,230 @@ public class BPlusList<V> {
             throw new IndexOutOfBoundsException("visibleIndex: " + visibleIndex + ", visibleSize: " + visibleSize());
         }
 
+        NodeLocation<V> loc = locateVisible(visibleIndex);
+        return loc.leaf.values.get(loc.offsetInLeaf);
+    }
+
+    /**
+     * Passes the visible elements [fromVisible, toVisible) to the consumer, in order.
+     * O(height * degree + k): one descent to the first element, then along the leaf chain.
+     */
+    public void forEachVisible(int fromVisible, int toVisible, Consumer<V> consumer) {
+        if (fromVisible < 0 || toVisible > visibleSize() || fromVisible > toVisible) {
+            throw new IndexOutOfBoundsException("range [" + fromVisible + ", " + toVisible + "), visibleSize: " + visibleSize());
+        }
+        if (fromVisible == toVisible) return;
+
+        NodeLocation<V> start = locateVisible(fromVisible);
+        Node<V> node = start.leaf;
+        int bit = start.offsetInLeaf;
+        int remaining = toVisible - fromVisible;
+
+        while (true) {
+            while (bit >= 0) {
+                consumer.accept(node.values.get(bit));
+                if (--remaining == 0) return;
+                bit = node.visibleBits.nextSetBit(bit + 1);
+            }
+            node = node.next;
+            bit = node.visibleBits.nextSetBit(0);
+        }
+    }
+
+    /**
+     * Creates a cursor for repeated positional reads of visible elements.
+     * The cursor is only valid until the list is modified.
+     */
+    public VisibleCursor visibleCursor() {
+        return new VisibleCursor(modCount);
+    }
+
+    /**
+     * Remembers the leaf of the last visible read. Reads within that leaf skip the descent,
+     * reading the next index is O(1) amortized, everything else costs one descent.
+     */
+    public final class VisibleCursor {
+        private final int expectedModCount;
+
+        private Node<V> leaf;
+        private int leafStart;        // visible index of the first visible element in leaf
+        private int lastIndex = -1;   // visible index of the last read
+        private int lastOffset;       // its offset in leaf
+
+        private VisibleCursor(int expectedModCount) {
+            this.expectedModCount = expectedModCount;
+        }
+
+        /**
+         * Independent cursor on the same list state (it also fails once the list is modified).
+         */
+        public VisibleCursor copy() {
+            return new VisibleCursor(expectedModCount);
+        }
+
+        /**
+         * @throws java.util.ConcurrentModificationException if the list changed since the cursor was created
+         */
+        public V get(int visibleIndex) {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException("BPlusList modified after cursor creation");
+            }
+            if (visibleIndex < 0 || visibleIndex >= visibleSize()) {
+                throw new IndexOutOfBoundsException("visibleIndex: " + visibleIndex + ", visibleSize: " + visibleSize());
+            }
+
+            if (leaf != null && visibleIndex == lastIndex + 1) {
+                int bit = leaf.visibleBits.nextSetBit(lastOffset + 1);
+                while (bit < 0) {
+                    leafStart += leaf.visibleSubtreeSize;
+                    leaf = leaf.next;
+                    bit = leaf.visibleBits.nextSetBit(0);
+                }
+                lastOffset = bit;
+            } else if (leaf != null && visibleIndex >= leafStart && visibleIndex < leafStart + leaf.visibleSubtreeSize) {
+                if (visibleIndex != lastIndex) lastOffset = findNthVisibleOffset(leaf, visibleIndex - leafStart);
+            } else {
+                descend(visibleIndex);
+            }
+
+            lastIndex = visibleIndex;
+            return leaf.values.get(lastOffset);
+        }
+
+        private void descend(int visibleIndex) {
+            Node<V> node = root;
+            int pos = visibleIndex;
+
+            while (!node.leaf) {
+                int childIndex = 0;
+                for (; childIndex < node.children.size(); childIndex++) {
+                    int childVisible = node.children.get(childIndex).visibleSubtreeSize;
+                    if (pos < childVisible) break;
+                    pos -= childVisible;
+                }
+                node = node.children.get(childIndex);
+            }
+
+            leaf = node;
+            leafStart = visibleIndex - pos;
+            lastOffset = findNthVisibleOffset(node, pos);
+        }
+    }
+
+    // -------------------------------------------------
+    //  Summaries (additive measures over visible elements)
+    // -------------------------------------------------
+
+    /**
+     * Registers a summary: a per-value measure (e.g. 1 for a newline, the UTF-8 length
+     * of a character) whose sum over the visible values is maintained per subtree on
+     * insert, remove, split/merge and visibility changes. Registering on a non-empty list
+     * computes the sums once in O(n).
+     * <br/>
+     * Measures must be non-negative (so prefix sums are monotone and seekable) and must not
+     * change for a value while it is in the list, unless {@link #remeasure} is called.
+     *
+     * @return id of the summary for {@link #summaryTotal}, {@link #summaryBefore} and {@link #seekSummary}
+     */
+    public int registerSummary(ToLongFunction<V> measure) {
+        summaries.add(measure);
+        if (root != null) recomputeSums(root);
+        return summaries.size() - 1;
+    }
+
+    /**
+     * Updates the sums after the measures of a value changed while it is in the list.
+     * O(t + height)
+     */
+    public void remeasure(V value) {
+        NodeLocation<V> loc = locationMap.get(value);
+        if (loc == null || summaries.isEmpty()) return;
+
+        Node<V> leaf = loc.leaf;
+        long[] old = leaf.sums;
+        sumLeaf(leaf);
+        for (Node<V> n = leaf.parent; n != null; n = n.parent) {
+            for (int i = 0; i < n.sums.length; i++) {
+                n.sums[i] += leaf.sums[i] - old[i];
+            }
+        }
+    }
+
+    /**
+     * Sum of the summary over all visible values.
+     */
+    public long summaryTotal(int summary) {
+        return root == null ? 0 : root.sums[summary];
+    }
+
+    /**
+     * Sum of the summary over the first visibleIndex visible values (0..visibleSize).
+     * O(height * degree)
+     */
+    public long summaryBefore(int summary, int visibleIndex) {
+        if (visibleIndex < 0 || visibleIndex > visibleSize()) {
+            throw new IndexOutOfBoundsException("visibleIndex: " + visibleIndex + ", visibleSize: " + visibleSize());
+        }
+        if (visibleIndex == visibleSize()) return summaryTotal(summary);
+
+        ToLongFunction<V> measure = summaries.get(summary);
         Node<V> node = root;
         int pos = visibleIndex;
+        long sum = 0;
 
         while (!node.leaf) {
-            int prefix = 0;
             int childIndex = 0;
-
             for (; childIndex < node.children.size(); childIndex++) {
                 Node<V> child = node.children.get(childIndex);
-                int childVisible = child.visibleSubtreeSize;
-                if (pos < prefix + childVisible) {
-                    pos = pos - prefix;
-                    break;
-                }
-                prefix += childVisible;
+                if (pos < child.visibleSubtreeSize) break;
+                pos -= child.visibleSubtreeSize;
+                sum += child.sums[summary];
             }
+            node = node.children.get(childIndex);
+        }
 
+        for (int bit = node.visibleBits.nextSetBit(0); pos > 0; bit = node.visibleBits.nextSetBit(bit + 1), pos--) {
+            sum += measure.applyAsLong(node.values.get(bit));
+        }
+        return sum;
+    }
+
+    /**
+     * Visible index of the value whose measure covers the given unit, i.e. the first
+     * visible index i with summaryBefore(i) + measure(value at i) > target.
+     * E.g. with a newline count, seekSummary(id, n) is the index of the n-th (0-based) newline.
+     * O(height * degree)
+     *
+     * @param target 0..summaryTotal-1
+     */
+    public int seekSummary(int summary, long target) {
+        if (target < 0 || target >= summaryTotal(summary)) {
+            throw new IndexOutOfBoundsException("target: " + target + ", summaryTotal: " + summaryTotal(summary));
+        }
+
+        ToLongFunction<V> measure = summaries.get(summary);
+        Node<V> node = root;
+        long remaining = target;
+        int visibleIndex = 0;
+
+        while (!node.leaf) {
+            int childIndex = 0;
+            for (; childIndex < node.children.size(); childIndex++) {
+                Node<V> child = node.children.get(childIndex);
+                if (remaining < child.sums[summary]) break;
+                remaining -= child.sums[summary];
+                visibleIndex += child.visibleSubtreeSize;
+            }
             node = node.children.get(childIndex);
         }
 
-        int offset = findNthVisibleOffset(node, pos);
-        return node.values.get(offset);
+        for (int bit = node.visibleBits.nextSetBit(0); bit >= 0; bit = node.visibleBits.nextSetBit(bit + 1)) {
+            long m = measure.applyAsLong(node.values.get(bit));
+            if (remaining < m) return visibleIndex;
+            remaining -= m;
+            visibleIndex++;
+        }
+        throw new IllegalStateException("Summary " + summary + " out of sync in leaf (target=" + target + ")");
     }
 
     // -------------------------------------------------
@@ -251,6 +485,7 @@ public class BPlusList<V> {
             root.indexInParent = 0;
             newRoot.subtreeSize = root.subtreeSize;
             newRoot.visibleSubtreeSize = root.visibleSubtreeSize;
+            System.arraycopy(root.sums, 0, newRoot.sums, 0, newRoot.sums.length);
             splitChild(newRoot, 0);
             root = newRoot;
         }
@@ -264,6 +499,83 @@ public class BPlusList<V> {
         values.forEach(this::add);
     }
 
+    /**
+     * Fills an empty list with the given values in O(n).
+     * <p>
+     * Instead of descending from the root for every value like {@link #add(int, Object)},
+     * the leaves are filled evenly and the index levels are built bottom-up.
+     *
+     * @param values  values in list order
+     * @param visible initial visibility of each value
+     */
+    public void bulkLoad(List<V> values, Predicate<V> visible) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("bulkLoad requires an empty list, size: " + size);
+        }
+        if (values.isEmpty()) return;
+
+        int total = values.size();
+        int leafCount = ceilDiv(total, maxValues);
+        List<Node<V>> level = new ArrayList<>(leafCount);
+
+        Node<V> previousLeaf = null;
+        int from = 0;
+        for (int i = 0; i < leafCount; i++) {
+            int to = from + (total - from) / (leafCount - i);
+            Node<V> leaf = newLeaf(null, 0);
+
+            for (int j = from; j < to; j++) {
+                V v = values.get(j);
+                int offset = j - from;
+                boolean isVisible = visible.test(v);
+
+                leaf.values.add(v);
+                if (isVisible) leaf.visibleBits.set(offset);
+                visibilityMap.put(v, isVisible);
+                locationMap.put(v, new NodeLocation<>(leaf, offset));
+            }
+
+            leaf.subtreeSize = leaf.values.size();
+            leaf.visibleSubtreeSize = countVisibleInLeaf(leaf);
+            sumLeaf(leaf);
+
+            if (previousLeaf != null) previousLeaf.next = leaf;
+            previousLeaf = leaf;
+            level.add(leaf);
+            from = to;
+        }
+
+        while (level.size() > 1) {
+            int parentCount = ceilDiv(level.size(), maxChildren);
+            List<Node<V>> parents = new ArrayList<>(parentCount);
+
+            from = 0;
+            for (int i = 0; i < parentCount; i++) {
+                int to = from + (level.size() - from) / (parentCount - i);
+                Node<V> parent = newInternal(null, 0);
+
+                for (int j = from; j < to; j++) {
+                    Node<V> child = level.get(j);
+                    child.parent = parent;
+                    child.indexInParent = j - from;
+                    parent.children.add(child);
+                    parent.subtreeSize += child.subtreeSize;
+                    parent.visibleSubtreeSize += child.visibleSubtreeSize;
+                    addSums(parent, child, 1);
+                }
+
+                parents.add(parent);
+                from = to;
+            }
+
+            level = parents;
+        }
+
+        root = level.get(0);
+        size = total;
+        modCount++;
+    }
+
     public V set(int index, V newValue) {
         checkIndex(index);
 
@@ -302,11 +614,47 @@ public class BPlusList<V> {
 
         // leaf visibility might have changed if old/new visibility differs (rare),
         // rebuild to keep bitset consistent
+        long[] sumsBefore = node.sums.clone();
         rebuildLeafVisibility(node);
 
+        for (Node<V> n = node.parent; n != null; n = n.parent) {
+            for (int i = 0; i < sumsBefore.length; i++) {
+                n.sums[i] += node.sums[i] - sumsBefore[i];
+            }
+        }
+
         return old;
     }
 
+    /**
+     * Removes the value from the list. Returns false if it is not contained.
+     * <p>
+     * Underfull nodes borrow from a sibling or are merged with one, so the tree
+     * keeps its height balance and occupancy bounds. O(height * degree).
+     */
+    public boolean remove(V value) {
+        NodeLocation<V> loc = locationMap.remove(value);
+        if (loc == null) return false;
+
+        boolean wasVisible = isVisible(value);
+        visibilityMap.remove(value);
+
+        Node<V> leaf = loc.leaf;
+        leaf.values.remove(loc.offsetInLeaf);
+        updateLocations(leaf, loc.offsetInLeaf);
+        rebuildLeafVisibility(leaf);
+
+        for (Node<V> n = leaf; n != null; n = n.parent) {
+            n.subtreeSize--;
+            if (wasVisible) n.visibleSubtreeSize--;
+            if (wasVisible && n != leaf) addMeasures(n, value, -1);
+        }
+        size--;
+
+        rebalanceAfterRemove(leaf);
+        return true;
+    }
+
     public List<V> toList() {
         List<V> result = new ArrayList<>();
         if (root == null) return result;
@@ -344,6 +692,33 @@ public class BPlusList<V> {
         }
     }
 
+    /**
+     * Hands one chunk per leaf to the consumer, in list order.
+     * <p>
+     * A leaf's chunk is computed by chunkOf from all values of that leaf and their
+     * visibility bits, and kept until the leaf changes, so walking a mostly unchanged list
+     * only recomputes the changed leaves. chunkOf must neither modify nor keep the values
+     * list or the bits. There is a single cache slot per leaf: all callers of one list have
+     * to pass the same (pure) chunkOf function.
+     */
+    @SuppressWarnings("unchecked")
+    public <C> void forEachLeafChunk(BiFunction<List<V>, BitSet, C> chunkOf, Consumer<C> consumer) {
+        if (root == null) return;
+
+        Node<V> node = root;
+        while (!node.leaf) {
+            node = node.children.get(0);
+        }
+
+        while (node != null) {
+            if (node.chunk == null) {
+                node.chunk = chunkOf.apply(Collections.unmodifiableList(node.values), node.visibleBits);
+            }
+            consumer.accept((C) node.chunk);
+            node = node.next;
+        }
+    }
+
     public List<V> toVisibleList() {
         List<V> result = new ArrayList<>(visibleSize());
         if (root == null) return result;
@@ -366,6 +741,205 @@ public class BPlusList<V> {
         return result;
     }
 
+    // -------------------------------------------------
+    //  Parallel traversal
+    // -------------------------------------------------
+
+    /**
+     * Parallel variant of {@link #forEachLeafChunk}: the tree is split at internal node
+     * boundaries into tasks on the pool, and every leaf's chunk is handed to the consumer
+     * together with the visible index of the leaf's first visible value (taken from
+     * {@code visibleSubtreeSize}, so each task knows where its output goes).
+     * <p>
+     * The consumer is called from several threads in no particular order. The list must
+     * not be modified until the call returns.
+     */
+    public <C> void forEachLeafChunkParallel(BiFunction<List<V>, BitSet, C> chunkOf, ObjIntConsumer<C> consumer,
+                                             ForkJoinPool pool) {
+        if (root == null) return;
+        pool.invoke(new LeafChunkTask<>(root, 0, chunkOf, consumer));
+    }
+
+    /**
+     * Spliterator over all values, in list order, without copying them.
+     * <p>
+     * Sizes are exact ({@code SIZED | SUBSIZED}): a split halves the remaining index
+     * range, and the first value of each half is located by one descent. Like
+     * {@link VisibleCursor}, it fails with a {@link ConcurrentModificationException} once the
+     * list is modified.
+     */
+    public Spliterator<V> spliterator() {
+        return new RangeSpliterator(false, 0, size, modCount);
+    }
+
+    /**
+     * Same as {@link #spliterator()}, but over the visible values only. Splits by visible
+     * index, so the halves hold the same number of visible values.
+     */
+    public Spliterator<V> visibleSpliterator() {
+        return new RangeSpliterator(true, 0, visibleSize(), modCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final class LeafChunkTask<V, C> extends RecursiveAction {
+        private final Node<V> node;
+        private final int visibleStart;
+        private final BiFunction<List<V>, BitSet, C> chunkOf;
+        private final ObjIntConsumer<C> consumer;
+
+        LeafChunkTask(Node<V> node, int visibleStart, BiFunction<List<V>, BitSet, C> chunkOf,
+                      ObjIntConsumer<C> consumer) {
+            this.node = node;
+            this.visibleStart = visibleStart;
+            this.chunkOf = chunkOf;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.subtreeSize <= SEQUENTIAL_SUBTREE_SIZE) {
+                walk(node, visibleStart);
+                return;
+            }
+
+            List<LeafChunkTask<V, C>> tasks = new ArrayList<>(node.children.size());
+            int childStart = visibleStart;
+            for (Node<V> child : node.children) {
+                tasks.add(new LeafChunkTask<>(child, childStart, chunkOf, consumer));
+                childStart += child.visibleSubtreeSize;
+            }
+            invokeAll(tasks);
+        }
+
+        // each leaf belongs to exactly one task, so its chunk slot is written by one thread
+        private void walk(Node<V> subtree, int start) {
+            if (subtree.leaf) {
+                if (subtree.chunk == null) {
+                    subtree.chunk = chunkOf.apply(Collections.unmodifiableList(subtree.values), subtree.visibleBits);
+                }
+                consumer.accept((C) subtree.chunk, start);
+                return;
+            }
+
+            for (Node<V> child : subtree.children) {
+                walk(child, start);
+                start += child.visibleSubtreeSize;
+            }
+        }
+    }
+
+    /**
+     * Covers the index range [from, to), counted over all values or over the visible ones.
+     * Walks the leaf chain from the first value on and only descends for the start.
+     */
+    private final class RangeSpliterator implements Spliterator<V> {
+        private final boolean visibleOnly;
+        private final int expectedModCount;
+        private int from;             // index of the next value
+        private final int to;
+
+        private Node<V> leaf;         // leaf and offset of the last returned value,
+        private int offset;           // null until the first one is located
+
+        RangeSpliterator(boolean visibleOnly, int from, int to, int expectedModCount) {
+            this.visibleOnly = visibleOnly;
+            this.from = from;
+            this.to = to;
+            this.expectedModCount = expectedModCount;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super V> action) {
+            checkForComodification();
+            if (from >= to) return false;
+
+            if (leaf == null) {
+                NodeLocation<V> start = visibleOnly ? locateVisible(from) : locate(from);
+                leaf = start.leaf;
+                offset = start.offsetInLeaf;
+            } else {
+                step();
+            }
+
+            from++;
+            action.accept(leaf.values.get(offset));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super V> action) {
+            checkForComodification();
+            if (from >= to) return;
+
+            if (leaf == null) {
+                NodeLocation<V> start = visibleOnly ? locateVisible(from) : locate(from);
+                leaf = start.leaf;
+                offset = start.offsetInLeaf;
+            } else {
+                step();
+            }
+
+            Node<V> node = leaf;
+            int position = offset;
+            int remaining = to - from;
+            while (true) {
+                action.accept(node.values.get(position));
+                if (--remaining == 0) break;
+
+                // same as step(), on locals
+                position = visibleOnly ? node.visibleBits.nextSetBit(position + 1) : position + 1;
+                while (position < 0 || position >= node.values.size()) {
+                    node = node.next;
+                    position = visibleOnly ? node.visibleBits.nextSetBit(0) : 0;
+                }
+            }
+
+            leaf = node;
+            offset = position;
+            from = to;
+        }
+
+        // the prefix is split off, this keeps the second half
+        @Override
+        public Spliterator<V> trySplit() {
+            int mid = from + (to - from) / 2;
+            if (mid - from < SPLIT_MIN_SIZE) return null;
+
+            RangeSpliterator prefix = new RangeSpliterator(visibleOnly, from, mid, expectedModCount);
+            prefix.leaf = leaf;
+            prefix.offset = offset;
+
+            from = mid;
+            leaf = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        // moves to the next value, there is one as from < to
+        private void step() {
+            offset = visibleOnly ? leaf.visibleBits.nextSetBit(offset + 1) : offset + 1;
+            while (offset < 0 || offset >= leaf.values.size()) {
+                leaf = leaf.next;
+                offset = visibleOnly ? leaf.visibleBits.nextSetBit(0) : 0;
+            }
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException("BPlusList modified after spliterator creation");
+            }
+        }
+    }
+
     // -------------------------------------------------
     //  Insert internals
     // -------------------------------------------------
@@ -438,6 +1012,150 @@ public class BPlusList<V> {
         // update counts in this internal node based on child deltas
         node.subtreeSize += (child.subtreeSize - beforeTotal);
         node.visibleSubtreeSize += (child.visibleSubtreeSize - beforeVisible);
+        addMeasures(node, value, 1); // new values are visible
+    }
+
+    // -------------------------------------------------
+    //  Remove internals
+    // -------------------------------------------------
+
+    private void rebalanceAfterRemove(Node<V> node) {
+        while (node != root && isUnderfull(node)) {
+            Node<V> parent = node.parent;
+            int i = node.indexInParent;
+            Node<V> left = i > 0 ? parent.children.get(i - 1) : null;
+            Node<V> right = i + 1 < parent.children.size() ? parent.children.get(i + 1) : null;
+
+            if (left != null && canLend(left)) {
+                moveLastToFront(left, node);
+                return;
+            }
+            if (right != null && canLend(right)) {
+                moveFirstToEnd(right, node);
+                return;
+            }
+
+            if (left != null) {
+                merge(left, node);
+            } else if (right != null) {
+                merge(node, right);
+            }
+            node = parent;
+        }
+
+        // shrink from the top
+        while (root != null) {
+            if (root.leaf) {
+                if (root.values.isEmpty()) root = null;
+                return;
+            }
+            if (root.children.size() != 1) return;
+
+            root = root.children.get(0);
+            root.parent = null;
+            root.indexInParent = 0;
+        }
+    }
+
+    private boolean isUnderfull(Node<V> node) {
+        return node.leaf ? node.values.size() < t - 1 : node.children.size() < t;
+    }
+
+    private boolean canLend(Node<V> node) {
+        return node.leaf ? node.values.size() > t - 1 : node.children.size() > t;
+    }
+
+    /**
+     * Moves the last value/child of left to the front of its right neighbour.
+     */
+    private void moveLastToFront(Node<V> left, Node<V> right) {
+        if (left.leaf) {
+            V v = left.values.remove(left.values.size() - 1);
+            right.values.add(0, v);
+            updateLocations(right, 0);
+            transferLeafCounts(left, right, isVisible(v) ? 1 : 0);
+        } else {
+            Node<V> child = left.children.remove(left.children.size() - 1);
+            right.children.add(0, child);
+            fixChildIndicesFrom(right, 0);
+            transferCounts(left, right, child);
+        }
+    }
+
+    /**
+     * Moves the first value/child of right to the end of its left neighbour.
+     */
+    private void moveFirstToEnd(Node<V> right, Node<V> left) {
+        if (right.leaf) {
+            V v = right.values.remove(0);
+            left.values.add(v);
+            updateLocations(left, left.values.size() - 1);
+            updateLocations(right, 0);
+            transferLeafCounts(right, left, isVisible(v) ? 1 : 0);
+        } else {
+            Node<V> child = right.children.remove(0);
+            left.children.add(child);
+            fixChildIndicesFrom(left, left.children.size() - 1);
+            fixChildIndicesFrom(right, 0);
+            transferCounts(right, left, child);
+        }
+    }
+
+    private void transferLeafCounts(Node<V> from, Node<V> to, int visibleDelta) {
+        rebuildLeafVisibility(from);
+        rebuildLeafVisibility(to);
+        from.subtreeSize--;
+        to.subtreeSize++;
+        from.visibleSubtreeSize -= visibleDelta;
+        to.visibleSubtreeSize += visibleDelta;
+    }
+
+    private void transferCounts(Node<V> from, Node<V> to, Node<V> movedChild) {
+        from.subtreeSize -= movedChild.subtreeSize;
+        to.subtreeSize += movedChild.subtreeSize;
+        from.visibleSubtreeSize -= movedChild.visibleSubtreeSize;
+        to.visibleSubtreeSize += movedChild.visibleSubtreeSize;
+        addSums(from, movedChild, -1);
+        addSums(to, movedChild, 1);
+    }
+
+    /**
+     * Appends everything of right to left and unlinks right from the (shared) parent.
+     */
+    private void merge(Node<V> left, Node<V> right) {
+        if (left.leaf) {
+            int start = left.values.size();
+            left.values.addAll(right.values);
+            updateLocations(left, start);
+            rebuildLeafVisibility(left);
+            left.next = right.next;
+        } else {
+            int start = left.children.size();
+            left.children.addAll(right.children);
+            fixChildIndicesFrom(left, start);
+            addSums(left, right, 1); // leaves are rebuilt above
+        }
+
+        left.subtreeSize += right.subtreeSize;
+        left.visibleSubtreeSize += right.visibleSubtreeSize;
+
+        Node<V> parent = right.parent;
+        parent.children.remove(right.indexInParent);
+        fixChildIndicesFrom(parent, right.indexInParent);
+    }
+
+    /**
+     * Points the locations of all values from startOffset on to their current slot in the leaf.
+     */
+    private void updateLocations(Node<V> leaf, int startOffset) {
+        for (int i = startOffset; i < leaf.values.size(); i++) {
+            V v = leaf.values.get(i);
+            NodeLocation<V> loc = locationMap.get(v);
+            if (loc != null) {
+                loc.leaf = leaf;
+                loc.offsetInLeaf = i;
+            }
+        }
     }
 
     private boolean isFull(Node<V> node) {
@@ -523,22 +1241,26 @@ public class BPlusList<V> {
             // recompute sizes for left/right internal nodes
             child.subtreeSize = 0;
             child.visibleSubtreeSize = 0;
+            Arrays.fill(child.sums, 0);
             for (int i = 0; i < child.children.size(); i++) {
                 Node<V> c = child.children.get(i);
                 c.parent = child;
                 c.indexInParent = i;
                 child.subtreeSize += c.subtreeSize;
                 child.visibleSubtreeSize += c.visibleSubtreeSize;
+                addSums(child, c, 1);
             }
 
             right.subtreeSize = 0;
             right.visibleSubtreeSize = 0;
+            Arrays.fill(right.sums, 0);
             for (int i = 0; i < right.children.size(); i++) {
                 Node<V> c = right.children.get(i);
                 c.parent = right;
                 c.indexInParent = i;
                 right.subtreeSize += c.subtreeSize;
                 right.visibleSubtreeSize += c.visibleSubtreeSize;
+                addSums(right, c, 1);
             }
 
             parent.children.add(childIndex + 1, right);
@@ -563,6 +1285,10 @@ public class BPlusList<V> {
     private void rebuildLeafVisibility(Node<V> leaf) {
         if (!leaf.leaf) return;
 
+        // every leaf mutation ends up here
+        leaf.chunk = null;
+        modCount++;
+
         leaf.visibleBits.clear();
         for (int i = 0; i < leaf.values.size(); i++) {
             V v = leaf.values.get(i);
@@ -570,12 +1296,59 @@ public class BPlusList<V> {
                 leaf.visibleBits.set(i);
             }
         }
+        sumLeaf(leaf);
     }
 
     private int countVisibleInLeaf(Node<V> leaf) {
         return leaf.visibleBits.cardinality();
     }
 
+    // -------------------------------------------------
+    //  Summary helpers
+    // -------------------------------------------------
+
+    private long[] leafSums(Node<V> leaf) {
+        long[] sums = new long[summaries.size()];
+        for (int bit = leaf.visibleBits.nextSetBit(0); bit >= 0; bit = leaf.visibleBits.nextSetBit(bit + 1)) {
+            V v = leaf.values.get(bit);
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += summaries.get(i).applyAsLong(v);
+            }
+        }
+        return sums;
+    }
+
+    private void sumLeaf(Node<V> leaf) {
+        if (summaries.isEmpty()) return;
+        leaf.sums = leafSums(leaf);
+    }
+
+    private void addSums(Node<V> target, Node<V> source, int sign) {
+        for (int i = 0; i < target.sums.length; i++) {
+            target.sums[i] += sign * source.sums[i];
+        }
+    }
+
+    private void addMeasures(Node<V> target, V value, int sign) {
+        for (int i = 0; i < target.sums.length; i++) {
+            target.sums[i] += sign * summaries.get(i).applyAsLong(value);
+        }
+    }
+
+    // post-order, only used when a summary is registered on a non-empty list
+    private void recomputeSums(Node<V> node) {
+        if (node.leaf) {
+            node.sums = leafSums(node);
+            return;
+        }
+
+        node.sums = new long[summaries.size()];
+        for (Node<V> child : node.children) {
+            recomputeSums(child);
+            addSums(node, child, 1);
+        }
+    }
+
     private int countVisibleBeforeInLeaf(Node<V> leaf, int offsetExclusive) {
         int count = 0;
         int bit = leaf.visibleBits.nextSetBit(0);
@@ -586,6 +1359,53 @@ public class BPlusList<V> {
         return count;
     }
 
+    /**
+     * Leaf and offset of the element at index (must be in range).
+     */
+    private NodeLocation<V> locate(int index) {
+        Node<V> node = root;
+        int pos = index;
+
+        while (!node.leaf) {
+            int childIndex = 0;
+            for (; childIndex < node.children.size(); childIndex++) {
+                int childSize = node.children.get(childIndex).subtreeSize;
+                if (pos < childSize) break;
+                pos -= childSize;
+            }
+            node = node.children.get(childIndex);
+        }
+
+        return new NodeLocation<>(node, pos);
+    }
+
+    /**
+     * Leaf and offset of the visible element at visibleIndex (must be in range).
+     */
+    private NodeLocation<V> locateVisible(int visibleIndex) {
+        Node<V> node = root;
+        int pos = visibleIndex;
+
+        while (!node.leaf) {
+            int prefix = 0;
+            int childIndex = 0;
+
+            for (; childIndex < node.children.size(); childIndex++) {
+                Node<V> child = node.children.get(childIndex);
+                int childVisible = child.visibleSubtreeSize;
+                if (pos < prefix + childVisible) {
+                    pos = pos - prefix;
+                    break;
+                }
+                prefix += childVisible;
+            }
+
+            node = node.children.get(childIndex);
+        }
+
+        return new NodeLocation<>(node, findNthVisibleOffset(node, pos));
+    }
+
     private int findNthVisibleOffset(Node<V> leaf, int n) {
         int count = 0;
         int bit = leaf.visibleBits.nextSetBit(0);
@@ -609,6 +1429,7 @@ public class BPlusList<V> {
         n.subtreeSize = 0;
         n.visibleSubtreeSize = 0;
         n.visibleBits = new BitSet();
+        n.sums = new long[summaries.size()];
         n.next = null;
         n.parent = parent;
         n.indexInParent = indexInParent;
@@ -623,12 +1444,17 @@ public class BPlusList<V> {
         n.subtreeSize = 0;
         n.visibleSubtreeSize = 0;
         n.visibleBits = null; // not used
+        n.sums = new long[summaries.size()];
         n.next = null;
         n.parent = parent;
         n.indexInParent = indexInParent;
         return n;
     }
 
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
     private void checkIndex(int index) {
         if (index < 0 || index >= size) {
             throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
@@ -730,6 +1556,12 @@ public class BPlusList<V> {
                             + node.visibleSubtreeSize + " but visibleBits.cardinality = " + vis);
                 }
 
+                long[] sums = leafSums(node);
+                if (!Arrays.equals(node.sums, sums)) {
+                    errors.add("leaf node at depth " + depth + " has sums = "
+                            + Arrays.toString(node.sums) + " but counted " + Arrays.toString(sums));
+                }
+
                 if (!isRoot && node.values.isEmpty()) {
                     errors.add("non-root leaf at depth " + depth + " has 0 values");
                 }
@@ -767,6 +1599,7 @@ public class BPlusList<V> {
 
                 int sum = 0;
                 int sumVis = 0;
+                long[] childSums = new long[summaries.size()];
 
                 for (int i = 0; i < node.children.size(); i++) {
                     Node<V> child = node.children.get(i);
@@ -779,6 +1612,9 @@ public class BPlusList<V> {
                     }
                     sum += child.subtreeSize;
                     sumVis += child.visibleSubtreeSize;
+                    for (int j = 0; j < childSums.length && j < child.sums.length; j++) {
+                        childSums[j] += child.sums[j];
+                    }
                 }
 
                 if (sum != node.subtreeSize) {
@@ -789,6 +1625,10 @@ public class BPlusList<V> {
                     errors.add("internal node at depth " + depth + " has visibleSubtreeSize = "
                             + node.visibleSubtreeSize + " but sum(children.visibleSubtreeSize) = " + sumVis);
                 }
+                if (!Arrays.equals(node.sums, childSums)) {
+                    errors.add("internal node at depth " + depth + " has sums = "
+                            + Arrays.toString(node.sums) + " but sum(children.sums) = " + Arrays.toString(childSums));
+                }
                 if (node.visibleSubtreeSize < 0 || node.visibleSubtreeSize > node.subtreeSize) {
                     errors.add("internal node at depth " + depth + " visibleSubtreeSize out of bounds: "
                             + node.visibleSubtreeSize + " vs subtreeSize " + node.subtreeSize);
@@ -811,6 +1651,7 @@ public class BPlusList<V> {
 
         int subtreeSize;              // total elements in subtree
         int visibleSubtreeSize;       // visible elements in subtree
+        long[] sums;                  // per registered summary, sum over visible elements in subtree
 
         List<V> values;               // only if leaf
         List<Node<V>> children;       // only if internal
@@ -820,6 +1661,7 @@ public class BPlusList<V> {
         int indexInParent;
 
         BitSet visibleBits;           // only if leaf
+        Object chunk;                 // only if leaf, see forEachLeafChunk
     }
 
     private static class NodeLocation<V> {
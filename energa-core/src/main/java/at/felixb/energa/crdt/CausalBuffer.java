@@ -0,0 +1,216 @@
+package at.felixb.energa.crdt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds operations whose causal dependency (parent node for inserts, target node
+ * for deletes) has not arrived yet.
+ * <p>
+ * Buffered ops are indexed by the node id they are waiting for, so releasing
+ * everything that became ready through one insert is a single map lookup. The
+ * buffer itself never applies anything; the document drains it with an explicit
+ * worklist so that long dependency chains do not recurse.
+ * <p>
+ * All entries are additionally kept in arrival order (intrusive doubly linked
+ * list) to answer age queries and to evict the oldest entry in O(1).
+ */
+class CausalBuffer {
+
+    private final CausalBufferPolicy policy;
+    private final Map<CrdtNodeId, List<Entry>> insertsByParent = new HashMap<>();
+    private final Map<CrdtNodeId, Entry> deletesByTarget = new HashMap<>();
+
+    private Entry oldest;
+    private Entry newest;
+    private int size = 0;
+    private long droppedCount = 0;
+
+    CausalBuffer(CausalBufferPolicy policy) {
+        this.policy = policy;
+    }
+
+    void addInsert(CrdtInsertOp op) {
+        if (!makeRoom()) return;
+
+        Entry entry = new Entry(op, op.getParentNodeId(), System.nanoTime());
+        insertsByParent.computeIfAbsent(entry.key, k -> new ArrayList<>(1)).add(entry);
+        link(entry);
+    }
+
+    void addDelete(CrdtDeleteOp op) {
+        // a second delete of the same node has no additional effect
+        if (deletesByTarget.containsKey(op.getDeleteNodeId())) return;
+        if (!makeRoom()) return;
+
+        Entry entry = new Entry(op, op.getDeleteNodeId(), System.nanoTime());
+        deletesByTarget.put(entry.key, entry);
+        link(entry);
+    }
+
+    /**
+     * Removes and returns all buffered inserts waiting for the given parent.
+     */
+    List<CrdtInsertOp> releaseInsertsFor(CrdtNodeId parentId) {
+        List<Entry> entries = insertsByParent.remove(parentId);
+        if (entries == null) return List.of();
+
+        List<CrdtInsertOp> ops = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            unlink(entry);
+            ops.add((CrdtInsertOp) entry.op);
+        }
+        return ops;
+    }
+
+    /**
+     * Removes and returns the buffered delete for the given node, or null.
+     */
+    CrdtDeleteOp releaseDeleteFor(CrdtNodeId nodeId) {
+        Entry entry = deletesByTarget.remove(nodeId);
+        if (entry == null) return null;
+
+        unlink(entry);
+        return (CrdtDeleteOp) entry.op;
+    }
+
+    /**
+     * Whether the operation is buffered already. For deletes any buffered delete of the
+     * same node counts, see {@link #addDelete}.
+     */
+    boolean contains(CrdtOperation op) {
+        if (op instanceof CrdtDeleteOp delete) return deletesByTarget.containsKey(delete.getDeleteNodeId());
+
+        CrdtInsertOp insert = (CrdtInsertOp) op;
+        for (Entry entry : insertsByParent.getOrDefault(insert.getParentNodeId(), List.of())) {
+            if (((CrdtInsertOp) entry.op).getInsertNodeId().equals(insert.getInsertNodeId())) return true;
+        }
+        return false;
+    }
+
+    boolean hasPendingInsertsFor(CrdtNodeId parentId) {
+        return insertsByParent.containsKey(parentId);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long droppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Age of the longest waiting operation, {@link Duration#ZERO} if the buffer is empty.
+     */
+    Duration oldestAge() {
+        if (oldest == null) return Duration.ZERO;
+        return Duration.ofNanos(System.nanoTime() - oldest.enqueuedAtNanos);
+    }
+
+    /**
+     * All buffered operations in arrival order.
+     */
+    List<CrdtOperation> pendingOps() {
+        List<CrdtOperation> pending = new ArrayList<>(size);
+        for (Entry entry = oldest; entry != null; entry = entry.next) {
+            pending.add(entry.op);
+        }
+        return pending;
+    }
+
+    /**
+     * Independent buffer with the same policy, entries and arrival times, e.g. for a fork.
+     */
+    CausalBuffer copy() {
+        CausalBuffer copy = new CausalBuffer(policy);
+        copy.droppedCount = droppedCount;
+
+        for (Entry entry = oldest; entry != null; entry = entry.next) {
+            Entry copied = new Entry(entry.op, entry.key, entry.enqueuedAtNanos);
+            if (entry.op instanceof CrdtInsertOp) {
+                copy.insertsByParent.computeIfAbsent(copied.key, k -> new ArrayList<>(1)).add(copied);
+            } else {
+                copy.deletesByTarget.put(copied.key, copied);
+            }
+            copy.link(copied);
+        }
+        return copy;
+    }
+
+    // #### Private
+
+    private boolean makeRoom() {
+        if (size < policy.maxPendingOps()) return true;
+
+        switch (policy.overflowStrategy()) {
+            case REJECT -> throw new IllegalStateException(
+                    "Causal buffer full: " + size + " pending ops (max " + policy.maxPendingOps() + ")");
+            case DROP_NEWEST -> {
+                droppedCount++;
+                return false;
+            }
+            case DROP_OLDEST -> {
+                droppedCount++;
+                if (oldest == null) return false; // maxPendingOps == 0
+                drop(oldest);
+                return true;
+            }
+        }
+        throw new IllegalStateException("Unsupported overflow strategy: " + policy.overflowStrategy());
+    }
+
+    private void drop(Entry entry) {
+        unlink(entry);
+
+        if (entry.op instanceof CrdtInsertOp) {
+            List<Entry> siblings = insertsByParent.get(entry.key);
+            siblings.remove(entry);
+            if (siblings.isEmpty()) insertsByParent.remove(entry.key);
+        } else {
+            deletesByTarget.remove(entry.key);
+        }
+    }
+
+    private void link(Entry entry) {
+        entry.prev = newest;
+        if (newest != null) newest.next = entry;
+        newest = entry;
+        if (oldest == null) oldest = entry;
+        size++;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) entry.prev.next = entry.next;
+        else oldest = entry.next;
+
+        if (entry.next != null) entry.next.prev = entry.prev;
+        else newest = entry.prev;
+
+        entry.prev = null;
+        entry.next = null;
+        size--;
+    }
+
+    private static class Entry {
+        final CrdtOperation op;
+        final CrdtNodeId key;          // node id the op is waiting for
+        final long enqueuedAtNanos;
+
+        Entry prev;
+        Entry next;
+
+        Entry(CrdtOperation op, CrdtNodeId key, long enqueuedAtNanos) {
+            this.op = op;
+            this.key = key;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+}
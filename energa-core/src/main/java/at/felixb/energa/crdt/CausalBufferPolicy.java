@@ -0,0 +1,45 @@
+package at.felixb.energa.crdt;
+
+/**
+ * Limits how many causally not-yet-ready operations a document keeps buffered
+ * and decides what happens when the limit is reached.
+ *
+ * @param maxPendingOps    maximum number of buffered operations (inserts + deletes)
+ * @param overflowStrategy what to do with an operation that would exceed the limit
+ */
+public record CausalBufferPolicy(int maxPendingOps, OverflowStrategy overflowStrategy) {
+
+    public enum OverflowStrategy {
+        /**
+         * The incoming operation is rejected with an {@link IllegalStateException},
+         * the document stays unchanged.
+         */
+        REJECT,
+        /**
+         * The oldest buffered operation is discarded to make room. The host has to
+         * re-deliver it (e.g. via a full re-sync) for the replicas to converge.
+         */
+        DROP_OLDEST,
+        /**
+         * The incoming operation is discarded silently.
+         */
+        DROP_NEWEST
+    }
+
+    public CausalBufferPolicy {
+        if (maxPendingOps < 0) {
+            throw new IllegalArgumentException("maxPendingOps must be >= 0");
+        }
+        if (overflowStrategy == null) {
+            throw new IllegalArgumentException("overflowStrategy must not be null");
+        }
+    }
+
+    public static CausalBufferPolicy unbounded() {
+        return new CausalBufferPolicy(Integer.MAX_VALUE, OverflowStrategy.REJECT);
+    }
+
+    public static CausalBufferPolicy bounded(int maxPendingOps, OverflowStrategy overflowStrategy) {
+        return new CausalBufferPolicy(maxPendingOps, overflowStrategy);
+    }
+}
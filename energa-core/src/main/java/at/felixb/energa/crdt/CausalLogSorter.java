@@ -0,0 +1,187 @@
+package at.felixb.energa.crdt;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Orders a batch of operations causally for bulk import.
+ * <p>
+ * Inserts are emitted in DFS order of the CRDT tree they describe (parent before
+ * children, siblings by descending id), which is exactly the linear order of the
+ * resulting document. Deletes follow after all inserts. Everything that cannot be
+ * placed (duplicates, inserts whose parent is not part of the batch, deletes of such
+ * nodes) is returned separately and has to go through the regular apply path.
+ * <p>
+ * Runs in O(n) apart from sorting the children of each parent by id.
+ * <br/>
+ * With a pool, the subtrees are traversed in parallel: the linear order of a subtree
+ * does not depend on anything outside of it, so the children of a node can be ordered
+ * by different threads and the results concatenated in sibling order.
+ */
+class CausalLogSorter {
+
+    private static final Comparator<CrdtInsertOp> BY_INSERT_ID_DESC =
+            Comparator.comparing(CrdtInsertOp::getInsertNodeId).reversed();
+
+    // below this, forking costs more than it saves
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+    // fork only while the worker has few queued tasks nobody steals, see ForkJoinTask
+    private static final int MAX_SURPLUS_TASKS = 2;
+
+    record SortedLog(List<CrdtInsertOp> inserts, List<CrdtDeleteOp> deletes, List<CrdtOperation> unresolved) {
+    }
+
+    private CausalLogSorter() {
+    }
+
+    static SortedLog sort(List<CrdtOperation> operations, CrdtNodeId rootId) {
+        return sort(operations, rootId, null);
+    }
+
+    /**
+     * @param pool traverses the subtrees in parallel, null to stay on the calling thread
+     */
+    static SortedLog sort(List<CrdtOperation> operations, CrdtNodeId rootId, ForkJoinPool pool) {
+        Map<CrdtNodeId, List<CrdtInsertOp>> childrenByParent = new HashMap<>();
+        Set<CrdtNodeId> insertIds = new HashSet<>();
+        List<CrdtDeleteOp> allDeletes = new ArrayList<>();
+        List<CrdtOperation> unresolved = new ArrayList<>();
+
+        for (CrdtOperation operation : operations) {
+            if (operation instanceof CrdtInsertOp insertOp) {
+                if (insertIds.add(insertOp.getInsertNodeId())) {
+                    childrenByParent.computeIfAbsent(insertOp.getParentNodeId(), k -> new ArrayList<>(1)).add(insertOp);
+                } else {
+                    unresolved.add(insertOp); // duplicate delivery
+                }
+            } else if (operation instanceof CrdtDeleteOp deleteOp) {
+                allDeletes.add(deleteOp);
+            } else {
+                throw new IllegalArgumentException("Unsupported op type: " + operation.getClass());
+            }
+        }
+
+        // the map is only read from here on, so the traversal can share it between threads
+        List<CrdtInsertOp> rootChildren = childrenByParent.getOrDefault(rootId, List.of());
+        List<CrdtInsertOp> inserts;
+        if (pool == null || insertIds.size() < PARALLEL_THRESHOLD) {
+            inserts = new ArrayList<>(insertIds.size());
+            traverse(rootChildren, childrenByParent, inserts);
+        } else {
+            inserts = new ArrayList<>(insertIds.size());
+            for (List<CrdtInsertOp> segment : pool.invoke(new SubtreeTask(rootChildren, childrenByParent))) {
+                inserts.addAll(segment);
+            }
+        }
+
+        // whatever was not reached has no path to the root within this batch
+        Set<CrdtNodeId> placed = insertIds;
+        if (inserts.size() < insertIds.size()) {
+            placed = new HashSet<>(inserts.size());
+            for (CrdtInsertOp insertOp : inserts) placed.add(insertOp.getInsertNodeId());
+            for (List<CrdtInsertOp> children : childrenByParent.values()) {
+                for (CrdtInsertOp insertOp : children) {
+                    if (!placed.contains(insertOp.getInsertNodeId())) unresolved.add(insertOp);
+                }
+            }
+        }
+
+        List<CrdtDeleteOp> deletes = new ArrayList<>(allDeletes.size());
+        for (CrdtDeleteOp deleteOp : allDeletes) {
+            if (placed.contains(deleteOp.getDeleteNodeId())) {
+                deletes.add(deleteOp);
+            } else {
+                unresolved.add(deleteOp);
+            }
+        }
+
+        return new SortedLog(inserts, deletes, unresolved);
+    }
+
+    // #### Private
+
+    // DFS below the given siblings, emitting each insert when it is popped
+    private static void traverse(List<CrdtInsertOp> siblings, Map<CrdtNodeId, List<CrdtInsertOp>> childrenByParent,
+                                 List<CrdtInsertOp> out) {
+        Deque<CrdtInsertOp> stack = new ArrayDeque<>();
+        pushChildren(siblings, stack);
+
+        while (!stack.isEmpty()) {
+            CrdtInsertOp insertOp = stack.pop();
+            out.add(insertOp);
+            pushChildren(childrenByParent.get(insertOp.getInsertNodeId()), stack);
+        }
+    }
+
+    // pushes the smallest id first, so the largest id is popped (= emitted) first
+    private static void pushChildren(List<CrdtInsertOp> children, Deque<CrdtInsertOp> stack) {
+        if (children == null) return;
+        if (children.size() > 1) children.sort(BY_INSERT_ID_DESC);
+
+        for (int i = children.size() - 1; i >= 0; i--) {
+            stack.push(children.get(i));
+        }
+    }
+
+    /**
+     * Same DFS as {@link #traverse}, but the subtrees below a node with several children
+     * are handed to a forked task while the pool has idle workers. The result is the
+     * linear order in segments: the own output, cut where a forked subtree belongs.
+     * <br/>
+     * Every child list is sorted by exactly one task, the one that reaches its parent.
+     */
+    private static final class SubtreeTask extends RecursiveTask<List<List<CrdtInsertOp>>> {
+
+        private final List<CrdtInsertOp> siblings;
+        private final Map<CrdtNodeId, List<CrdtInsertOp>> childrenByParent;
+
+        SubtreeTask(List<CrdtInsertOp> siblings, Map<CrdtNodeId, List<CrdtInsertOp>> childrenByParent) {
+            this.siblings = siblings;
+            this.childrenByParent = childrenByParent;
+        }
+
+        @Override
+        protected List<List<CrdtInsertOp>> compute() {
+            // own segments, null where the result of the next fork goes
+            List<List<CrdtInsertOp>> pieces = new ArrayList<>();
+            List<SubtreeTask> forks = new ArrayList<>();
+
+            List<CrdtInsertOp> segment = new ArrayList<>();
+            Deque<CrdtInsertOp> stack = new ArrayDeque<>();
+            pushChildren(siblings, stack);
+
+            while (!stack.isEmpty()) {
+                CrdtInsertOp insertOp = stack.pop();
+                segment.add(insertOp);
+
+                List<CrdtInsertOp> children = childrenByParent.get(insertOp.getInsertNodeId());
+                if (children != null && children.size() > 1
+                        && ForkJoinTask.getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS) {
+                    SubtreeTask fork = new SubtreeTask(children, childrenByParent);
+                    fork.fork();
+                    forks.add(fork);
+
+                    pieces.add(segment);
+                    pieces.add(null);
+                    segment = new ArrayList<>();
+                } else {
+                    pushChildren(children, stack);
+                }
+            }
+            pieces.add(segment);
+
+            List<List<CrdtInsertOp>> result = new ArrayList<>(pieces.size() + forks.size());
+            int nextFork = 0;
+            for (List<CrdtInsertOp> piece : pieces) {
+                if (piece != null) {
+                    if (!piece.isEmpty()) result.add(piece);
+                } else {
+                    result.addAll(forks.get(nextFork++).join());
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package at.felixb.energa.crdt;
+
+import java.util.Arrays;
+
+/**
+ * Immutable map from node id to the {@link TextChunk} containing it, as of one
+ * {@link DocumentSnapshot}.
+ * <p>
+ * A hash array mapped trie: 32 slots per level, addressed by 5 bits of the id's hash.
+ * Updating returns a new index that shares every untouched branch with this one, so
+ * consecutive snapshots cost O(k log n) for the k ids of the chunks that changed, and
+ * every snapshot keeps an exact index of its own revision. Lookups are O(log n).
+ * <br/>
+ * A batch of updates goes through one {@link Update}: nodes it created are modified
+ * in place until {@link Update#build()}, only nodes shared with earlier versions are copied.
+ */
+final class ChunkIndex {
+
+    static final ChunkIndex EMPTY = new ChunkIndex(new Node(null, 0, new Object[0]));
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+
+    private ChunkIndex(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Chunk containing the node, null if the node is not part of this index.
+     */
+    TextChunk get(CrdtNodeId id) {
+        int hash = hash(id);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (shift >= Integer.SIZE) return node.find(id);
+
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) return null;
+
+            Object slot = node.slots[index(node.bitmap, bit)];
+            if (slot instanceof Entry entry) return entry.id().equals(id) ? entry.chunk() : null;
+            node = (Node) slot;
+        }
+    }
+
+    Update update() {
+        return new Update(root);
+    }
+
+    /**
+     * A batch of changes on top of the index it was created from, which stays unchanged.
+     */
+    static final class Update {
+
+        private Node root;
+        private Object owner = new Object();
+
+        private Update(Node root) {
+            this.root = root;
+        }
+
+        void put(CrdtNodeId id, TextChunk chunk) {
+            root = put(root, 0, hash(id), new Entry(id, chunk));
+        }
+
+        void remove(CrdtNodeId id) {
+            root = remove(root, 0, hash(id), id);
+        }
+
+        ChunkIndex build() {
+            owner = new Object(); // the built index is shared from now on, later changes copy
+            return new ChunkIndex(root);
+        }
+
+        // #### Private
+
+        private Node put(Node node, int shift, int hash, Entry entry) {
+            if (shift >= Integer.SIZE) {
+                for (int i = 0; i < node.slots.length; i++) {
+                    if (((Entry) node.slots[i]).id().equals(entry.id())) return replace(node, i, entry);
+                }
+                Node edited = editable(node);
+                edited.slots = insert(edited.slots, edited.slots.length, entry);
+                return edited;
+            }
+
+            int bit = bit(hash, shift);
+            int i = index(node.bitmap, bit);
+            if ((node.bitmap & bit) == 0) {
+                Node edited = editable(node);
+                edited.slots = insert(edited.slots, i, entry);
+                edited.bitmap |= bit;
+                return edited;
+            }
+
+            Object slot = node.slots[i];
+            if (slot instanceof Node child) return replace(node, i, put(child, shift + BITS, hash, entry));
+
+            Entry existing = (Entry) slot;
+            if (existing.id().equals(entry.id())) {
+                return existing.chunk() == entry.chunk() ? node : replace(node, i, entry);
+            }
+            return replace(node, i, branch(existing, entry, shift + BITS));
+        }
+
+        private Node remove(Node node, int shift, int hash, CrdtNodeId id) {
+            if (shift >= Integer.SIZE) {
+                for (int i = 0; i < node.slots.length; i++) {
+                    if (((Entry) node.slots[i]).id().equals(id)) return without(node, i, 0);
+                }
+                return node;
+            }
+
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) return node;
+
+            int i = index(node.bitmap, bit);
+            Object slot = node.slots[i];
+            if (slot instanceof Entry entry) {
+                return entry.id().equals(id) ? without(node, i, bit) : node;
+            }
+
+            Node child = (Node) slot;
+            Node replaced = remove(child, shift + BITS, hash, id);
+            if (replaced == child) return node;
+            return replaced.slots.length == 0 ? without(node, i, bit) : replace(node, i, replaced);
+        }
+
+        // node with both entries, which collide in all bits below shift
+        private Node branch(Entry a, Entry b, int shift) {
+            if (shift >= Integer.SIZE) return new Node(owner, 0, new Object[] { a, b });
+
+            int bitA = bit(hash(a.id()), shift);
+            int bitB = bit(hash(b.id()), shift);
+            if (bitA == bitB) return new Node(owner, bitA, new Object[] { branch(a, b, shift + BITS) });
+
+            Object[] slots = Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[] { a, b } : new Object[] { b, a };
+            return new Node(owner, bitA | bitB, slots);
+        }
+
+        private Node replace(Node node, int i, Object slot) {
+            if (node.slots[i] == slot) return node;
+            Node edited = editable(node);
+            edited.slots[i] = slot;
+            return edited;
+        }
+
+        private Node without(Node node, int i, int bit) {
+            Node edited = editable(node);
+            Object[] slots = new Object[edited.slots.length - 1];
+            System.arraycopy(edited.slots, 0, slots, 0, i);
+            System.arraycopy(edited.slots, i + 1, slots, i, slots.length - i);
+            edited.slots = slots;
+            edited.bitmap &= ~bit;
+            return edited;
+        }
+
+        private Node editable(Node node) {
+            return node.owner == owner ? node : new Node(owner, node.bitmap, node.slots.clone());
+        }
+
+        private static Object[] insert(Object[] slots, int i, Object slot) {
+            Object[] inserted = Arrays.copyOf(slots, slots.length + 1);
+            System.arraycopy(slots, i, inserted, i + 1, slots.length - i);
+            inserted[i] = slot;
+            return inserted;
+        }
+    }
+
+    // #### Private
+
+    private static int hash(CrdtNodeId id) {
+        int h = id.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    // slots: one Entry or child Node per set bit, in bit order; below all 32 hash bits a
+    // plain list of entries with equal hashes (bitmap unused)
+    private static final class Node {
+
+        private final Object owner; // update that created it and may still modify it
+        private int bitmap;
+        private Object[] slots;
+
+        private Node(Object owner, int bitmap, Object[] slots) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private TextChunk find(CrdtNodeId id) {
+            for (Object slot : slots) {
+                Entry entry = (Entry) slot;
+                if (entry.id().equals(id)) return entry.chunk();
+            }
+            return null;
+        }
+    }
+
+    private record Entry(CrdtNodeId id, TextChunk chunk) {
+    }
+}
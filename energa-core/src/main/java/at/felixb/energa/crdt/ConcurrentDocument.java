@@ -0,0 +1,323 @@
+package at.felixb.energa.crdt;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe wrapper around a {@link Document}.
+ * <p>
+ * Writers ({@link #apply}, listener registration) take the write lock of a
+ * {@link StampedLock}, so there is a single writer at a time. Positional reads
+ * (charAt, anchors, line index, offset conversion, revision) first run without any
+ * lock as an optimistic read and are only repeated under the read lock if a write
+ * happened in the meantime. Readers therefore neither block each other nor a writer.
+ * A read that races with a writer may see the document half-modified and fail; such
+ * failures (including {@link Error}s) are discarded together with the result, only
+ * errors of validated reads are thrown. After {@value #OPTIMISTIC_ATTEMPTS} invalidated
+ * attempts the read takes the read lock. An optimistic read cannot loop forever on a
+ * half-modified document: the delegate's traversals descend trees or walk bounded
+ * arrays, and a writer never links nodes into a cycle.
+ * <p>
+ * Reads that fill the document's caches (render, renderRange) always run under the
+ * read lock, so a reader never stores text of a half-applied write in a cache.
+ * <br/>
+ * Change events and operation feed signals of a write are queued while the write lock
+ * is held and delivered after it is released, in the order of the writes. Listeners and
+ * feed subscribers may therefore read from and write to this wrapper. When a write
+ * returns, its events have been delivered, by the writing thread or by the thread that
+ * was delivering at that time.
+ */
+public final class ConcurrentDocument implements Document {
+
+    private final Document delegate;
+    private final StampedLock lock = new StampedLock();
+
+    private static final int OPTIMISTIC_ATTEMPTS = 2;
+
+    // deliveries of writes, queued under the write lock and run after it was released
+    private final Queue<Runnable> deliveries = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private volatile Thread writer;
+
+    private final LongAdder optimisticReads = new LongAdder();
+    private final LongAdder optimisticReadFailures = new LongAdder();
+
+    /**
+     * @param delegate document that is from now on only accessed through this wrapper
+     */
+    public ConcurrentDocument(Document delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void apply(CrdtOperation operation) {
+        write(() -> delegate.apply(operation));
+    }
+
+    /**
+     * Applies the whole batch under one write lock.
+     */
+    @Override
+    public void applyAll(List<? extends CrdtOperation> operations) {
+        write(() -> delegate.applyAll(operations));
+    }
+
+    /**
+     * The listener is called after the write that caused the event released the lock.
+     */
+    @Override
+    public void registerDocumentChangedListener(DocumentChangedListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener must not be null");
+        }
+        write(() -> delegate.registerDocumentChangedListener(
+                event -> deliveries.add(() -> listener.onDocumentChanged(event))));
+    }
+
+    /**
+     * Runs several reads against one consistent state of the document, under the read
+     * lock. Also the way to reach methods of the delegate that this interface does not
+     * have, e.g. {@link CrdtDocument#writeUtf8}. The reader must not modify the document
+     * and must not keep the reference.
+     */
+    public <R> R read(Function<? super Document, R> reader) {
+        long stamp = lock.readLock();
+        try {
+            return reader.apply(delegate);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public String render() {
+        return read(Document::render);
+    }
+
+    @Override
+    public String render(ForkJoinPool pool) {
+        return read(d -> d.render(pool));
+    }
+
+    @Override
+    public String renderRange(int fromVisible, int toVisible) {
+        return read(d -> d.renderRange(fromVisible, toVisible));
+    }
+
+    /**
+     * The rendered text, as the live view of the delegate must not be read concurrently to writes.
+     */
+    @Override
+    public CharSequence asCharSequence() {
+        return render();
+    }
+
+    @Override
+    public char charAt(int visibleIndex) {
+        return (char) optimisticInt(() -> delegate.charAt(visibleIndex));
+    }
+
+    @Override
+    public UUID getSiteId() {
+        return delegate.getSiteId();
+    }
+
+    @Override
+    public Anchor createAnchor(int index, Gravity gravity) {
+        return optimistic(() -> delegate.createAnchor(index, gravity));
+    }
+
+    @Override
+    public Anchor createAnchor(int offset, OffsetUnit unit, Gravity gravity) {
+        return optimistic(() -> delegate.createAnchor(offset, unit, gravity));
+    }
+
+    @Override
+    public int resolveAnchor(Anchor anchor) {
+        return optimisticInt(() -> delegate.resolveAnchor(anchor));
+    }
+
+    @Override
+    public int resolveAnchor(Anchor anchor, OffsetUnit unit) {
+        return optimisticInt(() -> delegate.resolveAnchor(anchor, unit));
+    }
+
+    @Override
+    public Range resolveRange(Anchor a, Anchor b) {
+        return optimistic(() -> delegate.resolveRange(a, b));
+    }
+
+    @Override
+    public LineColumn resolveAnchorToLineColumn(Anchor anchor) {
+        return optimistic(() -> delegate.resolveAnchorToLineColumn(anchor));
+    }
+
+    @Override
+    public int lineCount() {
+        return optimisticInt(delegate::lineCount);
+    }
+
+    @Override
+    public int lineOfOffset(int visibleOffset) {
+        return optimisticInt(() -> delegate.lineOfOffset(visibleOffset));
+    }
+
+    @Override
+    public int offsetOfLine(int line) {
+        return optimisticInt(() -> delegate.offsetOfLine(line));
+    }
+
+    @Override
+    public int length(OffsetUnit unit) {
+        return optimisticInt(() -> delegate.length(unit));
+    }
+
+    @Override
+    public int convertOffset(int offset, OffsetUnit from, OffsetUnit to) {
+        return optimisticInt(() -> delegate.convertOffset(offset, from, to));
+    }
+
+    @Override
+    public long getRevision() {
+        return optimistic(delegate::getRevision);
+    }
+
+    @Override
+    public Flow.Publisher<List<CrdtOperation>> operationFeed(long fromRevision, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        // signals of a write are handed to the executor after the write lock was released;
+        // a rejection there cancels the subscription like it would without deferral
+        Executor deferring = command -> {
+            if (writer == Thread.currentThread()) {
+                deliveries.add(() -> {
+                    try {
+                        executor.execute(command);
+                    } catch (RejectedExecutionException e) {
+                        if (!(command instanceof OperationFeed.FeedSubscription subscription)) throw e;
+                        subscription.rejected(e);
+                    }
+                });
+            } else {
+                executor.execute(command);
+            }
+        };
+        return read(d -> d.operationFeed(fromRevision, deferring));
+    }
+
+    /**
+     * Number of reads that were attempted without lock.
+     */
+    public long getOptimisticReadCount() {
+        return optimisticReads.sum();
+    }
+
+    /**
+     * Number of optimistic reads that overlapped a write and were repeated under the read lock.
+     */
+    public long getOptimisticReadFailureCount() {
+        return optimisticReadFailures.sum();
+    }
+
+    // #### Private
+
+    private void write(Runnable writeAction) {
+        long stamp = lock.writeLock();
+        writer = Thread.currentThread();
+        try {
+            writeAction.run();
+        } finally {
+            writer = null;
+            lock.unlockWrite(stamp);
+        }
+        deliver();
+    }
+
+    /**
+     * Runs the queued deliveries in order. A writer always takes the delivery lock once,
+     * so if another thread already took its events, it waits until they were delivered. The re-check after
+     * unlocking picks up deliveries queued while the lock was being released. A failing
+     * listener does not stop the delivery of later events; its exception is rethrown.
+     */
+    private void deliver() {
+        RuntimeException failure = null;
+        do {
+            deliveryLock.lock();
+            try {
+                Runnable delivery;
+                while ((delivery = deliveries.poll()) != null) {
+                    try {
+                        delivery.run();
+                    } catch (RuntimeException e) {
+                        if (failure == null) failure = e;
+                        else failure.addSuppressed(e);
+                    }
+                }
+            } finally {
+                deliveryLock.unlock();
+            }
+        } while (!deliveries.isEmpty());
+        if (failure != null) throw failure;
+    }
+
+    private <R> R optimistic(Supplier<R> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) break; // a writer holds the lock
+            optimisticReads.increment();
+            try {
+                R result = reader.get();
+                if (lock.validate(stamp)) return result;
+            } catch (Throwable e) {
+                if (lock.validate(stamp)) throw e; // genuine error, e.g. index out of range
+            }
+            optimisticReadFailures.increment();
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // same as optimistic(), without boxing
+    private int optimisticInt(IntSupplier reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) break;
+            optimisticReads.increment();
+            try {
+                int result = reader.getAsInt();
+                if (lock.validate(stamp)) return result;
+            } catch (Throwable e) {
+                if (lock.validate(stamp)) throw e;
+            }
+            optimisticReadFailures.increment();
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return reader.getAsInt();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -2,14 +2,30 @@ package at.felixb.energa.crdt;
 
 public class CrdtDeleteOp extends CrdtOperation {
     private final CrdtNodeId deleteNodeId;
+    private final CrdtNodeId stamp;
 
     public CrdtDeleteOp(CrdtNodeId deleteNodeId) {
+        this(deleteNodeId, null);
+    }
+
+    /**
+     * @param deleteNodeId node to delete
+     * @param stamp        unique (site, counter) of this delete, used to decide causal
+     *                     stability for garbage collection. Tombstones of unstamped
+     *                     deletes are never collected.
+     */
+    public CrdtDeleteOp(CrdtNodeId deleteNodeId, CrdtNodeId stamp) {
         super(OperationType.DELETE);
 
         this.deleteNodeId = deleteNodeId;
+        this.stamp = stamp;
     }
 
     public CrdtNodeId getDeleteNodeId() {
         return deleteNodeId;
     }
+
+    public CrdtNodeId getStamp() {
+        return stamp;
+    }
 }
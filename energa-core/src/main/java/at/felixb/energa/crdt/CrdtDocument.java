@@ -1,29 +1,79 @@
 package at.felixb.energa.crdt;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.*;
-
-import static at.felixb.energa.crdt.DocumentChangeEvent.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 public class CrdtDocument implements Document {
 
+    // below this, render(pool) renders on the calling thread
+    private static final int PARALLEL_RENDER_THRESHOLD = 1 << 16;
+
     private final UUID siteId;
-    private final CrdtNode root;
-    private final Map<CrdtNodeId, CrdtNode> indexedNodeAccessMap = new HashMap<>();
-    private final List<CrdtOperation> operations = new ArrayList<>();
-    private final Map<CrdtNodeId, List<CrdtInsertOp>> pendingInsertOps = new HashMap<>();
-    private final Map<CrdtNodeId, CrdtDeleteOp> pendingDeleteOps = new HashMap<>();
+    private final OperationLog operationLog = new OperationLog();
+    private final CausalBuffer causalBuffer;
     private final List<DocumentChangedListener> changeListeners = new ArrayList<>();
-    private final LinearOrderCache linearOrderCache;
+
+    // tree state, shared with forks until the first write, see fork()
+    private CrdtNode root;
+    private Map<CrdtNodeId, CrdtNode> indexedNodeAccessMap = new HashMap<>();
+    private LinearOrderCache linearOrderCache;
+    // tombstone id -> stamp of the delete that created it (stamped deletes only)
+    private Map<CrdtNodeId, CrdtNodeId> tombstoneStamps = new HashMap<>();
+    // garbage collected node id -> its linear order predecessor at collection time
+    private Map<CrdtNodeId, CrdtNodeId> collectedNodes = new HashMap<>();
+    // garbage collected node id -> what is needed to restore it as a tombstone
+    private Map<CrdtNodeId, CollectedNode> collectedTombstones = new HashMap<>();
+    // node id -> collected tombstones whose children were spliced into it
+    private Map<CrdtNodeId, List<CrdtNodeId>> splicedTombstones = new HashMap<>();
+    // garbage collection runs whose records are still kept, oldest first
+    private Deque<CollectionRun> collectionRuns = new ArrayDeque<>();
+    private int collectionRunCount = 0;
+    // documents the tree state is shared with, null while this document owns it alone
+    private SharedState sharedState;
+
+    // last render() result, dropped on every visible change
+    private String renderCache;
+
+    // last snapshot, readable from any thread, see snapshot()
+    private volatile DocumentSnapshot publishedSnapshot;
+    private boolean snapshotPublishing = false;
+    // immutable copy of collectedNodes for snapshots, dropped when nodes are collected
+    private Map<CrdtNodeId, CrdtNodeId> collectedNodesCopy = Map.of();
+    // ids collected since the last snapshot, still in its chunk index
+    private final List<CrdtNodeId> unindexedIds = new ArrayList<>();
 
     private int nodeCounter = 0;
     private long revision = 0;
 
     CrdtDocument() {
+        this(CausalBufferPolicy.unbounded());
+    }
+
+    CrdtDocument(CausalBufferPolicy causalBufferPolicy) {
+        this(new CausalBuffer(causalBufferPolicy));
+    }
+
+    private CrdtDocument(CausalBuffer causalBuffer) {
+        this(causalBuffer, UUID.randomUUID());
+    }
+
+    private CrdtDocument(CausalBuffer causalBuffer, UUID siteId) {
         this.root = new CrdtNode(Document.ROOT_SITE_ID, getNextNodeNr());
+        this.causalBuffer = causalBuffer;
 
-        this.siteId = UUID.randomUUID();
+        this.siteId = siteId;
         this.indexedNodeAccessMap.put(root.getNodeId(), this.root);
-        linearOrderCache = new LinearOrderCache(this);
+        linearOrderCache = new LinearOrderCache(root);
+        this.publishedSnapshot = snapshot();
     }
 
 
@@ -36,31 +86,258 @@ public class CrdtDocument implements Document {
         return linearOrderCache.getCopyWithActiveOnlyNodes();
     }
 
+    /**
+     * All nodes in linear order, tombstones included, without copying the linear order.
+     * The stream splits with exact sizes, so {@code parallel()} divides the work evenly.
+     * It fails with a {@link ConcurrentModificationException} if the document changes
+     * while it is consumed.
+     */
+    public Stream<CrdtNode> streamAll() {
+        return linearOrderCache.stream();
+    }
+
+    /**
+     * Visible nodes in linear order, see {@link #streamAll()}.
+     */
+    public Stream<CrdtNode> streamVisible() {
+        return linearOrderCache.streamVisible();
+    }
+
+    /**
+     * Renders the visible text.
+     * <p>
+     * The result is cached until the next visible change, and the per-leaf chunks of the
+     * linear order cache survive changes in other leaves. So repeated renders of an
+     * unchanged document are O(1), after an edit only the touched leaves are re-rendered
+     * and the rest is stitched together by bulk copies.
+     */
     @Override
     public String render() {
-        int n = linearOrderCache.visibleSize();
-        StringBuilder sb = new StringBuilder(n);
+        if (renderCache != null) return renderCache;
 
-        // direkt über sichtbare iterieren
-        linearOrderCache.forEachVisibleNode(node -> sb.append(node.getCharacter()));
+        StringBuilder sb = new StringBuilder(linearOrderCache.visibleSize());
+        linearOrderCache.forEachVisibleChunk(sb::append);
 
+        renderCache = sb.toString();
+        return renderCache;
+    }
+
+    /**
+     * Renders the visible text on the given pool: subtrees of the linear order cache are
+     * copied into one shared array in parallel, each at the offset given by the visible
+     * sizes of the subtrees in front of it. Shares the cache with {@link #render()}.
+     * <br/>
+     * The array is copied once more into the String, Java has no way to wrap it.
+     */
+    @Override
+    public String render(ForkJoinPool pool) {
+        if (renderCache != null) return renderCache;
+        if (linearOrderCache.visibleSize() < PARALLEL_RENDER_THRESHOLD) return render();
+
+        char[] text = new char[linearOrderCache.visibleSize()];
+        linearOrderCache.forEachVisibleChunkParallel((chunk, offset) -> chunk.getChars(0, chunk.length(), text, offset), pool);
+
+        renderCache = new String(text);
+        return renderCache;
+    }
+
+    /**
+     * Renders the visible characters [fromVisible, toVisible) only.
+     * O(log n + k) by descending the linear order cache to the first character.
+     */
+    @Override
+    public String renderRange(int fromVisible, int toVisible) {
+        if (renderCache != null) return renderCache.substring(fromVisible, toVisible);
+
+        StringBuilder sb = new StringBuilder(Math.max(0, toVisible - fromVisible));
+        linearOrderCache.forEachVisibleNode(fromVisible, toVisible, node -> sb.append(node.getCharacter()));
         return sb.toString();
     }
 
+    @Override
+    public char charAt(int visibleIndex) {
+        if (renderCache != null) return renderCache.charAt(visibleIndex);
+
+        return linearOrderCache.getVisible(visibleIndex).getCharacter();
+    }
+
+    @Override
+    public CharSequence asCharSequence() {
+        if (renderCache != null) return renderCache;
+
+        return new VisibleTextView(linearOrderCache.visibleCursor(), 0, linearOrderCache.visibleSize());
+    }
+
+    /**
+     * Number of lines, i.e. visible newlines + 1. O(1)
+     */
+    @Override
+    public int lineCount() {
+        return linearOrderCache.newlineCount() + 1;
+    }
+
+    /**
+     * Line (0-based) that contains the given visible offset (0..length). O(log n)
+     */
+    @Override
+    public int lineOfOffset(int visibleOffset) {
+        return linearOrderCache.newlinesBefore(visibleOffset);
+    }
+
+    /**
+     * Visible offset of the first character of the given line (0..lineCount-1). O(log n)
+     */
+    @Override
+    public int offsetOfLine(int line) {
+        if (line < 0 || line >= lineCount()) {
+            throw new IndexOutOfBoundsException("line: " + line + ", lineCount: " + lineCount());
+        }
+        if (line == 0) return 0;
+
+        return linearOrderCache.visibleIndexOfNewline(line - 1) + 1;
+    }
+
+    @Override
+    public int length(OffsetUnit unit) {
+        return Math.toIntExact(linearOrderCache.unitCount(unit));
+    }
+
+    /**
+     * O(log n) in both directions, based on the UTF-8 and code point summaries of the
+     * linear order cache.
+     */
+    @Override
+    public int convertOffset(int offset, OffsetUnit from, OffsetUnit to) {
+        int length = length(from);
+        if (offset < 0 || offset > length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length in " + from + ": " + length);
+        }
+
+        int visibleIndex = offset == length
+                ? linearOrderCache.visibleSize()
+                : linearOrderCache.visibleIndexOfUnit(from, offset);
+        if (to == OffsetUnit.UTF16) return visibleIndex;
+
+        // caret between the chars of a surrogate pair -> start of the pair
+        if (visibleIndex > 0 && visibleIndex < linearOrderCache.visibleSize()
+                && Character.isLowSurrogate(charAt(visibleIndex))
+                && Character.isHighSurrogate(charAt(visibleIndex - 1))) {
+            visibleIndex--;
+        }
+        return Math.toIntExact(linearOrderCache.unitsBefore(to, visibleIndex));
+    }
+
+    @Override
+    public LineColumn resolveAnchorToLineColumn(Anchor anchor) {
+        int offset = resolveAnchor(anchor);
+        int line = lineOfOffset(offset);
+
+        return new LineColumn(line, offset - offsetOfLine(line));
+    }
+
+    /**
+     * Streams the visible text into the writer in chunks, without building a String.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        TextExport.writeTo(linearOrderCache, writer);
+    }
+
+    /**
+     * Streams the visible text UTF-8 encoded into the stream in chunks. The stream is not closed.
+     */
+    public void writeUtf8(OutputStream out) throws IOException {
+        TextExport.writeUtf8(linearOrderCache, out);
+    }
+
+    /**
+     * Encodes visible characters from fromVisible on into the buffer until it is full.
+     * A character is never split between two calls, so a large document can be exported
+     * through one reusable buffer:
+     * <pre>
+     * for (int pos = 0; pos &lt; length; ) {
+     *     buffer.clear();
+     *     pos = document.writeUtf8(buffer, pos);
+     *     buffer.flip();
+     *     channel.write(buffer);
+     * }
+     * </pre>
+     * The buffer needs room for at least the next character, 4 bytes are always enough.
+     *
+     * @return visible index to continue with, the visible length once everything is written
+     * @throws IllegalArgumentException if not even the next character fits into the buffer
+     */
+    public int writeUtf8(ByteBuffer target, int fromVisible) {
+        return TextExport.writeUtf8(linearOrderCache, target, fromVisible);
+    }
 
     @Override
     public void apply(CrdtOperation operation) {
-        if (operation instanceof CrdtInsertOp insertOp) {
-            applyInsert(insertOp);
-        } else if (operation instanceof CrdtDeleteOp deleteOp) {
-            applyDelete(deleteOp);
-        } else {
-            throw new IllegalArgumentException("Unsupported op type: " + operation.getClass());
+        ensureOwnState();
+        applyUnsignalled(operation);
+        operationLog.signalSubscribers();
+        if (snapshotPublishing) snapshot();
+    }
+
+    /**
+     * Applies the operations in order. Operation feed subscribers are signalled once
+     * for the whole batch instead of once per operation.
+     */
+    @Override
+    public void applyAll(List<? extends CrdtOperation> operations) {
+        ensureOwnState();
+        try {
+            for (CrdtOperation operation : operations) {
+                applyUnsignalled(operation);
+            }
+        } finally {
+            operationLog.signalSubscribers();
+            if (snapshotPublishing) snapshot();
         }
+    }
 
-        operations.add(operation);
+    /**
+     * Merges the state of another replica into this one, without its operation log, e.g.
+     * two replicas restored from snapshots that diverged offline.
+     * <p>
+     * Walks the other tree in linear order, which has every parent in front of its
+     * children. Every node that is missing here is inserted below the same parent. Every
+     * tombstone of the other replica is deleted here, with the stamp of its delete. The
+     * other replica's pending operations are applied as well, unless this replica has
+     * applied or buffered them already. Anything this replica already has costs one id
+     * lookup and produces no operation, so the result equals
+     * applying {@code other.exportSnapshot()}, but only the difference is applied and
+     * logged: O(m) lookups for m nodes of the other replica plus O(d log n) for the d
+     * missing operations.
+     * <br/>
+     * The missing operations go through {@link #applyAll} as one batch: they fire one change
+     * event per visible change, like any other batch, and reach this replica's peers with
+     * one operation feed signal. The other document must not be modified during the merge.
+     *
+     * @return the operations that were applied here
+     */
+    public List<CrdtOperation> merge(CrdtDocument other) {
+        if (other == this) return List.of();
+
+        List<CrdtOperation> missing = new ArrayList<>();
+        other.linearOrderCache.stream().forEach(node -> {
+            CrdtNodeId id = node.getNodeId();
+            CrdtNode local = indexedNodeAccessMap.get(id);
+
+            if (local == null) {
+                // a node collected here was deleted here already, and for good
+                if (collectedNodes.containsKey(id)) return;
+                missing.add(new CrdtInsertOp(node.getParent().getNodeId(), id, node.getCharacter()));
+                if (node.isDeleted()) missing.add(new CrdtDeleteOp(id, other.tombstoneStamps.get(id)));
+            } else if (node.isDeleted() && !local.isDeleted()) {
+                missing.add(new CrdtDeleteOp(id, other.tombstoneStamps.get(id)));
+            }
+        });
+        for (CrdtOperation pending : other.causalBuffer.pendingOps()) {
+            if (!isKnown(pending)) missing.add(pending);
+        }
 
-        this.revision++;
+        if (!missing.isEmpty()) applyAll(missing);
+        return missing;
     }
 
     @Override
@@ -95,19 +372,18 @@ public class CrdtDocument implements Document {
      */
     @Override
     public Anchor createAnchor(int caretIndex, Gravity gravity) {
-        var active = getActiveOnlyLinearOrder(); // visible nodes only
-        int N = active.size();
+        int N = linearOrderCache.visibleSize(); // visible nodes only
 
         if (N == 0) return new Anchor(root.getNodeId(), Gravity.LEFT);
 
         // edge cases: first or last possible caret position
         if (caretIndex <= 0) return new Anchor(root.getNodeId(), Gravity.LEFT);
-        if (caretIndex >= N) return new Anchor(active.get(N - 1).getNodeId(), Gravity.LEFT);
+        if (caretIndex >= N) return new Anchor(linearOrderCache.getVisible(N - 1).getNodeId(), Gravity.LEFT);
 
         // normal case: position somewhere in the middle
         CrdtNodeId id = switch (gravity) {
-            case LEFT -> active.get(caretIndex - 1).getNodeId();
-            case RIGHT -> active.get(caretIndex).getNodeId();
+            case LEFT -> linearOrderCache.getVisible(caretIndex - 1).getNodeId();
+            case RIGHT -> linearOrderCache.getVisible(caretIndex).getNodeId();
         };
 
         return new Anchor(id, gravity);
@@ -142,7 +418,7 @@ public class CrdtDocument implements Document {
     @Override
     public int resolveAnchor(Anchor anchor) {
         var node = indexedNodeAccessMap.get(anchor.anchorId());
-        if (node == null) return 0;
+        if (node == null) return resolveCollectedAnchor(anchor.anchorId());
 
 
         //node is visible
@@ -153,41 +429,25 @@ public class CrdtDocument implements Document {
             };
         }
 
-        // node is invisible (i.e. deleted) and we have to resolve the position
-        // first: find the next left/right (depends on gravity) visible node
-        // then find the position of that node in the visible-only linear order
-        int indexNotVisible = linearOrderCache.getIndexOf(node);
-        var linearOrder = linearOrderCache.getCopyWithDeletedNodes();
-        if (indexNotVisible < 0) return 0;
-
-        return switch (anchor.gravity()) {
-            case LEFT -> {
-                // we don't check the node itself twice. start with the node to the left
-                for (int i = indexNotVisible - 1; i >= 0; i--) {
-                    CrdtNode nextNode = linearOrder.get(i);
-                    if (nextNode.isVisible()) {
-                        yield linearOrderCache.indexOfVisible(nextNode) + 1;
-                    }
-                }
-
-                yield 0;
-            }
-            case RIGHT -> {
-                // we don't check the node itself twice. start with the node to the right
-                for (int i = indexNotVisible + 1; i < linearOrder.size(); i++) {
-                    CrdtNode nextNode = linearOrder.get(i);
-                    if (nextNode.isVisible()) {
-                        yield linearOrderCache.indexOfVisible(nextNode);
-                    }
-                }
-
-                yield linearOrderCache.visibleSize();
-            }
-        };
+        // node is invisible (i.e. deleted): the nearest visible node to the left (LEFT)
+        // and to the right (RIGHT) both border the same gap, which is the number of
+        // visible nodes in front of the tombstone
+        if (node == root) return 0;
+        return Math.max(0, linearOrderCache.visibleRank(node));
     }
 
+    /**
+     * Anchors on garbage collected nodes resolve to the gap right behind the
+     * collected node's former predecessor (following predecessors that were
+     * collected as well). Unknown ids resolve to 0.
+     */
+    private int resolveCollectedAnchor(CrdtNodeId anchorId) {
+        CrdtNode predecessor = resolveCollected(anchorId);
+        if (predecessor == null || predecessor == root) return 0;
 
-
+        int visibleBefore = linearOrderCache.visibleRank(predecessor);
+        return predecessor.isVisible() ? visibleBefore + 1 : visibleBefore;
+    }
 
     @Override
     public Range resolveRange(Anchor a, Anchor b) {
@@ -201,8 +461,13 @@ public class CrdtDocument implements Document {
 
     public List<CrdtNode> traverse() {
         List<CrdtNode> nodes = new ArrayList<>();
-        for (CrdtNode n : root.getChildren()) {
-            visit(n, nodes);
+        Deque<CrdtNode> stack = new ArrayDeque<>();
+        pushChildren(root, stack);
+
+        while (!stack.isEmpty()) {
+            CrdtNode node = stack.pop();
+            nodes.add(node);
+            pushChildren(node, stack);
         }
         return nodes;
     }
@@ -211,11 +476,281 @@ public class CrdtDocument implements Document {
         return root;
     }
 
+    /**
+     * Number of received operations that are still waiting for their parent
+     * (inserts) or target node (deletes).
+     */
+    public int getPendingOpCount() {
+        return causalBuffer.size();
+    }
+
+    /**
+     * How long the oldest pending operation has been waiting, {@link Duration#ZERO} if none.
+     */
+    public Duration getOldestPendingOpAge() {
+        return causalBuffer.oldestAge();
+    }
+
+    /**
+     * Number of pending operations discarded by the {@link CausalBufferPolicy}.
+     */
+    public long getDroppedPendingOpCount() {
+        return causalBuffer.droppedCount();
+    }
+
     @Override
     public long getRevision() {
         return revision;
     }
 
+    /**
+     * Revision up to which the operation log has been compacted, see {@link #compactLog(long)}.
+     * Delta sync via {@link #getOperationsSince(long)} is possible for every revision >= this one.
+     */
+    public long getBaselineRevision() {
+        return operationLog.baselineRevision();
+    }
+
+    /**
+     * Discards all logged operations up to (and including) the given revision.
+     * <p>
+     * The discarded prefix is folded into the baseline: its effect lives on in the
+     * CRDT tree, which is the snapshot a peer behind the baseline gets via
+     * {@link #exportSnapshot()}. Peers at or ahead of the baseline can still be
+     * served incrementally with {@link #getOperationsSince(long)}.
+     *
+     * @param upToRevision last revision to discard, baselineRevision <= upToRevision <= revision
+     */
+    public void compactLog(long upToRevision) {
+        operationLog.compact(upToRevision);
+    }
+
+    /**
+     * Returns the operations applied after the given revision, in apply order.
+     * Applying them to a replica that has seen everything up to that revision brings
+     * it to the state of this document.
+     *
+     * @param sinceRevision last revision the peer has seen, baselineRevision <= sinceRevision <= revision
+     * @throws IllegalStateException if the requested ops have been compacted, the peer needs a snapshot
+     */
+    public List<CrdtOperation> getOperationsSince(long sinceRevision) {
+        return operationLog.since(sinceRevision, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Flow.Publisher<List<CrdtOperation>> operationFeed(long fromRevision, Executor executor) {
+        if (fromRevision < 0 || fromRevision > revision) {
+            throw new IllegalArgumentException("fromRevision must be within [0, " + revision + "]: " + fromRevision);
+        }
+        return new OperationFeed(operationLog, fromRevision, executor);
+    }
+
+    /**
+     * Describes the current state as a minimal list of operations: one insert per node in
+     * linear order (parents always first) followed by one delete per tombstone.
+     * The result can be loaded with {@link Document#fromLog(List)}, independent of how much
+     * of the log has been compacted.
+     * <br/>
+     * Operations still waiting in the causal buffer are appended at the end, a replica
+     * loaded from the snapshot keeps waiting for their dependencies.
+     * <br/>
+     * Garbage collected nodes are not part of the snapshot, and neither are their ids: a
+     * replica loaded from it no longer recognizes a replayed insert of a collected node and
+     * would create it again. Peers must only resend operations after the snapshot's revision.
+     */
+    public List<CrdtOperation> exportSnapshot() {
+        List<CrdtNode> linearOrder = getLinearOrder();
+        List<CrdtOperation> snapshot = new ArrayList<>(linearOrder.size());
+        List<CrdtOperation> deletes = new ArrayList<>();
+
+        for (CrdtNode node : linearOrder) {
+            snapshot.add(new CrdtInsertOp(node.getParent().getNodeId(), node.getNodeId(), node.getCharacter()));
+            if (node.isDeleted()) {
+                deletes.add(new CrdtDeleteOp(node.getNodeId(), tombstoneStamps.get(node.getNodeId())));
+            }
+        }
+        snapshot.addAll(deletes);
+        snapshot.addAll(causalBuffer.pendingOps());
+
+        return snapshot;
+    }
+
+    /**
+     * {@link #exportSnapshot()} together with this replica's site id, revision and node id
+     * counter, so {@link Document#fromReplica} can continue as the same replica.
+     */
+    public ReplicaSnapshot exportReplica() {
+        return new ReplicaSnapshot(siteId, revision, nodeCounter, exportSnapshot());
+    }
+
+    /**
+     * Independent copy of this document, e.g. for a what-if preview or a draft branch.
+     * <p>
+     * The fork has the same tree, tombstones, collected ids and pending operations, but
+     * its own site id. It starts at this document's revision with an empty log, so
+     * {@code fork.getOperationsSince(forkRevision)} returns exactly what happened on the
+     * fork, and applying that here merges the branch back like any other remote batch
+     * (the other direction works the same way).
+     * <br/>
+     * The fork shares the tree, the node map and the linear order cache with this
+     * document, so forking is O(1). Whichever of the two writes first (apply, applyAll,
+     * collectGarbage) while the other still exists copies the state for itself, in one pass
+     * over the linear order, which already has parents in front of their children, and
+     * bulk loads the copy: O(n) once, without sorting or replaying the log. A fork that is
+     * only read and dropped is never copied. Listeners, feeds and snapshot publishing are
+     * not carried over.
+     */
+    public CrdtDocument fork() {
+        CrdtDocument fork = new CrdtDocument(causalBuffer.copy());
+
+        if (sharedState == null) sharedState = new SharedState(this);
+        sharedState.add(fork);
+        fork.sharedState = sharedState;
+        fork.root = root;
+        fork.indexedNodeAccessMap = indexedNodeAccessMap;
+        fork.linearOrderCache = linearOrderCache;
+        fork.tombstoneStamps = tombstoneStamps;
+        fork.collectedNodes = collectedNodes;
+        fork.collectedTombstones = collectedTombstones;
+        fork.splicedTombstones = splicedTombstones;
+        fork.collectionRuns = collectionRuns;
+
+        fork.collectionRunCount = collectionRunCount;
+        fork.collectedNodesCopy = collectedNodesCopy;
+        fork.unindexedIds.addAll(unindexedIds);
+        fork.renderCache = renderCache;
+        fork.nodeCounter = nodeCounter;
+        fork.revision = revision;
+        fork.operationLog.startAfter(revision);
+
+        // immutable, so the fork starts with the same published state
+        fork.publishedSnapshot = publishedSnapshot;
+        return fork;
+    }
+
+    /**
+     * Physically removes tombstones whose deletion is causally stable.
+     * <p>
+     * A tombstone is collected if the stamp of its delete is covered by the given
+     * vector (the host guarantees every replica has integrated it) and no buffered
+     * insert waits for it as parent. A tombstone with children is spliced out: its
+     * children move up to its parent, which is only done if they sort into exactly the
+     * place the tombstone had among its siblings, so the linear order does not change.
+     * Deleted regions in the middle of a typing chain are therefore collected as well.
+     * <p>
+     * Collected ids are remembered together with their linear order predecessor:
+     * anchors on them still resolve and late duplicates of their insert/delete are
+     * ignored.
+     * <br/>
+     * A stable delete does not mean that no insert below the tombstone is still in flight:
+     * a site may have inserted there before it saw the delete. Such an insert restores the
+     * collected parent (and its collected ancestors) as tombstones first, so it lands
+     * exactly where replicas that did not collect place it. The same happens to a spliced
+     * tombstone when a late insert below its parent would sort in between its former
+     * children; restoring it takes the children back.
+     * <p>
+     * These records are kept for one more round of stability: the records of a run are
+     * dropped by the first later run whose vector is ahead of the run's vector for every
+     * site in it. The host has to make sure that by then no insert a site made before it
+     * integrated the run's deletes is still in flight, e.g. by computing the stable vector
+     * from vectors that each site reports including its own latest operation. Afterwards
+     * anchors on the dropped ids resolve like unknown ids and ops referring to them are
+     * buffered as pending.
+     *
+     * @param stable causally stable version vector, supplied by the host
+     * @return number of collected tombstones
+     */
+    public int collectGarbage(VersionVector stable) {
+        ensureOwnState();
+        dropSupersededRuns(stable);
+
+        Deque<CrdtNode> worklist = new ArrayDeque<>();
+        tombstoneStamps.forEach((nodeId, stamp) -> {
+            if (stable.covers(stamp)) worklist.push(indexedNodeAccessMap.get(nodeId));
+        });
+
+        int run = ++collectionRunCount;
+        List<CrdtNodeId> collected = new ArrayList<>();
+        while (!worklist.isEmpty()) {
+            CrdtNode node = worklist.pop();
+            if (!isCollectable(node, stable)) continue;
+
+            CrdtNode parent = node.getParent();
+            collect(node, run);
+            collected.add(node.getNodeId());
+
+            if (isCollectable(parent, stable)) worklist.push(parent);
+        }
+
+        if (!collected.isEmpty()) {
+            // predecessors collected in this run lengthen the chains of its own entries
+            compressCollectedChains(collected);
+            collectionRuns.addLast(new CollectionRun(run, stable, collected));
+        }
+        return collected.size();
+    }
+
+    /**
+     * Immutable snapshot of the current revision, also published to
+     * {@link #getPublishedSnapshot()}. Leaf chunks that did not change since the last
+     * snapshot (or render) are shared, so this is cheap enough to call after every batch.
+     * <br/>
+     * Like all mutating methods, this has to be called by the thread that applies operations.
+     */
+    public DocumentSnapshot snapshot() {
+        DocumentSnapshot current = publishedSnapshot;
+        if (current != null && current.getRevision() == revision) return current;
+
+        long chunkSequence = TextChunk.lastSequence();
+        List<TextChunk> chunks = new ArrayList<>();
+        linearOrderCache.forEachChunk(chunks::add);
+        if (collectedNodesCopy == null) collectedNodesCopy = Map.copyOf(collectedNodes);
+
+        DocumentSnapshot snapshot = new DocumentSnapshot(revision, root.getNodeId(), chunks, collectedNodesCopy,
+                current, unindexedIds, chunkSequence);
+        unindexedIds.clear();
+        publishedSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * The snapshot published last, by {@link #snapshot()} or after each apply/applyAll call
+     * if {@link #setSnapshotPublishing} is on. Never blocks, can be called from any thread.
+     */
+    public DocumentSnapshot getPublishedSnapshot() {
+        return publishedSnapshot;
+    }
+
+    /**
+     * If enabled, a snapshot is published after each {@link #apply} and {@link #applyAll}
+     * call, i.e. at every batch boundary. Off by default.
+     */
+    public void setSnapshotPublishing(boolean enabled) {
+        this.snapshotPublishing = enabled;
+        if (enabled) snapshot();
+    }
+
+    /**
+     * Number of tombstones that can become subject to garbage collection.
+     */
+    public int getTombstoneCount() {
+        return tombstoneStamps.size();
+    }
+
+    /**
+     * Number of garbage collected ids that are still remembered, see {@link #collectGarbage}.
+     */
+    public int getCollectedNodeCount() {
+        return collectedNodes.size();
+    }
+
+    /**
+     * Number of nodes in the CRDT tree (visible nodes and tombstones, root excluded).
+     */
+    public int getNodeCount() {
+        return linearOrderCache.size();
+    }
+
     // #### Package-Private
 
     Optional<CrdtNode> findNodeByPosition(int position) {
@@ -232,6 +767,65 @@ public class CrdtDocument implements Document {
         return Optional.of(linearOrder.get(position - 1));
     }
 
+    /**
+     * Imports a complete operation log into this (fresh) document.
+     * <p>
+     * The batch is ordered causally first ({@link CausalLogSorter}), so the tree and
+     * the linear order are built in a single pass and the linear order cache is
+     * bulk loaded instead of positioning every node individually. Only operations
+     * whose dependencies are not part of the batch go through {@link #apply}.
+     */
+    void importLog(List<CrdtOperation> log) {
+        importLog(log, null);
+    }
+
+    /**
+     * Same as {@link #importLog(List)}, but the causal order of the subtrees is computed in
+     * parallel on the given pool (null for the calling thread). Building the nodes and the
+     * linear order cache from it stays on the calling thread.
+     */
+    void importLog(List<CrdtOperation> log, ForkJoinPool pool) {
+        if (revision != 0) {
+            throw new IllegalStateException("importLog requires an empty document, revision: " + revision);
+        }
+
+        CausalLogSorter.SortedLog sorted = CausalLogSorter.sort(log, root.getNodeId(), pool);
+
+        List<CrdtNode> linearOrder = new ArrayList<>(sorted.inserts().size());
+        for (CrdtInsertOp op : sorted.inserts()) {
+            CrdtNode node = createNewNode(op.getInsertNodeId(), op.getCharacter());
+            indexedNodeAccessMap.get(op.getParentNodeId()).addChild(node);
+            linearOrder.add(node);
+        }
+
+        for (CrdtDeleteOp op : sorted.deletes()) {
+            markDeleted(indexedNodeAccessMap.get(op.getDeleteNodeId()), op);
+        }
+
+        linearOrderCache.bulkLoad(linearOrder);
+        renderCache = null;
+
+        operationLog.appendAll(sorted.inserts());
+        operationLog.appendAll(sorted.deletes());
+        revision += sorted.inserts().size() + sorted.deletes().size();
+        operationLog.signalSubscribers();
+
+        for (CrdtOperation op : sorted.unresolved()) {
+            apply(op);
+        }
+    }
+
+    static CrdtDocument fromReplica(ReplicaSnapshot snapshot) {
+        CrdtDocument document = new CrdtDocument(new CausalBuffer(CausalBufferPolicy.unbounded()), snapshot.siteId());
+        document.importLog(snapshot.operations());
+
+        // the import is not what happened after revision 0
+        document.operationLog.restartAfter(snapshot.revision());
+        document.revision = snapshot.revision();
+        document.nodeCounter = Math.max(document.nodeCounter, snapshot.nextCounter());
+        return document;
+    }
+
     CrdtNode createNewNode(CrdtNodeId id, char c) {
         CrdtNode node = new CrdtNode(id, c);
         indexedNodeAccessMap.put(node.getNodeId(), node);
@@ -244,64 +838,373 @@ public class CrdtDocument implements Document {
 
     // #### Private
 
-    private void handlePendingOps(CrdtNode insertedNode) {
-        // handle pending insert ops
-        handlePendingInsertsFor(insertedNode);
-        pendingInsertOps.remove(insertedNode.getNodeId());
+    // applied, collected or buffered here already, applying it again would only log it twice
+    private boolean isKnown(CrdtOperation op) {
+        if (causalBuffer.contains(op)) return true;
 
-        // handle pending delete ops
-        Optional.ofNullable(pendingDeleteOps.get(insertedNode.getNodeId())).ifPresent(this::applyDelete);
-        pendingDeleteOps.remove(insertedNode.getNodeId());
+        if (op instanceof CrdtInsertOp insert) {
+            CrdtNodeId id = insert.getInsertNodeId();
+            return indexedNodeAccessMap.containsKey(id) || collectedNodes.containsKey(id);
+        }
+        CrdtNodeId target = ((CrdtDeleteOp) op).getDeleteNodeId();
+        CrdtNode node = indexedNodeAccessMap.get(target);
+        return node != null ? node.isDeleted() : collectedNodes.containsKey(target);
     }
 
-    private void handlePendingInsertsFor(CrdtNode insertedNode) {
-        Optional.ofNullable(pendingInsertOps.get(insertedNode.getNodeId())).ifPresent(insertOps -> {
-            insertOps.forEach(this::applyInsert);
+    /**
+     * Called before the tree state is modified: copies it if it is still shared with a
+     * fork (or the origin of this fork) that is reachable, see {@link #fork()}.
+     */
+    private void ensureOwnState() {
+        if (sharedState == null) return;
+        if (sharedState.isSharedBeyond(this)) copySharedState();
+        // only now, the others must not modify the state while it is being copied
+        sharedState.remove(this);
+        sharedState = null;
+    }
+
+    private void copySharedState() {
+        LinearOrderCache shared = linearOrderCache;
+
+        root = new CrdtNode(Document.ROOT_SITE_ID, 0);
+        indexedNodeAccessMap = new HashMap<>();
+        indexedNodeAccessMap.put(root.getNodeId(), root);
+        linearOrderCache = new LinearOrderCache(root);
+
+        List<CrdtNode> linearOrder = new ArrayList<>(shared.size());
+        shared.stream().forEach(node -> {
+            CrdtNode copy = createNewNode(node.getNodeId(), node.getCharacter());
+            if (node.isDeleted()) copy.delete();
+            indexedNodeAccessMap.get(node.getParent().getNodeId()).addChild(copy);
+            linearOrder.add(copy);
         });
+        linearOrderCache.bulkLoad(linearOrder);
+
+        tombstoneStamps = new HashMap<>(tombstoneStamps);
+        collectedNodes = new HashMap<>(collectedNodes);
+        collectedTombstones = new HashMap<>(collectedTombstones);
+        Map<CrdtNodeId, List<CrdtNodeId>> spliced = new HashMap<>();
+        splicedTombstones.forEach((id, ids) -> spliced.put(id, new ArrayList<>(ids)));
+        splicedTombstones = spliced;
+        collectionRuns = new ArrayDeque<>(collectionRuns);
+    }
 
+    private void applyUnsignalled(CrdtOperation operation) {
+        if (operation instanceof CrdtInsertOp insertOp) {
+            applyInsert(insertOp);
+        } else if (operation instanceof CrdtDeleteOp deleteOp) {
+            applyDelete(deleteOp);
+        } else {
+            throw new IllegalArgumentException("Unsupported op type: " + operation.getClass());
+        }
+
+        // change events fired above already carry revision + 1
+        operationLog.append(operation);
 
+        this.revision++;
     }
 
     private void applyInsert(CrdtInsertOp op) {
-        Optional.ofNullable(this.indexedNodeAccessMap.get(op.getParentNodeId())).ifPresentOrElse(
-                parent -> {
-                    if (Optional.ofNullable(this.indexedNodeAccessMap.get(op.getInsertNodeId())).isPresent()) return;
+        CrdtNode parent = indexedNodeAccessMap.get(op.getParentNodeId());
+        if (parent == null) parent = restoreCollected(op.getParentNodeId());
+        if (parent == null) {
+            causalBuffer.addInsert(op);
+            return;
+        }
+        if (!splicedTombstones.isEmpty()) restoreSplicedAround(parent, op.getInsertNodeId());
 
-                    CrdtNode insertNode = createNewNode(op.getInsertNodeId(), op.getCharacter());
-                    parent.addChild(insertNode);
-                    linearOrderCache.insertNode(insertNode);
+        CrdtNode insertedNode = insertNode(parent, op);
+        if (insertedNode != null && !causalBuffer.isEmpty()) {
+            releasePendingOps(insertedNode);
+        }
+    }
 
-                    handlePendingOps(insertNode);
+    private void applyDelete(CrdtDeleteOp op) {
+        CrdtNode node = indexedNodeAccessMap.get(op.getDeleteNodeId());
+        if (node == null) {
+            // a collected node has been deleted already
+            if (!collectedNodes.containsKey(op.getDeleteNodeId())) causalBuffer.addDelete(op);
+            return;
+        }
 
-                    fireDocumentChanged(new DocumentChangeEvent(DocumentChangeEventType.INSERT));
-                },
-                () -> addPendingInsertOp(op));
+        deleteNode(node, op);
     }
 
-    private void applyDelete(CrdtDeleteOp op) {
-        Optional.ofNullable(this.indexedNodeAccessMap.get(op.getDeleteNodeId())).ifPresentOrElse(node -> {
-            node.delete();
+    /**
+     * Drains everything that became ready through the insertion of the given node.
+     * Uses an explicit worklist instead of recursion, a chain delivered in reverse
+     * order is released in one pass without growing the call stack.
+     */
+    private void releasePendingOps(CrdtNode insertedNode) {
+        Deque<CrdtNode> worklist = new ArrayDeque<>();
+        worklist.push(insertedNode);
+
+        while (!worklist.isEmpty()) {
+            CrdtNode ready = worklist.pop();
+
+            for (CrdtInsertOp pendingInsert : causalBuffer.releaseInsertsFor(ready.getNodeId())) {
+                CrdtNode child = insertNode(ready, pendingInsert);
+                if (child != null) worklist.push(child);
+            }
 
+            CrdtDeleteOp pendingDelete = causalBuffer.releaseDeleteFor(ready.getNodeId());
+            if (pendingDelete != null) deleteNode(ready, pendingDelete);
+        }
+    }
+
+    /**
+     * Inserts the node described by op below the given parent.
+     * Returns null if the node already exists (duplicate delivery).
+     */
+    private CrdtNode insertNode(CrdtNode parent, CrdtInsertOp op) {
+        if (indexedNodeAccessMap.containsKey(op.getInsertNodeId())) return null;
+        if (collectedNodes.containsKey(op.getInsertNodeId())) return null;
+
+        CrdtNode insertNode = createNewNode(op.getInsertNodeId(), op.getCharacter());
+        parent.addChild(insertNode);
+        linearOrderCache.insertNode(insertNode);
+        renderCache = null;
+
+        if (!changeListeners.isEmpty()) {
+            fireDocumentChanged(DocumentChangeEvent.insert(linearOrderCache.indexOfVisible(insertNode),
+                    String.valueOf(insertNode.getCharacter()), op.getInsertNodeId().siteId(), revision + 1));
+        }
+        return insertNode;
+    }
+
+    private void deleteNode(CrdtNode node, CrdtDeleteOp op) {
+        boolean wasVisible = node.isVisible();
+        int visibleIndex = wasVisible && !changeListeners.isEmpty() ? linearOrderCache.indexOfVisible(node) : -1;
+
+        markDeleted(node, op);
+        linearOrderCache.setVisible(node, false);
+        if (wasVisible) renderCache = null;
+
+        // a repeated delete changes nothing visible
+        if (wasVisible && !changeListeners.isEmpty()) {
+            UUID origin = op.getStamp() != null ? op.getStamp().siteId() : null;
+            fireDocumentChanged(DocumentChangeEvent.delete(visibleIndex, 1, origin, revision + 1));
+        }
+    }
+
+    private void markDeleted(CrdtNode node, CrdtDeleteOp op) {
+        node.delete();
+        if (op.getStamp() != null) tombstoneStamps.putIfAbsent(node.getNodeId(), op.getStamp());
+    }
+
+    private boolean isCollectable(CrdtNode node, VersionVector stable) {
+        if (node == null || node == root) return false;
+
+        CrdtNodeId stamp = tombstoneStamps.get(node.getNodeId());
+        return stamp != null
+                && stable.covers(stamp)
+                && keepsOrderWhenSpliced(node)
+                && !causalBuffer.hasPendingInsertsFor(node.getNodeId());
+    }
+
+    /**
+     * Whether the children of the node, moved up to its parent, sort in between the
+     * node's siblings exactly where the node was.
+     */
+    private boolean keepsOrderWhenSpliced(CrdtNode node) {
+        if (node.getChildCount() == 0) return true;
+
+        CrdtNode previous = node.getPreviousSibling();
+        CrdtNode next = node.getNextSibling();
+        return (previous == null || previous.getNodeId().compareTo(node.getFirstChild().getNodeId()) > 0)
+                && (next == null || next.getNodeId().compareTo(node.getLastChild().getNodeId()) < 0);
+    }
+
+    private void collect(CrdtNode node, int run) {
+        int index = linearOrderCache.getIndexOf(node);
+        CrdtNode predecessor = index > 0 ? linearOrderCache.getIndexOf(index - 1) : root;
+
+        CrdtNode parent = node.getParent();
+        List<CrdtNode> children = node.getChildren();
+
+        linearOrderCache.removeNode(node);
+        parent.removeChild(node);
+        // the children keep their place in the linear order, see keepsOrderWhenSpliced()
+        List<CrdtNodeId> childIds = new ArrayList<>(children.size());
+        for (CrdtNode child : children) {
+            node.removeChild(child);
+            parent.addChild(child);
+            childIds.add(child.getNodeId());
+        }
+        if (!childIds.isEmpty()) {
+            splicedTombstones.computeIfAbsent(parent.getNodeId(), id -> new ArrayList<>()).add(node.getNodeId());
+        }
+
+        indexedNodeAccessMap.remove(node.getNodeId());
+        unindexedIds.add(node.getNodeId());
+        CrdtNodeId stamp = tombstoneStamps.remove(node.getNodeId());
+        collectedNodes.put(node.getNodeId(), predecessor.getNodeId());
+        collectedTombstones.put(node.getNodeId(),
+                new CollectedNode(parent.getNodeId(), node.getCharacter(), stamp, List.copyOf(childIds), run));
+        collectedNodesCopy = null;
+    }
+
+    /**
+     * A late insert below parent whose id sorts in between the former children of a
+     * tombstone spliced into parent would land in a different place than on replicas
+     * that kept the tombstone, so the tombstone is restored first.
+     */
+    private void restoreSplicedAround(CrdtNode parent, CrdtNodeId insertId) {
+        List<CrdtNodeId> spliced = splicedTombstones.get(parent.getNodeId());
+        if (spliced == null) return;
+
+        for (CrdtNodeId tombstoneId : List.copyOf(spliced)) {
+            CollectedNode collected = collectedTombstones.get(tombstoneId);
+            CrdtNodeId first = collected.children().get(0);
+            CrdtNodeId last = collected.children().get(collected.children().size() - 1);
+            CrdtNodeId high = first.compareTo(tombstoneId) > 0 ? first : tombstoneId;
+            CrdtNodeId low = last.compareTo(tombstoneId) < 0 ? last : tombstoneId;
+            if (insertId.compareTo(low) > 0 && insertId.compareTo(high) < 0) restoreCollected(tombstoneId);
+        }
+    }
+
+    /**
+     * Brings a collected node back as a tombstone, below its former parent, restoring
+     * collected ancestors top-down first. Returns null if the id was never collected.
+     */
+    private CrdtNode restoreCollected(CrdtNodeId id) {
+        if (!collectedTombstones.containsKey(id)) return null;
+
+        // walk up to the first ancestor that still exists (deleted regions can be long)
+        Deque<CrdtNodeId> restore = new ArrayDeque<>();
+        CrdtNodeId current = id;
+        while (!indexedNodeAccessMap.containsKey(current)) {
+            restore.push(current);
+            current = collectedTombstones.get(current).parentId();
+        }
+
+        CrdtNode parent = indexedNodeAccessMap.get(current);
+        while (!restore.isEmpty()) {
+            CrdtNodeId restoredId = restore.pop();
+            CollectedNode collected = collectedTombstones.remove(restoredId);
+
+            CrdtNode node = createNewNode(restoredId, collected.character());
+            node.delete();
+            parent.addChild(node);
+            if (!collected.children().isEmpty()) takeBackSplicedChildren(node, parent, collected.children());
+            linearOrderCache.insertNode(node);
             linearOrderCache.setVisible(node, false);
+            tombstoneStamps.put(restoredId, collected.stamp());
+            collectedNodes.remove(restoredId);
+
+            parent = node;
+        }
+        collectedNodesCopy = null;
+
+        return parent;
+    }
+
+    /**
+     * Moves the children a tombstone had when it was spliced out back below it. Children
+     * that were collected since then point to the restored node again, and so do the
+     * children that they in turn handed to parent.
+     */
+    private void takeBackSplicedChildren(CrdtNode node, CrdtNode parent, List<CrdtNodeId> childIds) {
+        removeSpliced(parent.getNodeId(), node.getNodeId());
+
+        Deque<CrdtNodeId> worklist = new ArrayDeque<>(childIds);
+        while (!worklist.isEmpty()) {
+            CrdtNodeId childId = worklist.pop();
+            CrdtNode child = indexedNodeAccessMap.get(childId);
+            if (child != null) {
+                if (child.getParent() == parent) {
+                    parent.removeChild(child);
+                    node.addChild(child);
+                }
+                continue;
+            }
+
+            CollectedNode collectedChild = collectedTombstones.get(childId);
+            if (collectedChild == null || !collectedChild.parentId().equals(parent.getNodeId())) continue;
+            collectedTombstones.put(childId, new CollectedNode(node.getNodeId(), collectedChild.character(),
+                    collectedChild.stamp(), collectedChild.children(), collectedChild.run()));
+            if (!collectedChild.children().isEmpty()) {
+                removeSpliced(parent.getNodeId(), childId);
+                splicedTombstones.computeIfAbsent(node.getNodeId(), id -> new ArrayList<>()).add(childId);
+                worklist.addAll(collectedChild.children());
+            }
+        }
+    }
+
+    private void removeSpliced(CrdtNodeId parentId, CrdtNodeId tombstoneId) {
+        List<CrdtNodeId> spliced = splicedTombstones.get(parentId);
+        if (spliced == null) return;
+        spliced.remove(tombstoneId);
+        if (spliced.isEmpty()) splicedTombstones.remove(parentId);
+    }
+
+    /**
+     * Follows the predecessor chain of a collected id to a node that still exists.
+     * Returns null if the id was never collected.
+     * <br/>
+     * Read-only, anchors are resolved on read paths that may run concurrently (see
+     * {@link ConcurrentDocument}). The chains are shortened by {@link #compressCollectedChains}.
+     */
+    private CrdtNode resolveCollected(CrdtNodeId id) {
+        CrdtNodeId target = collectedNodes.get(id);
+        if (target == null) return null;
 
-            fireDocumentChanged(new DocumentChangeEvent(DocumentChangeEventType.DELETE));
-        }, () -> addPendingDeleteOp(op));
+        while (collectedNodes.containsKey(target)) {
+            target = collectedNodes.get(target);
+        }
 
+        return indexedNodeAccessMap.get(target);
+    }
 
+    /**
+     * Points the given collected ids directly at their existing predecessor, writer paths
+     * only. Entries of earlier runs are not touched: each later run adds at most one hop
+     * to their chains, and they are dropped after a few runs anyway.
+     */
+    private void compressCollectedChains(List<CrdtNodeId> ids) {
+        for (CrdtNodeId id : ids) {
+            CrdtNodeId target = collectedNodes.get(id);
+            while (collectedNodes.containsKey(target)) {
+                target = collectedNodes.get(target);
+            }
+            collectedNodes.put(id, target);
+        }
     }
 
-    private void addPendingInsertOp(CrdtInsertOp op) {
-        pendingInsertOps.computeIfAbsent(op.getParentNodeId(), k -> new ArrayList<>()).add(op);
+    /**
+     * Forgets the records of the oldest runs whose vector the given one is ahead of for
+     * every site. Chains only lead from older to newer entries, so dropping a prefix of
+     * the runs never cuts a chain that is still needed.
+     */
+    private void dropSupersededRuns(VersionVector stable) {
+        while (!collectionRuns.isEmpty() && isAheadEverywhere(stable, collectionRuns.peekFirst().stable())) {
+            CollectionRun run = collectionRuns.removeFirst();
+            for (CrdtNodeId id : run.ids()) {
+                CollectedNode collected = collectedTombstones.get(id);
+                // restored since, or restored and collected again by a later run
+                if (collected == null || collected.run() != run.number()) continue;
+
+                collectedTombstones.remove(id);
+                collectedNodes.remove(id);
+                removeSpliced(collected.parentId(), id);
+                splicedTombstones.remove(id);
+            }
+            collectedNodesCopy = null;
+        }
     }
 
-    private void addPendingDeleteOp(CrdtDeleteOp op) {
-        pendingDeleteOps.put(op.getDeleteNodeId(), op);
+    private static boolean isAheadEverywhere(VersionVector later, VersionVector earlier) {
+        for (Map.Entry<UUID, Integer> entry : earlier.asMap().entrySet()) {
+            if (later.get(entry.getKey()) <= entry.getValue()) return false;
+        }
+        return !earlier.asMap().isEmpty();
     }
 
-    private void visit(CrdtNode node, List<CrdtNode> acc) {
-        acc.add(node);
-        for (CrdtNode child : node.getChildren()) {
-            visit(child, acc);
+    // pushes in reverse, so the first child (largest id) is popped first -> DFS order
+    private void pushChildren(CrdtNode node, Deque<CrdtNode> stack) {
+        List<CrdtNode> children = node.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            stack.push(children.get(i));
         }
     }
 
@@ -314,4 +1217,46 @@ public class CrdtDocument implements Document {
     public int indexOfVisible(CrdtNode node) {
         return linearOrderCache.indexOfVisible(node);
     }
+
+    // children: ids of the children spliced into the parent, in DFS order
+    private record CollectedNode(CrdtNodeId parentId, char character, CrdtNodeId stamp, List<CrdtNodeId> children,
+                                 int run) {
+    }
+
+    private record CollectionRun(int number, VersionVector stable, List<CrdtNodeId> ids) {
+    }
+
+    /**
+     * The documents that share one tree state. Dropped forks are held weakly, so they do
+     * not force the remaining document to copy.
+     */
+    private static final class SharedState {
+
+        private final List<WeakReference<CrdtDocument>> documents = new ArrayList<>();
+        private int pruneAt = 8;
+
+        SharedState(CrdtDocument origin) {
+            documents.add(new WeakReference<>(origin));
+        }
+
+        synchronized void add(CrdtDocument document) {
+            if (documents.size() >= pruneAt) {
+                documents.removeIf(ref -> ref.get() == null);
+                pruneAt = Math.max(8, 2 * documents.size());
+            }
+            documents.add(new WeakReference<>(document));
+        }
+
+        synchronized boolean isSharedBeyond(CrdtDocument document) {
+            for (WeakReference<CrdtDocument> ref : documents) {
+                CrdtDocument other = ref.get();
+                if (other != null && other != document) return true;
+            }
+            return false;
+        }
+
+        synchronized void remove(CrdtDocument document) {
+            documents.removeIf(ref -> ref.get() == null || ref.get() == document);
+        }
+    }
 }
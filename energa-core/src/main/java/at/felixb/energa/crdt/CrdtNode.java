@@ -9,7 +9,6 @@ public class CrdtNode {
     private final char character;
     private boolean deleted = false;
     private TreeMap<CrdtNodeId, CrdtNode> children = new TreeMap<>(Collections.reverseOrder()); //automatically sorts by ID
-    private int subTreeSize = 1;
     private CrdtNode parent;
 
 
@@ -32,7 +31,47 @@ public class CrdtNode {
     public void addChild(CrdtNode child) {
         children.put(child.getNodeId(), child);
         child.setParent(this);
-        incrementSubTreeSize();
+    }
+
+    void removeChild(CrdtNode child) {
+        children.remove(child.getNodeId());
+        child.setParent(null);
+    }
+
+    int getChildCount() {
+        return children.size();
+    }
+
+    /**
+     * Returns the sibling that directly follows this node in DFS order
+     * (the sibling with the next smaller id), or null if this is the last child.
+     */
+    CrdtNode getNextSibling() {
+        if (parent == null) return null;
+        Map.Entry<CrdtNodeId, CrdtNode> next = parent.children.higherEntry(nodeId);
+        return next == null ? null : next.getValue();
+    }
+
+    /**
+     * Returns the sibling that directly precedes this node in DFS order
+     * (the sibling with the next larger id), or null if this is the first child.
+     */
+    CrdtNode getPreviousSibling() {
+        if (parent == null) return null;
+        Map.Entry<CrdtNodeId, CrdtNode> previous = parent.children.lowerEntry(nodeId);
+        return previous == null ? null : previous.getValue();
+    }
+
+    // child with the largest id, first in DFS order, or null
+    CrdtNode getFirstChild() {
+        Map.Entry<CrdtNodeId, CrdtNode> first = children.firstEntry();
+        return first == null ? null : first.getValue();
+    }
+
+    // child with the smallest id, last in DFS order, or null
+    CrdtNode getLastChild() {
+        Map.Entry<CrdtNodeId, CrdtNode> last = children.lastEntry();
+        return last == null ? null : last.getValue();
     }
 
     public CrdtNodeId getNodeId() {
@@ -64,16 +103,25 @@ public class CrdtNode {
         this.parent = parent;
     }
 
-    void incrementSubTreeSize() {
-        CrdtNode cur = this;
-        while (cur != null) {
-            cur.subTreeSize++;
-            cur = cur.parent;
-        }
-    }
-
+    /**
+     * Structural size of the subtree rooted at this node (including tombstones).
+     * <p>
+     * Computed on demand: maintaining it eagerly costs O(depth) per insert, which
+     * degenerates to O(n^2) for long typing chains.
+     */
     public int getSubTreeSize() {
-        return subTreeSize;
+        int size = 0;
+        Deque<CrdtNode> stack = new ArrayDeque<>();
+        stack.push(this);
+
+        while (!stack.isEmpty()) {
+            CrdtNode node = stack.pop();
+            size++;
+            for (CrdtNode child : node.children.values()) {
+                stack.push(child);
+            }
+        }
+        return size;
     }
 
     public CrdtNode getParent() {
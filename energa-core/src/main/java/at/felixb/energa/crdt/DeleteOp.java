@@ -22,7 +22,8 @@ public class DeleteOp implements UserOperation<CrdtDeleteOp> {
         if (positionEnd < 0 || positionEnd > nodes.size()) return rgaDeleteOps;
 
         for (int i = positionStart; i < positionEnd; i++) {
-            rgaDeleteOps.add(new CrdtDeleteOp(nodes.get(i).getNodeId()));
+            CrdtNodeId stamp = new CrdtNodeId(document.getSiteId(), crdtDocument.getNextNodeNr());
+            rgaDeleteOps.add(new CrdtDeleteOp(nodes.get(i).getNodeId(), stamp));
         }
         return rgaDeleteOps;
     }
@@ -2,6 +2,9 @@ package at.felixb.energa.crdt;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 
 public interface Document {
     UUID ROOT_SITE_ID = UUID.fromString("00000000-0000-0000-0000-000000000000");
@@ -10,19 +13,86 @@ public interface Document {
         return new CrdtDocument();
     }
 
+    static Document create(CausalBufferPolicy causalBufferPolicy) {
+        return new CrdtDocument(causalBufferPolicy);
+    }
+
     static Document fromLog(List<CrdtOperation> operations) {
         CrdtDocument document = new CrdtDocument();
-        for (CrdtOperation operation : operations) {
-            document.apply(operation);
-        }
+        document.importLog(operations);
+
+        return document;
+    }
+
+    /**
+     * Restores the replica the snapshot was exported from: same site id, revision and
+     * node id counter. Its log starts after the snapshot's revision, so a peer that asks
+     * for operations since an earlier revision gets an {@link IllegalStateException}
+     * and has to re-sync from a snapshot.
+     */
+    static Document fromReplica(ReplicaSnapshot snapshot) {
+        return CrdtDocument.fromReplica(snapshot);
+    }
+
+    /**
+     * Same as {@link #fromLog(List)}, but orders the operations of independent subtrees
+     * in parallel on the given pool. Pays off for very large logs; small logs are
+     * ordered on the calling thread anyway.
+     */
+    static Document fromLog(List<CrdtOperation> operations, ForkJoinPool pool) {
+        CrdtDocument document = new CrdtDocument();
+        document.importLog(operations, pool);
 
         return document;
     }
 
     String render();
 
+    /**
+     * Same as {@link #render()}, but large documents may be rendered in parallel on the
+     * given pool.
+     */
+    default String render(ForkJoinPool pool) {
+        return render();
+    }
+
+    /**
+     * Visible text between fromVisible (inclusive) and toVisible (exclusive),
+     * without rendering the whole document.
+     *
+     * @throws IndexOutOfBoundsException if the range is not within [0, visible length]
+     */
+    String renderRange(int fromVisible, int toVisible);
+
+    /**
+     * Visible character at the given index.
+     *
+     * @throws IndexOutOfBoundsException if the index is not within [0, visible length)
+     */
+    char charAt(int visibleIndex);
+
+    /**
+     * Read-only view of the visible text that does not copy the document, e.g. for
+     * {@link java.util.regex.Pattern} or a lexer. Sequential access is O(1) amortized.
+     * <br/>
+     * The view describes the document at the time of the call and must not be used after
+     * the document changed: it then throws {@link java.util.ConcurrentModificationException}
+     * (or, if the text was already rendered, simply keeps returning the old text).
+     */
+    CharSequence asCharSequence();
+
     void apply(CrdtOperation operation);
 
+    /**
+     * Applies the operations in order, same as calling {@link #apply} for each of them.
+     * Implementations may amortize per-operation work over the batch.
+     */
+    default void applyAll(List<? extends CrdtOperation> operations) {
+        for (CrdtOperation operation : operations) {
+            apply(operation);
+        }
+    }
+
     UUID getSiteId();
 
     Anchor createAnchor(int index, Gravity gravity);
@@ -31,7 +101,70 @@ public interface Document {
 
     Range resolveRange(Anchor a, Anchor b);
 
+    /**
+     * Like {@link #createAnchor(int, Gravity)}, with the offset counted in the given unit.
+     */
+    default Anchor createAnchor(int offset, OffsetUnit unit, Gravity gravity) {
+        return createAnchor(convertOffset(offset, unit, OffsetUnit.UTF16), gravity);
+    }
+
+    /**
+     * Like {@link #resolveAnchor(Anchor)}, with the result counted in the given unit.
+     */
+    default int resolveAnchor(Anchor anchor, OffsetUnit unit) {
+        return convertOffset(resolveAnchor(anchor), OffsetUnit.UTF16, unit);
+    }
+
+    /**
+     * Length of the visible text in the given unit.
+     */
+    int length(OffsetUnit unit);
+
+    /**
+     * Converts a caret offset in the visible text between units, without rendering.
+     * An offset inside a character (e.g. between the bytes of a UTF-8 sequence or the
+     * chars of a surrogate pair) is moved to the start of that character.
+     *
+     * @param offset 0..length(from)
+     * @throws IndexOutOfBoundsException if the offset is out of range
+     */
+    int convertOffset(int offset, OffsetUnit from, OffsetUnit to);
+
+    /**
+     * Resolves the anchor to a 0-based (line, column) position, lines separated by '\n'.
+     */
+    LineColumn resolveAnchorToLineColumn(Anchor anchor);
+
+    int lineCount();
+
+    /**
+     * @param visibleOffset caret offset in the visible text, 0..length
+     * @return 0-based line containing the offset
+     */
+    int lineOfOffset(int visibleOffset);
+
+    /**
+     * @param line 0-based line, 0..lineCount-1
+     * @return visible offset of the first character of the line
+     */
+    int offsetOfLine(int line);
+
     void registerDocumentChangedListener(DocumentChangedListener listener);
 
     long getRevision();
+
+    /**
+     * Stream of applied operations in batches, starting with the first operation after
+     * {@code fromRevision}. Each subscriber has its own demand and cursor into the
+     * document's operation log. Batches are delivered on the thread that applies
+     * operations or requests demand.
+     */
+    default Flow.Publisher<List<CrdtOperation>> operationFeed(long fromRevision) {
+        return operationFeed(fromRevision, Runnable::run);
+    }
+
+    /**
+     * Like {@link #operationFeed(long)}, but batches are delivered on the given executor.
+     */
+    Flow.Publisher<List<CrdtOperation>> operationFeed(long fromRevision, Executor executor);
 }
@@ -1,7 +1,43 @@
 package at.felixb.energa.crdt;
 
-public record DocumentChangeEvent(DocumentChangeEventType eventType) {
+import java.util.UUID;
+
+/**
+ * Describes one visible change of the document, so listeners can patch their own
+ * view in O(change) instead of re-rendering.
+ * <p>
+ * {@link DocumentChangeEventType#RESYNC} is not a change but tells the listener that
+ * events have been left out (see {@link AsyncChangeDispatcher}): it has to read the
+ * document again and can ignore following events with a revision up to the one it read.
+ *
+ * @param eventType    kind of change
+ * @param visibleIndex index in the visible text where the change happened (before a delete
+ *                     it is the index of the removed character, after an insert the index
+ *                     of the new character)
+ * @param text         inserted text, empty for deletes
+ * @param length       number of inserted or deleted characters
+ * @param originSiteId site that created the operation, null for unstamped deletes
+ * @param revision     document revision that contains this change
+ */
+public record DocumentChangeEvent(DocumentChangeEventType eventType,
+                                  int visibleIndex,
+                                  String text,
+                                  int length,
+                                  UUID originSiteId,
+                                  long revision) {
     public enum DocumentChangeEventType {
-        INSERT, DELETE
+        INSERT, DELETE, RESYNC
+    }
+
+    static DocumentChangeEvent insert(int visibleIndex, String text, UUID originSiteId, long revision) {
+        return new DocumentChangeEvent(DocumentChangeEventType.INSERT, visibleIndex, text, text.length(), originSiteId, revision);
+    }
+
+    static DocumentChangeEvent resync(long revision) {
+        return new DocumentChangeEvent(DocumentChangeEventType.RESYNC, 0, "", 0, null, revision);
+    }
+
+    static DocumentChangeEvent delete(int visibleIndex, int length, UUID originSiteId, long revision) {
+        return new DocumentChangeEvent(DocumentChangeEventType.DELETE, visibleIndex, "", length, originSiteId, revision);
     }
 }
@@ -0,0 +1,226 @@
+package at.felixb.energa.crdt;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of a {@link CrdtDocument} at one revision, see {@link CrdtDocument#snapshot()}.
+ * <p>
+ * A snapshot consists of the per-leaf {@link TextChunk}s of the linear order. Chunks of
+ * leaves that did not change are the same objects in consecutive snapshots (and in the
+ * document's render path), so taking a snapshot costs one step per leaf plus re-rendering
+ * the changed leaves, not a copy of the text.
+ * <p>
+ * All methods can be called from any thread while the document keeps changing.
+ * <p>
+ * Anchors are resolved through the snapshot's own {@link ChunkIndex} from node id to chunk
+ * and the chunk's id map, which is shared with every snapshot containing that chunk. The
+ * index is the previous snapshot's, updated with the ids of the chunks created since and
+ * without the ids collected since, and shares everything else with it. The first anchor
+ * call on a snapshot maps its chunks to their offsets (one step per leaf).
+ */
+public final class DocumentSnapshot {
+
+    private final long revision;
+    private final CrdtNodeId rootId;
+    private final List<TextChunk> chunks;
+    private final int[] chunkStarts;                         // visible offset of each chunk
+    private final int length;
+    private final Map<CrdtNodeId, CrdtNodeId> collectedNodes; // immutable
+    private final ChunkIndex chunkIndex;
+    private final long chunkSequence;                        // chunks up to this one are indexed
+
+    private volatile String rendered;
+    private volatile Map<TextChunk, Integer> chunkPositions;
+
+    /**
+     * @param previous      snapshot of the same document whose index is updated, null for none
+     * @param collectedIds  ids garbage collected since the previous snapshot
+     * @param chunkSequence {@link TextChunk#lastSequence()} before the chunks were collected
+     */
+    DocumentSnapshot(long revision, CrdtNodeId rootId, List<TextChunk> chunks,
+                     Map<CrdtNodeId, CrdtNodeId> collectedNodes, DocumentSnapshot previous,
+                     Collection<CrdtNodeId> collectedIds, long chunkSequence) {
+        this.revision = revision;
+        this.rootId = rootId;
+        this.chunks = chunks;
+        this.collectedNodes = collectedNodes;
+        this.chunkIndex = index(previous, collectedIds, chunks);
+        this.chunkSequence = chunkSequence;
+
+        this.chunkStarts = new int[chunks.size()];
+        int offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            chunkStarts[i] = offset;
+            offset += chunks.get(i).text.length();
+        }
+        this.length = offset;
+    }
+
+    /**
+     * Revision of the document this snapshot was taken at.
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public String render() {
+        String text = rendered;
+        if (text == null) {
+            StringBuilder sb = new StringBuilder(length);
+            for (TextChunk chunk : chunks) sb.append(chunk.text);
+            text = sb.toString();
+            rendered = text;
+        }
+        return text;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if the range is not within [0, length]
+     */
+    public String renderRange(int fromVisible, int toVisible) {
+        if (fromVisible < 0 || toVisible > length || fromVisible > toVisible) {
+            throw new IndexOutOfBoundsException("range [" + fromVisible + ", " + toVisible + "), length: " + length);
+        }
+        String text = rendered;
+        if (text != null) return text.substring(fromVisible, toVisible);
+
+        StringBuilder sb = new StringBuilder(toVisible - fromVisible);
+        for (int c = fromVisible == toVisible ? chunks.size() : chunkAt(fromVisible); c < chunks.size(); c++) {
+            int start = chunkStarts[c];
+            if (start >= toVisible) break;
+
+            String chunkText = chunks.get(c).text;
+            sb.append(chunkText, Math.max(0, fromVisible - start), Math.min(chunkText.length(), toVisible - start));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if the index is not within [0, length)
+     */
+    public char charAt(int visibleIndex) {
+        checkIndex(visibleIndex);
+        int c = chunkAt(visibleIndex);
+        return chunks.get(c).text.charAt(visibleIndex - chunkStarts[c]);
+    }
+
+    /**
+     * Id of the node of the visible character at the given index.
+     *
+     * @throws IndexOutOfBoundsException if the index is not within [0, length)
+     */
+    public CrdtNodeId nodeIdAt(int visibleIndex) {
+        checkIndex(visibleIndex);
+        int c = chunkAt(visibleIndex);
+        return chunks.get(c).visibleNodeId(visibleIndex - chunkStarts[c]);
+    }
+
+    /**
+     * Same as {@link CrdtDocument#createAnchor(int, Gravity)} at this revision.
+     */
+    public Anchor createAnchor(int caretIndex, Gravity gravity) {
+        if (length == 0 || caretIndex <= 0) return new Anchor(rootId, Gravity.LEFT);
+        if (caretIndex >= length) return new Anchor(nodeIdAt(length - 1), Gravity.LEFT);
+
+        return switch (gravity) {
+            case LEFT -> new Anchor(nodeIdAt(caretIndex - 1), gravity);
+            case RIGHT -> new Anchor(nodeIdAt(caretIndex), gravity);
+        };
+    }
+
+    /**
+     * Same as {@link CrdtDocument#resolveAnchor(Anchor)} at this revision. Anchors on nodes
+     * that did not exist yet resolve to 0.
+     */
+    public int resolveAnchor(Anchor anchor) {
+        CrdtNodeId id = anchor.anchorId();
+        if (id.equals(rootId)) return 0;
+
+        Integer entry = anchorEntry(id);
+        if (entry == null) return resolveCollectedAnchor(id);
+
+        boolean visible = (entry & 1) != 0;
+        int visibleRank = entry >>> 1;
+        return visible && anchor.gravity() == Gravity.LEFT ? visibleRank + 1 : visibleRank;
+    }
+
+    public Range resolveRange(Anchor a, Anchor b) {
+        return new Range(resolveAnchor(a), resolveAnchor(b));
+    }
+
+    // #### Private
+
+    private void checkIndex(int visibleIndex) {
+        if (visibleIndex < 0 || visibleIndex >= length) {
+            throw new IndexOutOfBoundsException("visibleIndex: " + visibleIndex + ", length: " + length);
+        }
+    }
+
+    // last chunk starting at or before the index; that one is non-empty for index < length
+    private int chunkAt(int visibleIndex) {
+        int lo = 0;
+        int hi = chunkStarts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (chunkStarts[mid] <= visibleIndex) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    // A chunk that already existed when the previous snapshot collected its chunks and is
+    // still part of the linear order was part of the previous snapshot, so it is indexed.
+    // Every id that moved since is in a newer chunk, and the newer chunk overwrites it.
+    private static ChunkIndex index(DocumentSnapshot previous, Collection<CrdtNodeId> collectedIds,
+                                    List<TextChunk> chunks) {
+        ChunkIndex.Update update = (previous == null ? ChunkIndex.EMPTY : previous.chunkIndex).update();
+        long indexedUpTo = previous == null ? 0 : previous.chunkSequence;
+
+        for (CrdtNodeId id : collectedIds) update.remove(id);
+        for (TextChunk chunk : chunks) {
+            if (chunk.sequence <= indexedUpTo) continue;
+            for (CrdtNodeId id : chunk.nodeIds) update.put(id, chunk);
+        }
+        return update.build();
+    }
+
+    // id -> visibleRank * 2 + (visible ? 1 : 0) at this revision, null if not part of it
+    private Integer anchorEntry(CrdtNodeId id) {
+        TextChunk chunk = chunkIndex.get(id);
+        if (chunk == null) return null;
+        return chunk.anchorEntry(id) + 2 * chunkStarts[chunkPositions().get(chunk)];
+    }
+
+    private Map<TextChunk, Integer> chunkPositions() {
+        Map<TextChunk, Integer> positions = chunkPositions;
+        if (positions != null) return positions;
+
+        positions = new IdentityHashMap<>(chunks.size());
+        for (int c = 0; c < chunks.size(); c++) {
+            positions.put(chunks.get(c), c);
+        }
+        chunkPositions = positions;
+        return positions;
+    }
+
+    // see CrdtDocument.resolveCollectedAnchor
+    private int resolveCollectedAnchor(CrdtNodeId id) {
+        CrdtNodeId target = collectedNodes.get(id);
+        if (target == null) return 0;
+
+        while (collectedNodes.containsKey(target)) {
+            target = collectedNodes.get(target);
+        }
+        Integer entry = target.equals(rootId) ? null : anchorEntry(target);
+        if (entry == null) return 0;
+
+        return (entry >>> 1) + (entry & 1);
+    }
+}
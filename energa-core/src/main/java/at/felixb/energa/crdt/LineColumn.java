@@ -0,0 +1,5 @@
+package at.felixb.energa.crdt;
+
+public record LineColumn(int line, int column) {
+
+}
@@ -2,25 +2,43 @@ package at.felixb.energa.crdt;
 
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 class LinearOrderCache {
 
-    private BPlusList<CrdtNode> cache = new BPlusList<>(32);
+    private BPlusList<CrdtNode> cache;
+    private int newlineSummary;   // summary ids in cache
+    private int utf8Summary;
+    private int codePointSummary;
+    private int surrogateSummary;
+    // visible surrogates without their partner, measured like TextExport writes them: '?'
+    private final Set<CrdtNode> loneSurrogates = Collections.newSetFromMap(new IdentityHashMap<>());
     private final Map<CrdtNodeId, Integer> nodeIdIndexMap = new HashMap<>();
-    private final CrdtDocument document;
+    private final CrdtNode root;
     private boolean dirty = false;
 
-    LinearOrderCache(CrdtDocument document) {
+    LinearOrderCache(CrdtNode root) {
         super();
-        this.document = document;
+        this.root = root;
+        this.cache = newList();
     }
 
     void insertNode(CrdtNode node) {
         int index = getDfsInsertIndex(node);
 
         cache.add(index, node); // insert new Node
+        if (hasSurrogates() && cache.isVisible(node)) updatePairsAround(cache.visibleRank(node), true);
+    }
+
+    void removeNode(CrdtNode node) {
+        int rank = hasSurrogates() && cache.isVisible(node) ? cache.visibleRank(node) : -1;
+        cache.remove(node);
+        loneSurrogates.remove(node);
+        if (rank >= 0) updatePairsAround(rank, false);
     }
 
     boolean cacheDirty() {
@@ -28,9 +46,18 @@ class LinearOrderCache {
     }
 
 
-    void renew() {
-        this.cache = new BPlusList<>(32);
-        cache.addAll(document.traverse());
+    /**
+     * Builds the cache from a complete linear order in one pass. Only valid while the cache is empty.
+     */
+    void bulkLoad(List<CrdtNode> linearOrder) {
+        collectLoneSurrogates(linearOrder);
+        cache.bulkLoad(linearOrder, CrdtNode::isVisible);
+    }
+
+    void renew(List<CrdtNode> linearOrder) {
+        this.cache = newList();
+        collectLoneSurrogates(linearOrder);
+        cache.bulkLoad(linearOrder, CrdtNode::isVisible);
         renewIdIndexMap();
         dirty = false;
     }
@@ -42,32 +69,41 @@ class LinearOrderCache {
         }
     }
 
+    /**
+     * DFS position of a node that was just added to the CRDT tree (but not yet to the cache).
+     * <p>
+     * Children are ordered by descending id, so the new node goes
+     * <br/>- directly in front of its next (smaller) sibling, if there is one
+     * <br/>- directly behind its parent, if it is the only child
+     * <br/>- otherwise behind the whole subtree of its parent, i.e. in front of the
+     * next sibling of the closest ancestor that has one (or at the very end)
+     */
     int getDfsInsertIndex(CrdtNode insertNode) {
+        // a restored tombstone that got its spliced children back precedes them
+        CrdtNode firstChild = insertNode.getFirstChild();
+        if (firstChild != null) {
+            return cache.indexOf(firstChild);
+        }
 
-        CrdtNode parent = insertNode.getParent();
-
-        int parentIndex = (parent == document.getRoot())
-                ? 0
-                : cache.indexOf(parent);
+        CrdtNode nextSibling = insertNode.getNextSibling();
+        if (nextSibling != null) {
+            return cache.indexOf(nextSibling);
+        }
 
-        int prefixSum = 0;
+        CrdtNode parent = insertNode.getParent();
 
-        // children sind reverseOrder() -> Iteration: größte IDs zuerst
-        for (CrdtNode child : parent.getChildren()) {
-            int cmp = child.getNodeId().compareTo(insertNode.getNodeId());
+        if (parent.getChildCount() == 1) {
+            return (parent == root) ? 0 : cache.indexOf(parent) + 1;
+        }
 
-            // cmp > 0 => childId ist größer => kommt VOR insertNode in reverseOrder
-            if (cmp > 0) {
-                prefixSum += child.getSubTreeSize();
-            } else {
-                // jetzt sind wir bei <= insertNodeId, danach kommt nur noch kleiner -> kann abbrechen
-                break;
+        for (CrdtNode ancestor = parent; ancestor != root; ancestor = ancestor.getParent()) {
+            CrdtNode next = ancestor.getNextSibling();
+            if (next != null) {
+                return cache.indexOf(next);
             }
         }
 
-        int parentSelfOffset = (parent == document.getRoot()) ? 0 : 1;
-
-        return parentIndex + parentSelfOffset + prefixSum;
+        return cache.size();
     }
 
 
@@ -93,8 +129,18 @@ class LinearOrderCache {
         return cache.indexOf(node);
     }
 
+    /**
+     * All nodes in linear order, tombstones included. Streams the list without copying it.
+     */
     Stream<CrdtNode> stream() {
-        return cache.toList().stream();
+        return StreamSupport.stream(cache.spliterator(), false);
+    }
+
+    /**
+     * Visible nodes in linear order, without copying.
+     */
+    Stream<CrdtNode> streamVisible() {
+        return StreamSupport.stream(cache.visibleSpliterator(), false);
     }
 
     List<CrdtNode> getCopyWithActiveOnlyNodes() {
@@ -113,19 +159,186 @@ class LinearOrderCache {
         return cache.indexOfVisible(value);
     }
 
+    int visibleRank(CrdtNode value) {
+        return cache.visibleRank(value);
+    }
+
     CrdtNode getVisible(int visibleIndex) {
         return cache.getVisible(visibleIndex);
     }
 
+    void forEachVisibleNode(int fromVisible, int toVisible, Consumer<CrdtNode> consumer) {
+        cache.forEachVisible(fromVisible, toVisible, consumer);
+    }
+
+    BPlusList<CrdtNode>.VisibleCursor visibleCursor() {
+        return cache.visibleCursor();
+    }
+
+    int newlineCount() {
+        return (int) cache.summaryTotal(newlineSummary);
+    }
+
+    int newlinesBefore(int visibleIndex) {
+        return (int) cache.summaryBefore(newlineSummary, visibleIndex);
+    }
+
+    int visibleIndexOfNewline(int n) {
+        return cache.seekSummary(newlineSummary, n);
+    }
+
+    /**
+     * Length of the visible text in the given unit.
+     */
+    long unitCount(OffsetUnit unit) {
+        if (unit == OffsetUnit.UTF16) return cache.visibleSize();
+        return cache.summaryTotal(summaryOf(unit));
+    }
+
+    /**
+     * Length of the first visibleIndex visible characters in the given unit.
+     */
+    long unitsBefore(OffsetUnit unit, int visibleIndex) {
+        if (unit == OffsetUnit.UTF16) return visibleIndex;
+        return cache.summaryBefore(summaryOf(unit), visibleIndex);
+    }
+
+    /**
+     * Visible index of the character that contains the given unit offset (0..unitCount-1).
+     * An offset inside a multi-unit character resolves to the character's (first char's) index.
+     */
+    int visibleIndexOfUnit(OffsetUnit unit, long offset) {
+        if (unit == OffsetUnit.UTF16) return Math.toIntExact(offset);
+        return cache.seekSummary(summaryOf(unit), offset);
+    }
+
     List<CrdtNode> getCopyWithDeletedNodes() {
         return cache.toList();
     }
 
     void setVisible(CrdtNode node, boolean newVisible) {
-        cache.setVisible(node, newVisible);
+        if (!cache.setVisible(node, newVisible)) return;
+        if (!newVisible) loneSurrogates.remove(node);
+        if (hasSurrogates()) updatePairsAround(cache.visibleRank(node), newVisible);
     }
 
     void forEachVisibleNode(Consumer<CrdtNode> consumer) {
         cache.forEachVisible(consumer);
     }
+
+    /**
+     * Passes the visible text leaf by leaf. Chunks of unchanged leaves are cached in the list.
+     */
+    void forEachVisibleChunk(Consumer<String> consumer) {
+        cache.forEachLeafChunk(LinearOrderCache::chunkOf, chunk -> consumer.accept(chunk.text));
+    }
+
+    /**
+     * Parallel variant of {@link #forEachVisibleChunk}: passes each leaf's text with its
+     * visible offset, from several threads and in no particular order.
+     */
+    void forEachVisibleChunkParallel(ObjIntConsumer<String> consumer, ForkJoinPool pool) {
+        cache.forEachLeafChunkParallel(LinearOrderCache::chunkOf, (chunk, offset) -> consumer.accept(chunk.text, offset), pool);
+    }
+
+    /**
+     * Passes the immutable chunk of every leaf, in linear order, see {@link TextChunk}.
+     */
+    void forEachChunk(Consumer<TextChunk> consumer) {
+        cache.forEachLeafChunk(LinearOrderCache::chunkOf, consumer);
+    }
+
+    private BPlusList<CrdtNode> newList() {
+        BPlusList<CrdtNode> list = new BPlusList<>(32);
+        newlineSummary = list.registerSummary(node -> node.getCharacter() == '\n' ? 1 : 0);
+        utf8Summary = list.registerSummary(this::utf8Length);
+        codePointSummary = list.registerSummary(this::codePointLength);
+        surrogateSummary = list.registerSummary(node -> Character.isSurrogate(node.getCharacter()) ? 1 : 0);
+        return list;
+    }
+
+    private int summaryOf(OffsetUnit unit) {
+        return switch (unit) {
+            case UTF8 -> utf8Summary;
+            case CODE_POINT -> codePointSummary;
+            case UTF16 -> throw new IllegalArgumentException("UTF16 offsets are visible indexes");
+        };
+    }
+
+    // A surrogate pair is 4 bytes, all of them counted on the high surrogate so that byte
+    // offsets inside the pair seek to its start. A lone surrogate is 1 byte, the '?' it is
+    // written as.
+    private long utf8Length(CrdtNode node) {
+        char c = node.getCharacter();
+        if (c < 0x80) return 1;
+        if (c < 0x800) return 2;
+        if (!Character.isSurrogate(c)) return 3;
+        if (loneSurrogates.contains(node)) return 1;
+        return Character.isHighSurrogate(c) ? 4 : 0;
+    }
+
+    private long codePointLength(CrdtNode node) {
+        return Character.isLowSurrogate(node.getCharacter()) && !loneSurrogates.contains(node) ? 0 : 1;
+    }
+
+    /**
+     * Re-pairs the surrogates next to a visibility change. rank is the visible index of a
+     * node that became visible, or the number of visible nodes in front of one that
+     * disappeared. Only the changed node and its visible neighbours can change partners.
+     */
+    private void updatePairsAround(int rank, boolean becameVisible) {
+        updatePairing(rank - 1);
+        updatePairing(rank);
+        if (becameVisible) updatePairing(rank + 1);
+    }
+
+    private boolean hasSurrogates() {
+        return cache.summaryTotal(surrogateSummary) > 0;
+    }
+
+    private void updatePairing(int visibleIndex) {
+        if (visibleIndex < 0 || visibleIndex >= cache.visibleSize()) return;
+
+        CrdtNode node = cache.getVisible(visibleIndex);
+        char c = node.getCharacter();
+        if (!Character.isSurrogate(c)) return;
+
+        boolean lone = Character.isHighSurrogate(c)
+                ? visibleIndex + 1 == cache.visibleSize()
+                        || !Character.isLowSurrogate(cache.getVisible(visibleIndex + 1).getCharacter())
+                : visibleIndex == 0
+                        || !Character.isHighSurrogate(cache.getVisible(visibleIndex - 1).getCharacter());
+        boolean changed = lone ? loneSurrogates.add(node) : loneSurrogates.remove(node);
+        if (changed) cache.remeasure(node);
+    }
+
+    // same pairing as TextExport: a high surrogate pairs with a directly following low one
+    private void collectLoneSurrogates(List<CrdtNode> linearOrder) {
+        loneSurrogates.clear();
+        CrdtNode previous = null;
+        for (CrdtNode node : linearOrder) {
+            if (!node.isVisible()) continue;
+            boolean pairs = previous != null && Character.isHighSurrogate(previous.getCharacter())
+                    && Character.isLowSurrogate(node.getCharacter());
+            if (!pairs && previous != null && Character.isHighSurrogate(previous.getCharacter())) {
+                loneSurrogates.add(previous);
+            }
+            if (!pairs && Character.isLowSurrogate(node.getCharacter())) loneSurrogates.add(node);
+            previous = node;
+        }
+        if (previous != null && Character.isHighSurrogate(previous.getCharacter())) loneSurrogates.add(previous);
+    }
+
+    private static TextChunk chunkOf(List<CrdtNode> leafNodes, BitSet visibleBits) {
+        char[] chars = new char[visibleBits.cardinality()];
+        CrdtNodeId[] nodeIds = new CrdtNodeId[leafNodes.size()];
+
+        int c = 0;
+        for (int i = 0; i < nodeIds.length; i++) {
+            CrdtNode node = leafNodes.get(i);
+            nodeIds[i] = node.getNodeId();
+            if (visibleBits.get(i)) chars[c++] = node.getCharacter();
+        }
+        return new TextChunk(new String(chars), nodeIds, (BitSet) visibleBits.clone());
+    }
 }
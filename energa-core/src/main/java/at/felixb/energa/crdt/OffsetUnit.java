@@ -0,0 +1,19 @@
+package at.felixb.energa.crdt;
+
+/**
+ * Unit in which a text offset is counted.
+ */
+public enum OffsetUnit {
+    /**
+     * Java chars, i.e. visible nodes. This is the unit of all index based document methods.
+     */
+    UTF16,
+    /**
+     * Unicode code points, a surrogate pair counts once.
+     */
+    CODE_POINT,
+    /**
+     * Bytes of the UTF-8 encoded text.
+     */
+    UTF8
+}
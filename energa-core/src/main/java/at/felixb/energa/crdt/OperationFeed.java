@@ -0,0 +1,139 @@
+package at.felixb.energa.crdt;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the applied operations of a document as batches, starting after a given revision.
+ * <p>
+ * Every subscriber reads the shared {@link OperationLog} through its own cursor, there
+ * are no per-subscriber queues. One unit of demand is one batch of up to
+ * {@link #MAX_BATCH_SIZE} operations; a subscriber that falls behind simply receives
+ * larger batches. Delivery runs on the given executor, at most one delivery per
+ * subscription at a time.
+ * <p>
+ * If the log is compacted past a subscriber's cursor, the subscriber receives
+ * {@code onError(IllegalStateException)} and has to resync from a snapshot. If the
+ * executor rejects a delivery, the subscription is cancelled and the subscriber receives
+ * {@code onError(RejectedExecutionException)} on the signalling thread; the write that
+ * signalled is not affected. The feed never completes.
+ */
+class OperationFeed implements Flow.Publisher<List<CrdtOperation>> {
+
+    static final int MAX_BATCH_SIZE = 4096;
+
+    private final OperationLog log;
+    private final long fromRevision;
+    private final Executor executor;
+
+    OperationFeed(OperationLog log, long fromRevision, Executor executor) {
+        this.log = log;
+        this.fromRevision = fromRevision;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<CrdtOperation>> subscriber) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+
+        FeedSubscription subscription = new FeedSubscription(subscriber, fromRevision);
+        subscriber.onSubscribe(subscription);
+        log.register(subscription);
+        subscription.signal();
+    }
+
+    class FeedSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super List<CrdtOperation>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private final AtomicReference<Throwable> pendingError = new AtomicReference<>();
+        private volatile boolean cancelled = false;
+
+        private long cursor; // only touched by the drain loop
+
+        FeedSubscription(Flow.Subscriber<? super List<CrdtOperation>> subscriber, long cursor) {
+            this.subscriber = subscriber;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // delivered by the drain loop, a drain may be calling onNext right now (§1.3)
+                pendingError.compareAndSet(null, new IllegalArgumentException("request must be > 0, was " + n));
+                cancel();
+                signal();
+                return;
+            }
+
+            demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            log.unregister(this);
+        }
+
+        void signal() {
+            if (pendingSignals.getAndIncrement() != 0) return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                rejected(e);
+            }
+        }
+
+        /**
+         * Cancels the subscription after the executor rejected its delivery. No delivery
+         * runs (and none will, pendingSignals stays above 0), so onError cannot overlap with onNext.
+         */
+        void rejected(RejectedExecutionException e) {
+            cancel();
+            subscriber.onError(e);
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                while (!cancelled && demand.get() > 0) {
+                    List<CrdtOperation> batch;
+                    try {
+                        batch = log.since(cursor, MAX_BATCH_SIZE);
+                    } catch (IllegalStateException | IllegalArgumentException e) {
+                        cancel();
+                        subscriber.onError(e);
+                        return;
+                    }
+                    if (batch.isEmpty()) break;
+
+                    cursor += batch.size();
+                    if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+
+                    try {
+                        subscriber.onNext(batch);
+                    } catch (RuntimeException e) {
+                        // a throwing subscriber is considered cancelled (Reactive Streams §2.13)
+                        cancel();
+                        return;
+                    }
+                }
+
+                Throwable error = pendingError.getAndSet(null);
+                if (error != null) {
+                    subscriber.onError(error);
+                    return;
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
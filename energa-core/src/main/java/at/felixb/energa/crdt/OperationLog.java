@@ -0,0 +1,108 @@
+package at.felixb.energa.crdt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Applied operations of one document, starting after the compaction baseline.
+ * <p>
+ * The log is appended by the document's writer thread only, but read by
+ * {@link OperationFeed} subscriptions on arbitrary threads, so all access is
+ * synchronized. Subscriptions keep only a cursor (revision) into the log and are
+ * signalled after every append.
+ */
+class OperationLog {
+
+    // ops with revision baselineRevision + 1 .. baselineRevision + operations.size()
+    private final ArrayList<CrdtOperation> operations = new ArrayList<>();
+    private final List<OperationFeed.FeedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private long baselineRevision = 0;
+
+    synchronized void append(CrdtOperation operation) {
+        operations.add(operation);
+    }
+
+    synchronized void appendAll(List<? extends CrdtOperation> batch) {
+        operations.addAll(batch);
+    }
+
+    synchronized long baselineRevision() {
+        return baselineRevision;
+    }
+
+    synchronized long revision() {
+        return baselineRevision + operations.size();
+    }
+
+    /**
+     * Lets an empty log start after the given revision, as if everything up to it had
+     * been compacted. Used for forks, which share the history of their origin.
+     */
+    synchronized void startAfter(long revision) {
+        if (!operations.isEmpty() || baselineRevision != 0) {
+            throw new IllegalStateException("startAfter requires an empty log");
+        }
+        baselineRevision = revision;
+    }
+
+    /**
+     * Forgets all operations and continues after the given revision, as if everything up
+     * to it had been compacted. Used for replicas restored from a snapshot, whose import
+     * must not be handed out as the operations since revision 0.
+     */
+    synchronized void restartAfter(long revision) {
+        operations.clear();
+        operations.trimToSize();
+        baselineRevision = revision;
+    }
+
+    synchronized void compact(long upToRevision) {
+        long revision = revision();
+        if (upToRevision < baselineRevision || upToRevision > revision) {
+            throw new IllegalArgumentException("upToRevision must be within [" + baselineRevision + ", " + revision + "]: " + upToRevision);
+        }
+
+        operations.subList(0, (int) (upToRevision - baselineRevision)).clear();
+        operations.trimToSize();
+        baselineRevision = upToRevision;
+    }
+
+    /**
+     * Copies at most maxCount operations following the given revision.
+     *
+     * @throws IllegalStateException if the requested ops have been compacted
+     */
+    synchronized List<CrdtOperation> since(long sinceRevision, int maxCount) {
+        if (sinceRevision < baselineRevision) {
+            throw new IllegalStateException("Operations up to revision " + baselineRevision + " are compacted, requested: " + sinceRevision);
+        }
+        long revision = revision();
+        if (sinceRevision > revision) {
+            throw new IllegalArgumentException("sinceRevision is ahead of the document revision " + revision + ": " + sinceRevision);
+        }
+
+        int from = (int) (sinceRevision - baselineRevision);
+        int to = (int) Math.min(operations.size(), from + (long) maxCount);
+        return List.copyOf(operations.subList(from, to));
+    }
+
+    void register(OperationFeed.FeedSubscription subscription) {
+        subscriptions.add(subscription);
+    }
+
+    void unregister(OperationFeed.FeedSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Wakes up all subscriptions after new operations were appended.
+     */
+    void signalSubscribers() {
+        if (subscriptions.isEmpty()) return;
+
+        for (OperationFeed.FeedSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+}
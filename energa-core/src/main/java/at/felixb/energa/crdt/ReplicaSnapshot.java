@@ -0,0 +1,36 @@
+package at.felixb.energa.crdt;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Snapshot operations of {@link CrdtDocument#exportSnapshot()} together with what a
+ * replica needs to continue where it stopped: its site id, its revision and the next
+ * counter for its own node ids. Loaded with {@link Document#fromReplica}.
+ *
+ * @param siteId      site id of the exported replica
+ * @param revision    revision the snapshot was taken at
+ * @param nextCounter next counter the replica would have used for a node id
+ * @param operations  the snapshot operations
+ */
+public record ReplicaSnapshot(UUID siteId, long revision, int nextCounter, List<CrdtOperation> operations) {
+
+    public ReplicaSnapshot {
+        if (siteId == null || operations == null) {
+            throw new IllegalArgumentException("siteId and operations must not be null");
+        }
+        if (revision < 0 || nextCounter < 0) {
+            throw new IllegalArgumentException("revision and nextCounter must be >= 0");
+        }
+        operations = List.copyOf(operations);
+    }
+
+    /**
+     * A snapshot of plain operations without a replica behind it: loading it creates a
+     * fresh replica with a new site id whose revision counts the operations, like
+     * {@link Document#fromLog}.
+     */
+    public static ReplicaSnapshot of(List<CrdtOperation> operations) {
+        return new ReplicaSnapshot(UUID.randomUUID(), operations.size(), 1, operations);
+    }
+}
@@ -0,0 +1,68 @@
+package at.felixb.energa.crdt;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable content of one leaf of the linear order: the visible text and the ids of
+ * all nodes of the leaf (tombstones included). Cached in the leaf until it changes, so
+ * render() and every {@link DocumentSnapshot} taken in between share the same chunk.
+ */
+final class TextChunk {
+
+    final String text;
+    final CrdtNodeId[] nodeIds;
+    final BitSet visible;         // per entry of nodeIds, never modified
+    final long sequence = SEQUENCE.incrementAndGet(); // creation order over all chunks
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private volatile Map<CrdtNodeId, Integer> anchorEntries;
+
+    TextChunk(String text, CrdtNodeId[] nodeIds, BitSet visible) {
+        this.text = text;
+        this.nodeIds = nodeIds;
+        this.visible = visible;
+    }
+
+    /**
+     * Sequence of the chunk created last, 0 before the first one.
+     */
+    static long lastSequence() {
+        return SEQUENCE.get();
+    }
+
+    /**
+     * Id of the visible node at the given position within this chunk's text.
+     */
+    CrdtNodeId visibleNodeId(int localVisibleIndex) {
+        int bit = visible.nextSetBit(0);
+        for (int i = 0; i < localVisibleIndex; i++) {
+            bit = visible.nextSetBit(bit + 1);
+        }
+        return nodeIds[bit];
+    }
+
+    /**
+     * Position of the node within this chunk as {@code localVisibleRank * 2 + (visible ? 1 : 0)},
+     * null if the node is not part of the chunk. The map behind it is built on the first
+     * call and shared by all snapshots containing this chunk.
+     */
+    Integer anchorEntry(CrdtNodeId id) {
+        Map<CrdtNodeId, Integer> entries = anchorEntries;
+        if (entries == null) {
+            // racing readers build equal maps, any of them may win
+            entries = new HashMap<>(nodeIds.length * 2);
+            int visibleRank = 0;
+            for (int i = 0; i < nodeIds.length; i++) {
+                boolean isVisible = visible.get(i);
+                entries.put(nodeIds[i], visibleRank * 2 + (isVisible ? 1 : 0));
+                if (isVisible) visibleRank++;
+            }
+            anchorEntries = entries;
+        }
+        return entries.get(id);
+    }
+}
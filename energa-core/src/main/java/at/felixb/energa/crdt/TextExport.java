@@ -0,0 +1,111 @@
+package at.felixb.energa.crdt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the visible text of a linear order without materializing it.
+ * <p>
+ * Characters are read leaf by leaf through a {@link BPlusList.VisibleCursor} into a
+ * fixed size buffer, so an export never holds more than {@link #CHUNK_SIZE} characters
+ * (or bytes) at once. UTF-8 is encoded by hand: surrogate pairs become one 4-byte
+ * sequence, lone surrogates are replaced by '?' like {@link String#getBytes} does.
+ */
+class TextExport {
+
+    static final int CHUNK_SIZE = 8192;
+
+    private TextExport() {
+    }
+
+    static void writeTo(LinearOrderCache linearOrder, Writer writer) throws IOException {
+        BPlusList<CrdtNode>.VisibleCursor cursor = linearOrder.visibleCursor();
+        int length = linearOrder.visibleSize();
+        char[] chunk = new char[Math.min(CHUNK_SIZE, length)];
+
+        for (int from = 0; from < length; from += chunk.length) {
+            int count = Math.min(chunk.length, length - from);
+            for (int i = 0; i < count; i++) {
+                chunk[i] = cursor.get(from + i).getCharacter();
+            }
+            writer.write(chunk, 0, count);
+        }
+    }
+
+    static void writeUtf8(LinearOrderCache linearOrder, OutputStream out) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        int length = linearOrder.visibleSize();
+
+        int position = 0;
+        while (position < length) {
+            chunk.clear();
+            position = writeUtf8(linearOrder, chunk, position);
+            out.write(chunk.array(), 0, chunk.position());
+        }
+    }
+
+    /**
+     * Encodes visible characters from fromVisible on into target until it is full.
+     * Never splits a character across two calls, so target must have room for at least
+     * the next character; 4 bytes are always enough.
+     *
+     * @return visible index to continue with, visibleSize() once everything is written
+     * @throws IllegalArgumentException if not even the next character fits into target
+     */
+    static int writeUtf8(LinearOrderCache linearOrder, ByteBuffer target, int fromVisible) {
+        int length = linearOrder.visibleSize();
+        if (fromVisible < 0 || fromVisible > length) {
+            throw new IndexOutOfBoundsException("fromVisible: " + fromVisible + ", visibleSize: " + length);
+        }
+
+        BPlusList<CrdtNode>.VisibleCursor cursor = linearOrder.visibleCursor();
+        int i = fromVisible;
+
+        while (i < length) {
+            char c = cursor.get(i).getCharacter();
+
+            if (c < 0x80) {
+                if (!target.hasRemaining()) return noRoom(target, 1, i, fromVisible);
+                target.put((byte) c);
+                i++;
+            } else if (c < 0x800) {
+                if (target.remaining() < 2) return noRoom(target, 2, i, fromVisible);
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+                i++;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(cursor.get(i + 1).getCharacter())) {
+                if (target.remaining() < 4) return noRoom(target, 4, i, fromVisible);
+                int codePoint = Character.toCodePoint(c, cursor.get(i + 1).getCharacter());
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+                i += 2;
+            } else if (Character.isSurrogate(c)) {
+                if (!target.hasRemaining()) return noRoom(target, 1, i, fromVisible);
+                target.put((byte) '?');
+                i++;
+            } else {
+                if (target.remaining() < 3) return noRoom(target, 3, i, fromVisible);
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+                i++;
+            }
+        }
+
+        return i;
+    }
+
+    // the next character does not fit: stop there, unless the call would make no progress
+    private static int noRoom(ByteBuffer target, int needed, int i, int fromVisible) {
+        if (i == fromVisible) {
+            throw new IllegalArgumentException("target has " + target.remaining()
+                    + " bytes remaining, the character at " + i + " needs " + needed);
+        }
+        return i;
+    }
+}
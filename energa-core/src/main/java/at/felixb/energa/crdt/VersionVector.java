@@ -0,0 +1,80 @@
+package at.felixb.energa.crdt;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Maps each site to the highest counter of that site which is covered.
+ * <p>
+ * Used by the host to tell a document which operations are causally stable, i.e.
+ * have been integrated by every replica. Immutable.
+ */
+public final class VersionVector {
+
+    private final Map<UUID, Integer> counters;
+
+    private VersionVector(Map<UUID, Integer> counters) {
+        this.counters = Map.copyOf(counters);
+    }
+
+    public static VersionVector of(Map<UUID, Integer> counters) {
+        return new VersionVector(counters);
+    }
+
+    public static VersionVector empty() {
+        return new VersionVector(Map.of());
+    }
+
+    /**
+     * Element-wise minimum of the given vectors: what all of them have seen.
+     * A site missing in any of the vectors is missing in the result.
+     */
+    public static VersionVector stable(Collection<VersionVector> vectors) {
+        if (vectors.isEmpty()) return empty();
+
+        Map<UUID, Integer> result = null;
+        for (VersionVector vector : vectors) {
+            if (result == null) {
+                result = new HashMap<>(vector.counters);
+                continue;
+            }
+            result.keySet().retainAll(vector.counters.keySet());
+            result.replaceAll((site, counter) -> Math.min(counter, vector.counters.get(site)));
+        }
+        return new VersionVector(result);
+    }
+
+    /**
+     * Highest covered counter of the site, -1 if the site is unknown.
+     */
+    public int get(UUID siteId) {
+        return counters.getOrDefault(siteId, -1);
+    }
+
+    public boolean covers(CrdtNodeId id) {
+        return id.counter() <= get(id.siteId());
+    }
+
+    public Map<UUID, Integer> asMap() {
+        return counters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VersionVector that)) return false;
+        return counters.equals(that.counters);
+    }
+
+    @Override
+    public int hashCode() {
+        return counters.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "VersionVector" + counters;
+    }
+}
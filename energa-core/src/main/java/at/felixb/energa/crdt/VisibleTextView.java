@@ -0,0 +1,50 @@
+package at.felixb.energa.crdt;
+
+/**
+ * {@link CharSequence} over a window of the visible linear order, reading characters
+ * straight from the {@link BPlusList} leaves through a {@link BPlusList.VisibleCursor}.
+ * <br/>
+ * Sub sequences get their own cursor and share nothing else, so creating them is O(1).
+ */
+class VisibleTextView implements CharSequence {
+
+    private final BPlusList<CrdtNode>.VisibleCursor cursor;
+    private final int start;
+    private final int end;
+
+    VisibleTextView(BPlusList<CrdtNode>.VisibleCursor cursor, int start, int end) {
+        this.cursor = cursor;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+        }
+        return cursor.get(start + index).getCharacter();
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > length() || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length: " + length());
+        }
+        return new VisibleTextView(cursor.copy(), start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = cursor.get(start + i).getCharacter();
+        }
+        return new String(chars);
+    }
+}
@@ -1,10 +1,18 @@
 package at.felixb.energa.crdt;
 
+import com.sun.management.ThreadMXBean;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
@@ -171,27 +179,73 @@ public class CrdtPerformanceTest {
     void benchmarkFromLogReplay_moreStable() {
         for (int size : SIZES) {
             List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+            List<CrdtOperation> shuffled = new ArrayList<>(ops);
+            Collections.shuffle(shuffled, new Random(RANDOM_SEED));
 
-            warmupFor(WARMUP_TIME_MS, () -> {
-                Document doc = Document.fromLog(ops);
-                assertNotNull(doc);
+            benchmarkReplay("Document.fromLog() in order", size, () -> Document.fromLog(ops));
+            benchmarkReplay("Document.fromLog() shuffled", size, () -> Document.fromLog(shuffled));
+            benchmarkReplay("sequential apply() shuffled", size, () -> {
+                Document doc = Document.create();
+                for (CrdtOperation op : shuffled) doc.apply(op);
+                return doc;
             });
+        }
+    }
 
-            List<Long> samples = new ArrayList<>(MEASURE_RUNS * INNER_ITERATIONS);
-            for (int run = 0; run < MEASURE_RUNS; run++) {
-                gcHint();
-
-                for (int it = 0; it < INNER_ITERATIONS; it++) {
-                    long start = System.nanoTime();
-                    Document doc = Document.fromLog(ops);
-                    long end = System.nanoTime();
-                    assertNotNull(doc);
-                    samples.add(end - start);
-                }
+    @Test
+    void benchmarkParallelFromLogReplay_moreStable() {
+        // 10M Ops passen nicht in den Test-Heap, 1M reicht für die Tendenz
+        int size = 1_000_000;
+        List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+        Collections.shuffle(ops, new Random(RANDOM_SEED));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        benchmarkReplay("Document.fromLog() sequential", size, () -> Document.fromLog(ops));
+        for (int parallelism : new int[] { 1, cores, 2 * cores }) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                benchmarkReplay("Document.fromLog() fork-join threads=" + parallelism, size,
+                        () -> Document.fromLog(ops, pool));
+            } finally {
+                pool.shutdown();
             }
+        }
+    }
+
+    @Test
+    void benchmarkForkVersusReplay_moreStable() {
+        for (int size : new int[] { 10_000, 100_000, 200_000 }) {
+            CrdtDocument doc = (CrdtDocument) Document.fromLog(generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED));
+            List<CrdtOperation> snapshot = doc.exportSnapshot();
+
+            benchmarkReplay("fork()", size, doc::fork);
+            // the copy is paid by the first write on the fork
+            benchmarkReplay("fork() + first apply()", size, () -> {
+                CrdtDocument fork = doc.fork();
+                fork.apply(new CrdtDeleteOp(fork.getLinearOrder().get(0).getNodeId()));
+                return fork;
+            });
+            benchmarkReplay("Document.fromLog(exportSnapshot())", size, () -> Document.fromLog(snapshot));
+        }
+    }
+
+    private static void benchmarkReplay(String label, int size, Supplier<Document> replay) {
+        warmupFor(WARMUP_TIME_MS, () -> assertNotNull(replay.get()));
+
+        List<Long> samples = new ArrayList<>(MEASURE_RUNS * INNER_ITERATIONS);
+        for (int run = 0; run < MEASURE_RUNS; run++) {
+            gcHint();
 
-            printStats("Document.fromLog()", size, samples);
+            for (int it = 0; it < INNER_ITERATIONS; it++) {
+                long start = System.nanoTime();
+                Document doc = replay.get();
+                long end = System.nanoTime();
+                assertNotNull(doc);
+                samples.add(end - start);
+            }
         }
+
+        printStats(label, size, samples);
     }
 
     // -------------------------------------------------------------------------
@@ -237,4 +291,416 @@ public class CrdtPerformanceTest {
             printStats("render()", size, samples);
         }
     }
+
+    @Test
+    void benchmarkColdRenderParallel() {
+        int size = 1_000_000;
+        List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        for (int parallelism : new int[] { 0, cores, 2 * cores }) {
+            ForkJoinPool pool = parallelism == 0 ? null : new ForkJoinPool(parallelism);
+            try {
+                // kalt: frisches Dokument ohne gecachte Blatt-Chunks, nur render() wird gemessen
+                List<Long> samples = new ArrayList<>(MEASURE_RUNS);
+                for (int run = 0; run < MEASURE_RUNS + 2; run++) {
+                    Document doc = Document.fromLog(ops);
+                    gcHint();
+
+                    long start = System.nanoTime();
+                    String text = pool == null ? doc.render() : doc.render(pool);
+                    long end = System.nanoTime();
+                    if (text.length() != size) throw new AssertionError("length " + text.length());
+                    if (run >= 2) samples.add(end - start); // zwei Läufe Warmup
+                }
+
+                printStats(pool == null ? "cold render() sequential" : "cold render(pool) threads=" + parallelism,
+                        size, samples);
+            } finally {
+                if (pool != null) pool.shutdown();
+            }
+        }
+    }
+
+    // vom aktuellen Thread allokierte Bytes (HotSpot)
+    private static long allocatedBytes() {
+        return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    void benchmarkStreamOverLinearOrder() {
+        int size = 1_000_000;
+        CrdtDocument doc = (CrdtDocument) Document.fromLog(generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED));
+
+        Map<String, Supplier<Stream<CrdtNode>>> variants = new LinkedHashMap<>();
+        variants.put("getLinearOrder().stream()", () -> doc.getLinearOrder().stream());
+        variants.put("streamAll()", doc::streamAll);
+        variants.put("getActiveOnlyLinearOrder().stream()", () -> doc.getActiveOnlyLinearOrder().stream());
+        variants.put("streamVisible()", doc::streamVisible);
+
+        for (Map.Entry<String, Supplier<Stream<CrdtNode>>> variant : variants.entrySet()) {
+            ToLongFunction<Stream<CrdtNode>> countE = stream -> stream.filter(node -> node.getCharacter() == 'e').count();
+            warmupFor(WARMUP_TIME_MS, () -> countE.applyAsLong(variant.getValue().get()));
+
+            List<Long> samples = new ArrayList<>(MEASURE_RUNS);
+            long allocated = 0;
+            for (int run = 0; run < MEASURE_RUNS; run++) {
+                gcHint();
+                long bytesBefore = allocatedBytes();
+                long start = System.nanoTime();
+                long count = countE.applyAsLong(variant.getValue().get());
+                long end = System.nanoTime();
+                allocated += allocatedBytes() - bytesBefore;
+                if (count < 0) throw new AssertionError("unreachable");
+                samples.add(end - start);
+            }
+
+            printStats(String.format(Locale.ROOT, "%-36s allocated %8.1f KB/run", variant.getKey(),
+                    allocated / 1024.0 / MEASURE_RUNS), size, samples);
+        }
+    }
+
+    @Test
+    void benchmarkRenderAfterSingleEdit_moreStable() {
+        for (int size : SIZES) {
+            List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+            CrdtDocument doc = (CrdtDocument) Document.fromLog(ops);
+            SiteState editor = new SiteState(UUID.randomUUID());
+            Random random = new Random(RANDOM_SEED);
+
+            // jede Messung: ein Zeichen irgendwo einfügen, dann rendern
+            Runnable editAndRender = () -> {
+                CrdtNodeId parent = ops.get(random.nextInt(ops.size())) instanceof CrdtInsertOp insertOp
+                        ? insertOp.getInsertNodeId() : rootId();
+                doc.apply(new CrdtInsertOp(parent, editor.nextNodeId(), 'x'));
+                if (doc.render().length() == -1) throw new AssertionError("unreachable");
+            };
+
+            warmupFor(WARMUP_TIME_MS, editAndRender);
+
+            List<Long> samples = new ArrayList<>(MEASURE_RUNS * INNER_ITERATIONS);
+            for (int run = 0; run < MEASURE_RUNS; run++) {
+                gcHint();
+
+                for (int it = 0; it < INNER_ITERATIONS; it++) {
+                    long start = System.nanoTime();
+                    editAndRender.run();
+                    samples.add(System.nanoTime() - start);
+                }
+            }
+
+            printStats("apply() + render() single edit", size, samples);
+        }
+    }
+
+    @Test
+    void benchmarkSnapshotAfterSingleEdit_moreStable() {
+        for (int size : SIZES) {
+            List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+            CrdtDocument doc = (CrdtDocument) Document.fromLog(ops);
+            SiteState editor = new SiteState(UUID.randomUUID());
+            Random random = new Random(RANDOM_SEED);
+
+            // jede Messung: ein Zeichen irgendwo einfügen, dann Snapshot (teilt unveränderte Blätter)
+            Runnable editAndSnapshot = () -> {
+                CrdtNodeId parent = ops.get(random.nextInt(ops.size())) instanceof CrdtInsertOp insertOp
+                        ? insertOp.getInsertNodeId() : rootId();
+                doc.apply(new CrdtInsertOp(parent, editor.nextNodeId(), 'x'));
+                if (doc.snapshot().length() == -1) throw new AssertionError("unreachable");
+            };
+
+            warmupFor(WARMUP_TIME_MS, editAndSnapshot);
+
+            List<Long> samples = new ArrayList<>(MEASURE_RUNS * INNER_ITERATIONS);
+            for (int run = 0; run < MEASURE_RUNS; run++) {
+                gcHint();
+
+                for (int it = 0; it < INNER_ITERATIONS; it++) {
+                    long start = System.nanoTime();
+                    editAndSnapshot.run();
+                    samples.add(System.nanoTime() - start);
+                }
+            }
+
+            printStats("apply() + snapshot() single edit", size, samples);
+        }
+    }
+
+    @Test
+    void benchmarkSnapshotAnchorsAfterSingleEdit_moreStable() {
+        int anchorCount = 20;
+        for (int size : SIZES) {
+            List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+            CrdtDocument doc = (CrdtDocument) Document.fromLog(ops);
+            SiteState editor = new SiteState(UUID.randomUUID());
+            Random random = new Random(RANDOM_SEED);
+            List<Anchor> anchors = new ArrayList<>(anchorCount);
+            for (int i = 0; i < anchorCount; i++) anchors.add(doc.createAnchor(random.nextInt(size + 1), Gravity.RIGHT));
+
+            // wie Presence pro Batch: ein Zeichen einfügen, Snapshot, alle Anker darauf auflösen
+            Runnable editSnapshotAndResolve = () -> {
+                CrdtNodeId parent = ops.get(random.nextInt(ops.size())) instanceof CrdtInsertOp insertOp
+                        ? insertOp.getInsertNodeId() : rootId();
+                doc.apply(new CrdtInsertOp(parent, editor.nextNodeId(), 'x'));
+                DocumentSnapshot snapshot = doc.snapshot();
+                for (Anchor anchor : anchors) {
+                    if (snapshot.resolveAnchor(anchor) < 0) throw new AssertionError("unreachable");
+                }
+            };
+
+            warmupFor(WARMUP_TIME_MS, editSnapshotAndResolve);
+
+            List<Long> samples = new ArrayList<>(MEASURE_RUNS * INNER_ITERATIONS);
+            for (int run = 0; run < MEASURE_RUNS; run++) {
+                gcHint();
+
+                for (int it = 0; it < INNER_ITERATIONS; it++) {
+                    long start = System.nanoTime();
+                    editSnapshotAndResolve.run();
+                    samples.add(System.nanoTime() - start);
+                }
+            }
+
+            printStats("apply() + snapshot() + " + anchorCount + " resolveAnchor()", size, samples);
+        }
+    }
+
+    @Test
+    void benchmarkRenderRangeViewport_moreStable() {
+        int viewport = 2_000;
+        for (int size : SIZES) {
+            List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+            Document doc = Document.fromLog(ops); // noch nie gerendert -> Abfrage über den Baum
+            Random random = new Random(RANDOM_SEED);
+            int length = Math.max(0, size - viewport);
+
+            warmupFor(WARMUP_TIME_MS, () -> {
+                int from = random.nextInt(length + 1);
+                if (doc.renderRange(from, from + Math.min(viewport, size)).isEmpty()) throw new AssertionError("unreachable");
+            });
+
+            List<Long> samples = new ArrayList<>(MEASURE_RUNS * INNER_ITERATIONS);
+            for (int run = 0; run < MEASURE_RUNS; run++) {
+                gcHint();
+
+                for (int it = 0; it < INNER_ITERATIONS; it++) {
+                    int from = random.nextInt(length + 1);
+                    long start = System.nanoTime();
+                    String window = doc.renderRange(from, from + Math.min(viewport, size));
+                    samples.add(System.nanoTime() - start);
+                    if (window.isEmpty()) throw new AssertionError("unreachable");
+                }
+            }
+
+            printStats("renderRange() 2k viewport", size, samples);
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    // 4) apply() of a typing chain delivered in reverse order (causal buffer)
+    // -------------------------------------------------------------------------
+
+    private List<CrdtOperation> generateChainInsertOps(int numOps) {
+        SiteState site = new SiteState(UUID.randomUUID());
+        List<CrdtOperation> ops = new ArrayList<>(numOps);
+
+        CrdtNodeId parentId = rootId();
+        for (int i = 0; i < numOps; i++) {
+            CrdtNodeId newId = site.nextNodeId();
+            ops.add(new CrdtInsertOp(parentId, newId, (char) ('a' + i % 26)));
+            parentId = newId;
+        }
+        return ops;
+    }
+
+    @Test
+    void benchmarkApplyReverseOrderChain_moreStable() {
+        for (int size : SIZES) {
+            List<CrdtOperation> ops = new ArrayList<>(generateChainInsertOps(size));
+            Collections.reverse(ops);
+
+            warmupFor(WARMUP_TIME_MS, () -> {
+                Document doc = Document.create();
+                for (CrdtOperation op : ops) doc.apply(op);
+                assertNotNull(doc);
+            });
+
+            List<Long> samples = new ArrayList<>(MEASURE_RUNS);
+            for (int run = 0; run < MEASURE_RUNS; run++) {
+                gcHint();
+
+                Document doc = Document.create();
+                long start = System.nanoTime();
+                for (CrdtOperation op : ops) doc.apply(op);
+                long end = System.nanoTime();
+                if (doc.render().length() != size) throw new AssertionError("chain not fully released");
+                samples.add(end - start);
+            }
+
+            printStats("apply() reverse-order chain", size, samples);
+        }
+    }
+
+    // -------------- Tombstone GC ----------------
+
+    private static long usedHeap() {
+        gcHint();
+        gcHint();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Edit-Trace auf CRDT-Ebene: meist fortlaufendes Tippen, ab und zu Cursor-Sprung,
+    // danach werden ~90% der Zeichen (gestempelt) wieder gelöscht
+    private CrdtDocument buildEditTrace(int size) {
+        Random random = new Random(RANDOM_SEED);
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        SiteState site = new SiteState(doc.getSiteId());
+
+        List<CrdtNodeId> nodeIds = new ArrayList<>(size);
+        CrdtNodeId cursor = rootId();
+        for (int i = 0; i < size; i++) {
+            if (!nodeIds.isEmpty() && random.nextInt(20) == 0) {
+                cursor = nodeIds.get(random.nextInt(nodeIds.size()));
+            }
+            CrdtNodeId id = site.nextNodeId();
+            doc.apply(new CrdtInsertOp(cursor, id, (char) ('a' + random.nextInt(26))));
+            nodeIds.add(id);
+            cursor = id;
+        }
+
+        for (CrdtNodeId id : nodeIds) {
+            if (random.nextInt(10) != 0) doc.apply(new CrdtDeleteOp(id, site.nextNodeId()));
+        }
+        return doc;
+    }
+
+    @Test
+    void benchmarkTombstoneGarbageCollection() {
+        for (int size : new int[] { 10_000, 100_000, 1_000_000 }) {
+            CrdtDocument doc = buildEditTrace(size);
+            String before = doc.render();
+            int nodesBefore = doc.getNodeCount();
+            int tombstonesBefore = doc.getTombstoneCount();
+            long heapBefore = usedHeap();
+
+            long start = System.nanoTime();
+            int collected = doc.collectGarbage(VersionVector.of(Map.of(doc.getSiteId(), Integer.MAX_VALUE - 1)));
+            long end = System.nanoTime();
+
+            long heapAfter = usedHeap();
+            if (!before.equals(doc.render())) throw new AssertionError("GC changed visible text");
+            int remembered = doc.getCollectedNodeCount();
+
+            // nächste Runde mit weitergerücktem Vektor: die Einträge des ersten Laufs fallen weg
+            doc.collectGarbage(VersionVector.of(Map.of(doc.getSiteId(), Integer.MAX_VALUE)));
+            long heapAfterDrop = usedHeap();
+
+            System.out.printf(Locale.ROOT,
+                    "%-38s n=%8d | nodes %8d -> %8d (tombstones %8d, collected %8d) | heap %7.1f MB -> %7.1f MB | gc %.2f ms%n",
+                    "collectGarbage() edit trace", size, nodesBefore, doc.getNodeCount(), tombstonesBefore, collected,
+                    heapBefore / 1_048_576.0, heapAfter / 1_048_576.0, nanosToMs(end - start));
+            System.out.printf(Locale.ROOT,
+                    "%-38s n=%8d | collected ids %8d -> %8d | heap %7.1f MB%n",
+                    "collectGarbage() next stable round", size, remembered, doc.getCollectedNodeCount(),
+                    heapAfterDrop / 1_048_576.0);
+        }
+    }
+
+    // -------------- Log compaction ----------------
+
+    @Test
+    void benchmarkLogCompaction() {
+        for (int size : new int[] { 100_000, 1_000_000 }) {
+            List<CrdtOperation> ops = generateRandomInsertOps(NUM_SITES, size, RANDOM_SEED);
+            long heapEmpty = usedHeap();
+
+            CrdtDocument doc = (CrdtDocument) Document.fromLog(ops);
+            ops = null; // nur noch das Dokument hält die Ops
+            long heapWithLog = usedHeap();
+
+            long start = System.nanoTime();
+            doc.compactLog(doc.getRevision());
+            long end = System.nanoTime();
+            long heapCompacted = usedHeap();
+
+            System.out.printf(Locale.ROOT,
+                    "%-38s n=%8d | heap with log %7.1f MB -> compacted %7.1f MB | compact %.2f ms%n",
+                    "compactLog() fromLog document", size,
+                    (heapWithLog - heapEmpty) / 1_048_576.0, (heapCompacted - heapEmpty) / 1_048_576.0, nanosToMs(end - start));
+            if (doc.getOperationsSince(doc.getBaselineRevision()).size() != 0) throw new AssertionError("log not compacted");
+        }
+    }
+
+    // -------------- Concurrent reads ----------------
+
+    // Ein Writer tippt fortlaufend, die Reader lösen Anker auf und lesen Zeichen.
+    // Vergleich: ein grober Lock um alles vs. ConcurrentDocument (optimistische Reads)
+    private long[] runReadWriteMix(Document doc, Object coarseLock, int readerThreads, long durationMs)
+            throws InterruptedException {
+        SiteState site = new SiteState(UUID.randomUUID());
+        CrdtNodeId first = site.nextNodeId();
+        Runnable insertFirst = () -> doc.apply(new CrdtInsertOp(rootId(), first, 'a'));
+        if (coarseLock != null) synchronized (coarseLock) { insertFirst.run(); } else insertFirst.run();
+        Anchor anchor = doc.createAnchor(1, Gravity.LEFT);
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        LongAdder reads = new LongAdder();
+        long[] writes = new long[1];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readerThreads; r++) {
+            threads.add(new Thread(() -> {
+                Random random = new Random();
+                while (!stop.get()) {
+                    if (coarseLock != null) {
+                        synchronized (coarseLock) {
+                            doc.resolveAnchor(anchor);
+                            doc.charAt(random.nextInt(doc.length(OffsetUnit.UTF16)));
+                        }
+                    } else {
+                        doc.resolveAnchor(anchor);
+                        doc.charAt(random.nextInt(doc.length(OffsetUnit.UTF16)));
+                    }
+                    reads.increment();
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            CrdtNodeId parent = first;
+            while (!stop.get()) {
+                CrdtNodeId id = site.nextNodeId();
+                CrdtInsertOp op = new CrdtInsertOp(parent, id, 'b');
+                if (coarseLock != null) synchronized (coarseLock) { doc.apply(op); } else doc.apply(op);
+                parent = id;
+                writes[0]++;
+            }
+        }));
+
+        threads.forEach(Thread::start);
+        Thread.sleep(durationMs);
+        stop.set(true);
+        for (Thread thread : threads) thread.join();
+
+        return new long[] { reads.sum(), writes[0] };
+    }
+
+    @Test
+    void benchmarkConcurrentReadWriteThroughput() throws InterruptedException {
+        long durationMs = 2_000;
+        for (int readers : new int[] { 1, 2, 4, 8 }) {
+            runReadWriteMix(new ConcurrentDocument(Document.create()), null, readers, WARMUP_TIME_MS);
+
+            long[] coarse = runReadWriteMix(Document.create(), new Object(), readers, durationMs);
+            ConcurrentDocument concurrentDoc = new ConcurrentDocument(Document.create());
+            long[] optimistic = runReadWriteMix(concurrentDoc, null, readers, durationMs);
+
+            System.out.printf(Locale.ROOT,
+                    "%-38s readers=%d | coarse lock: %9.0f reads/s %8.0f writes/s | optimistic: %9.0f reads/s %8.0f writes/s (retried %.2f%%)%n",
+                    "read/write mix 1 writer", readers,
+                    coarse[0] * 1000.0 / durationMs, coarse[1] * 1000.0 / durationMs,
+                    optimistic[0] * 1000.0 / durationMs, optimistic[1] * 1000.0 / durationMs,
+                    100.0 * concurrentDoc.getOptimisticReadFailureCount() / Math.max(1, concurrentDoc.getOptimisticReadCount()));
+        }
+    }
 }
@@ -0,0 +1,208 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncChangeDispatcherTest {
+
+    // Executor, der Tasks erst auf Anfrage ausführt -> deterministische Tests
+    private static class ManualExecutor implements Executor {
+        final Deque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = poll()) != null) task.run();
+        }
+
+        private synchronized Runnable poll() {
+            return tasks.poll();
+        }
+    }
+
+    private static <T extends CrdtOperation> void applyUserOp(Document document, UserOperation<T> op) {
+        op.transformToInternal(document).forEach(document::apply);
+    }
+
+    @Test
+    void burstOfSingleCharOps_isCoalescedIntoRangeEvents() {
+        Document document = Document.create();
+        ManualExecutor executor = new ManualExecutor();
+        List<DocumentChangeEvent> events = new ArrayList<>();
+        AsyncChangeDispatcher dispatcher = new AsyncChangeDispatcher(events::add, executor, Duration.ofMinutes(1), 100);
+        document.registerDocumentChangedListener(dispatcher);
+
+        applyUserOp(document, OperationFactory.createInsertOp(0, "hello world"));
+        applyUserOp(document, OperationFactory.createDeleteOp(5, 11));
+        assertTrue(events.isEmpty());
+        assertEquals(2, dispatcher.getPendingEventCount());
+
+        executor.runAll();
+
+        assertEquals(2, events.size());
+        assertEquals("hello world", events.get(0).text());
+        assertEquals(0, events.get(0).visibleIndex());
+        assertEquals(DocumentChangeEvent.DocumentChangeEventType.DELETE, events.get(1).eventType());
+        assertEquals(5, events.get(1).visibleIndex());
+        assertEquals(6, events.get(1).length());
+        assertEquals(document.getRevision(), events.get(1).revision());
+        assertEquals(17, dispatcher.getReceivedEventCount());
+        assertEquals(2, dispatcher.getDeliveredEventCount());
+    }
+
+    @Test
+    void coalescedEvents_replayedOnMirror_matchRender() {
+        Document document = Document.create();
+        ManualExecutor executor = new ManualExecutor();
+        StringBuilder mirror = new StringBuilder();
+        document.registerDocumentChangedListener(new AsyncChangeDispatcher(event -> {
+            switch (event.eventType()) {
+                case INSERT -> mirror.insert(event.visibleIndex(), event.text());
+                case DELETE -> mirror.delete(event.visibleIndex(), event.visibleIndex() + event.length());
+            }
+        }, executor, Duration.ofMinutes(1), 1000));
+
+        applyUserOp(document, OperationFactory.createInsertOp(0, "abcdef"));
+        for (int i = 0; i < 3; i++) applyUserOp(document, OperationFactory.createInsertOp(2, "X")); // fester Cursor
+        for (int i = 5; i > 2; i--) applyUserOp(document, OperationFactory.createDeleteOp(i - 1, i)); // Backspace
+        executor.runAll();
+
+        assertEquals(document.render(), mirror.toString());
+    }
+
+    @Test
+    void slowListener_doesNotStallIngest() throws Exception {
+        Document document = Document.create();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        List<DocumentChangeEvent> events = new CopyOnWriteArrayList<>();
+
+        AsyncChangeDispatcher dispatcher = new AsyncChangeDispatcher(event -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+        }, executor, Duration.ofMinutes(1), 10);
+        document.registerDocumentChangedListener(dispatcher);
+
+        try {
+            applyUserOp(document, OperationFactory.createInsertOp(0, "x".repeat(10_000)));
+            assertEquals(10_000, document.render().length());
+
+            release.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            assertEquals(10_000, events.stream().mapToInt(DocumentChangeEvent::length).sum());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void fullQueue_isReplacedByResync_withoutBlockingTheProducer() {
+        Document document = Document.create();
+        ManualExecutor executor = new ManualExecutor();
+        StringBuilder mirror = new StringBuilder();
+        List<DocumentChangeEvent> events = new ArrayList<>();
+        AsyncChangeDispatcher dispatcher = new AsyncChangeDispatcher(event -> {
+            events.add(event);
+            switch (event.eventType()) {
+                case INSERT -> mirror.insert(event.visibleIndex(), event.text());
+                case DELETE -> mirror.delete(event.visibleIndex(), event.visibleIndex() + event.length());
+                case RESYNC -> mirror.replace(0, mirror.length(), document.render());
+            }
+        }, executor, Duration.ZERO, 2);
+        document.registerDocumentChangedListener(dispatcher);
+
+        // ohne Coalescing passen nur zwei Events in die Queue, der Rest wird zum Resync
+        applyUserOp(document, OperationFactory.createInsertOp(0, "abcdef"));
+        assertEquals(1, dispatcher.getPendingEventCount());
+        assertEquals(1, dispatcher.getResyncCount());
+
+        executor.runAll();
+        assertEquals(1, events.size());
+        assertEquals(DocumentChangeEvent.DocumentChangeEventType.RESYNC, events.get(0).eventType());
+        assertEquals(document.getRevision(), events.get(0).revision());
+        assertEquals("abcdef", mirror.toString());
+
+        // danach wieder einzelne Events
+        applyUserOp(document, OperationFactory.createDeleteOp(0, 1));
+        executor.runAll();
+        assertEquals(DocumentChangeEvent.DocumentChangeEventType.DELETE, events.get(1).eventType());
+        assertEquals(document.render(), mirror.toString());
+    }
+
+    @Test
+    void zeroWindow_neverCoalesces() {
+        ManualExecutor executor = new ManualExecutor();
+        List<DocumentChangeEvent> events = new ArrayList<>();
+        AsyncChangeDispatcher dispatcher = new AsyncChangeDispatcher(events::add, executor, Duration.ZERO, 100);
+
+        // würde vorwärts getippt verschmelzen, auch bei gleicher nanoTime nicht
+        dispatcher.onDocumentChanged(DocumentChangeEvent.insert(0, "a", null, 1));
+        dispatcher.onDocumentChanged(DocumentChangeEvent.insert(1, "b", null, 2));
+        assertEquals(2, dispatcher.getPendingEventCount());
+
+        executor.runAll();
+        assertEquals(List.of("a", "b"), events.stream().map(DocumentChangeEvent::text).toList());
+    }
+
+    @Test
+    void listenerError_doesNotStopDelivery() {
+        ManualExecutor executor = new ManualExecutor();
+        List<DocumentChangeEvent> events = new ArrayList<>();
+        AsyncChangeDispatcher dispatcher = new AsyncChangeDispatcher(event -> {
+            if (event.revision() == 1) throw new AssertionError("listener bug");
+            events.add(event);
+        }, executor, Duration.ZERO, 100);
+
+        dispatcher.onDocumentChanged(DocumentChangeEvent.insert(0, "a", null, 1));
+        dispatcher.onDocumentChanged(DocumentChangeEvent.insert(5, "b", null, 2));
+        assertThrows(AssertionError.class, executor::runAll);
+
+        // der Rest läuft in einem neuen Task weiter
+        executor.runAll();
+        assertEquals(1, events.size());
+        dispatcher.onDocumentChanged(DocumentChangeEvent.insert(9, "c", null, 3));
+        executor.runAll();
+        assertEquals(2, events.size());
+        assertEquals(0, dispatcher.getPendingEventCount());
+    }
+
+    @Test
+    void directExecutor_doesNotDeliverUnderTheLock() throws Exception {
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            List<Integer> seenPending = new ArrayList<>();
+            AsyncChangeDispatcher[] dispatcher = new AsyncChangeDispatcher[1];
+            dispatcher[0] = new AsyncChangeDispatcher(event -> {
+                // ein anderer Thread fragt den Dispatcher ab, während der Listener läuft
+                try {
+                    seenPending.add(other.submit(dispatcher[0]::getPendingEventCount).get(10, TimeUnit.SECONDS));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, Runnable::run, Duration.ZERO, 100);
+
+            dispatcher[0].onDocumentChanged(DocumentChangeEvent.insert(0, "a", null, 1));
+            assertEquals(List.of(0), seenPending);
+        } finally {
+            other.shutdownNow();
+        }
+    }
+}
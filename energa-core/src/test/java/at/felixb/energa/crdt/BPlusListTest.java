@@ -3,8 +3,16 @@ package at.felixb.energa.crdt;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.StreamSupport;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -131,4 +139,319 @@ class BPlusListTest {
         assertThrows(IndexOutOfBoundsException.class, () -> list.get(2));
         assertThrows(IndexOutOfBoundsException.class, () -> list.get(5));
     }
+
+    @Test
+    void bulkLoad_matchesSequentialAdd() {
+        for (int n : new int[]{1, 5, 6, 37, 1000}) {
+            BPlusList<Integer> bulk = new BPlusList<>(3);
+            BPlusList<Integer> sequential = new BPlusList<>(3);
+
+            List<Integer> values = new ArrayList<>();
+            for (int i = 0; i < n; i++) values.add(i);
+
+            bulk.bulkLoad(values, v -> v % 3 != 0);
+            sequential.addAll(values);
+            // IdentityHashMap intern -> dieselben Integer-Instanzen verwenden
+            for (int i = 0; i < n; i += 3) sequential.setVisible(values.get(i), false);
+
+            bulk.validate();
+            assertEquals(sequential.toList(), bulk.toList());
+            assertEquals(sequential.toVisibleList(), bulk.toVisibleList());
+            for (Integer v : values) {
+                assertEquals(sequential.indexOf(v), bulk.indexOf(v));
+                assertEquals(sequential.indexOfVisible(v), bulk.indexOfVisible(v));
+            }
+
+            // weitere Inserts nach dem Bulk-Load
+            Integer inserted = -1;
+            bulk.add(n / 2, inserted);
+            bulk.validate();
+            assertEquals(n / 2, bulk.indexOf(inserted));
+        }
+    }
+
+    @Test
+    void bulkLoad_onNonEmptyList_throws() {
+        BPlusList<Integer> list = new BPlusList<>(3);
+        list.add(1);
+
+        assertThrows(IllegalStateException.class, () -> list.bulkLoad(List.of(2, 3), v -> true));
+    }
+
+    @Test
+    void remove_randomPositions_matchesArrayListBehaviour() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        List<Integer> arrayList = new ArrayList<>();
+        Random rnd = new Random(7);
+
+        for (int i = 0; i < 3000; i++) {
+            Integer value = i; // eigene Instanz, IdentityHashMap intern
+            int index = arrayList.isEmpty() ? 0 : rnd.nextInt(arrayList.size() + 1);
+            bplus.add(index, value);
+            arrayList.add(index, value);
+            if (rnd.nextInt(4) == 0) bplus.setVisible(value, false);
+        }
+
+        while (!arrayList.isEmpty()) {
+            int count = Math.min(arrayList.size(), 1 + rnd.nextInt(40));
+            for (int i = 0; i < count; i++) {
+                Integer value = arrayList.remove(rnd.nextInt(arrayList.size()));
+                assertTrue(bplus.remove(value));
+                assertFalse(bplus.remove(value));
+            }
+
+            bplus.validate();
+            assertEquals(arrayList, bplus.toList());
+            if (!arrayList.isEmpty()) {
+                Integer probe = arrayList.get(rnd.nextInt(arrayList.size()));
+                assertEquals(arrayList.indexOf(probe), bplus.indexOf(probe));
+            }
+        }
+
+        assertTrue(bplus.isEmpty());
+        assertEquals(0, bplus.visibleSize());
+    }
+
+    @Test
+    void forEachLeafChunk_recomputesOnlyChangedLeaves() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(i);
+            bplus.add(values.get(i));
+        }
+        bplus.setVisible(values.get(500), false);
+
+        int[] computed = new int[1];
+        BiFunction<List<Integer>, BitSet, List<Integer>> chunkOf = (leafValues, visibleBits) -> {
+            computed[0]++;
+            return visibleBits.stream().mapToObj(leafValues::get).toList();
+        };
+
+        List<Integer> all = new ArrayList<>();
+        bplus.forEachLeafChunk(chunkOf, all::addAll);
+        assertEquals(bplus.toVisibleList(), all);
+        int leafCount = computed[0];
+
+        // unverändert -> alles aus dem Cache
+        computed[0] = 0;
+        bplus.forEachLeafChunk(chunkOf, chunk -> { });
+        assertEquals(0, computed[0]);
+
+        // eine Sichtbarkeitsänderung -> genau ein Blatt neu
+        bplus.setVisible(values.get(10), false);
+        all.clear();
+        bplus.forEachLeafChunk(chunkOf, all::addAll);
+        assertEquals(1, computed[0]);
+        assertEquals(bplus.toVisibleList(), all);
+
+        // Einfügen mit Split und Entfernen mit Merge halten den Cache konsistent
+        computed[0] = 0;
+        Integer extra = 5000;
+        bplus.add(700, extra);
+        bplus.remove(values.get(300));
+        all.clear();
+        bplus.forEachLeafChunk(chunkOf, all::addAll);
+        assertTrue(computed[0] < leafCount);
+        assertEquals(bplus.toVisibleList(), all);
+    }
+
+    @Test
+    void forEachVisibleRange_matchesSubListOfVisibleList() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        Random rnd = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            Integer value = i;
+            bplus.add(value);
+            if (rnd.nextInt(3) == 0) bplus.setVisible(value, false);
+        }
+        List<Integer> visible = bplus.toVisibleList();
+
+        for (int i = 0; i < 200; i++) {
+            int from = rnd.nextInt(visible.size() + 1);
+            int to = from + rnd.nextInt(visible.size() - from + 1);
+
+            List<Integer> range = new ArrayList<>();
+            bplus.forEachVisible(from, to, range::add);
+            assertEquals(visible.subList(from, to), range);
+        }
+
+        assertThrows(IndexOutOfBoundsException.class, () -> bplus.forEachVisible(-1, 2, v -> { }));
+        assertThrows(IndexOutOfBoundsException.class, () -> bplus.forEachVisible(0, visible.size() + 1, v -> { }));
+        assertThrows(IndexOutOfBoundsException.class, () -> bplus.forEachVisible(5, 4, v -> { }));
+    }
+
+    @Test
+    void visibleCursor_randomAndSequentialReads_matchGetVisible() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        Random rnd = new Random(5);
+        for (int i = 0; i < 3000; i++) {
+            Integer value = i;
+            bplus.add(value);
+            if (rnd.nextInt(4) == 0) bplus.setVisible(value, false);
+        }
+        List<Integer> visible = bplus.toVisibleList();
+
+        BPlusList<Integer>.VisibleCursor cursor = bplus.visibleCursor();
+        for (int i = 0; i < visible.size(); i++) {
+            assertSame(visible.get(i), cursor.get(i));
+        }
+        for (int i = visible.size() - 1; i >= 0; i -= 7) {
+            assertSame(visible.get(i), cursor.get(i));
+        }
+        for (int i = 0; i < 500; i++) {
+            int index = rnd.nextInt(visible.size());
+            assertSame(visible.get(index), cursor.copy().get(index));
+        }
+
+        bplus.setVisible(visible.get(0), false);
+        assertThrows(ConcurrentModificationException.class, () -> cursor.get(0));
+    }
+
+    @Test
+    void forEachLeafChunkParallel_placesEveryChunkAtItsVisibleOffset() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        Random rnd = new Random(9);
+        for (int i = 0; i < 50_000; i++) {
+            Integer value = i;
+            bplus.add(value);
+            if (rnd.nextInt(3) == 0) bplus.setVisible(value, false);
+        }
+        List<Integer> visible = bplus.toVisibleList();
+
+        Integer[] placed = new Integer[visible.size()];
+        BiFunction<List<Integer>, BitSet, List<Integer>> chunkOf =
+                (leafValues, visibleBits) -> visibleBits.stream().mapToObj(leafValues::get).toList();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            bplus.forEachLeafChunkParallel(chunkOf, (chunk, offset) -> {
+                for (int i = 0; i < chunk.size(); i++) placed[offset + i] = chunk.get(i);
+            }, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(visible, Arrays.asList(placed));
+
+        // die Chunks sind danach auch für den sequentiellen Durchlauf gecacht
+        int[] computed = new int[1];
+        bplus.forEachLeafChunk((leafValues, visibleBits) -> {
+            computed[0]++;
+            return List.of();
+        }, chunk -> { });
+        assertEquals(0, computed[0]);
+    }
+
+    @Test
+    void visibleSpliterator_splitsWithExactSizes() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        Random rnd = new Random(13);
+        for (int i = 0; i < 20_000; i++) {
+            Integer value = i;
+            bplus.add(value);
+            if (rnd.nextInt(4) == 0) bplus.setVisible(value, false);
+        }
+        List<Integer> visible = bplus.toVisibleList();
+
+        assertEquals(visible, StreamSupport.stream(bplus.visibleSpliterator(), false).toList());
+        assertEquals(visible, StreamSupport.stream(bplus.visibleSpliterator(), true).toList());
+
+        // Präfix abspalten, Größen addieren sich exakt
+        Spliterator<Integer> suffix = bplus.visibleSpliterator();
+        assertTrue(suffix.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        List<Integer> collected = new ArrayList<>();
+        suffix.tryAdvance(collected::add);
+        Spliterator<Integer> prefix = suffix.trySplit();
+        assertEquals(visible.size() - 1, prefix.estimateSize() + suffix.estimateSize());
+
+        prefix.tryAdvance(collected::add);
+        prefix.forEachRemaining(collected::add);
+        suffix.forEachRemaining(collected::add);
+        assertEquals(visible, collected);
+        assertFalse(suffix.tryAdvance(collected::add));
+
+        Spliterator<Integer> stale = bplus.visibleSpliterator();
+        bplus.setVisible(visible.get(0), false);
+        assertThrows(ConcurrentModificationException.class, () -> stale.tryAdvance(v -> { }));
+    }
+
+    @Test
+    void spliterator_overAllValues_matchesToList() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        Random rnd = new Random(17);
+        List<Integer> reference = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            Integer value = i;
+            int index = rnd.nextInt(reference.size() + 1);
+            bplus.add(index, value);
+            reference.add(index, value);
+            if (rnd.nextInt(4) == 0) bplus.setVisible(value, false); // zählt trotzdem mit
+        }
+
+        assertEquals(reference, StreamSupport.stream(bplus.spliterator(), false).toList());
+        assertEquals(reference, StreamSupport.stream(bplus.spliterator(), true).toList());
+
+        // mitten im Durchlauf teilen
+        Spliterator<Integer> suffix = bplus.spliterator();
+        List<Integer> collected = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) suffix.tryAdvance(collected::add);
+        Spliterator<Integer> prefix = suffix.trySplit();
+        assertEquals(reference.size() - 1_000, prefix.estimateSize() + suffix.estimateSize());
+        prefix.forEachRemaining(collected::add);
+        suffix.forEachRemaining(collected::add);
+        assertEquals(reference, collected);
+
+        assertEquals(0, new BPlusList<Integer>(3).spliterator().estimateSize());
+        assertFalse(new BPlusList<Integer>(3).spliterator().tryAdvance(v -> { }));
+    }
+
+    @Test
+    void summaries_matchNaiveSumsUnderRandomMutations() {
+        BPlusList<Integer> bplus = new BPlusList<>(3);
+        int evens = bplus.registerSummary(v -> v % 2 == 0 ? 1 : 0);
+        int weights = -1;
+        List<Integer> reference = new ArrayList<>();
+        Random rnd = new Random(3);
+
+        for (int step = 0; step < 4000; step++) {
+            // zweite Summary auf bereits gefüllter Liste registrieren
+            if (step == 1000) weights = bplus.registerSummary(v -> v % 5);
+
+            int action = rnd.nextInt(10);
+            if (action < 6 || reference.isEmpty()) {
+                Integer value = step;
+                int index = rnd.nextInt(reference.size() + 1);
+                bplus.add(index, value);
+                reference.add(index, value);
+            } else if (action < 9) {
+                Integer value = reference.get(rnd.nextInt(reference.size()));
+                bplus.setVisible(value, !bplus.isVisible(value));
+            } else {
+                bplus.remove(reference.remove(rnd.nextInt(reference.size())));
+            }
+        }
+        bplus.validate();
+
+        List<Integer> visible = bplus.toVisibleList();
+        assertSummaryConsistent(bplus, evens, visible, v -> v % 2 == 0 ? 1 : 0);
+        assertSummaryConsistent(bplus, weights, visible, v -> v % 5);
+    }
+
+    private static void assertSummaryConsistent(BPlusList<Integer> bplus, int summary, List<Integer> visible,
+                                                ToLongFunction<Integer> measure) {
+        long before = 0;
+        for (int i = 0; i < visible.size(); i++) {
+            assertEquals(before, bplus.summaryBefore(summary, i));
+            long m = measure.applyAsLong(visible.get(i));
+            // jede Einheit des Elements findet zurück auf seinen Index
+            for (long unit = before; unit < before + m; unit++) {
+                assertEquals(i, bplus.seekSummary(summary, unit));
+            }
+            before += m;
+        }
+        assertEquals(before, bplus.summaryBefore(summary, visible.size()));
+        assertEquals(before, bplus.summaryTotal(summary));
+        long total = before;
+        assertThrows(IndexOutOfBoundsException.class, () -> bplus.seekSummary(summary, total));
+    }
 }
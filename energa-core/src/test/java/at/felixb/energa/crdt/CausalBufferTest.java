@@ -0,0 +1,137 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CausalBufferTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static CrdtNodeId nodeId(int counter) {
+        return new CrdtNodeId(SITE, counter);
+    }
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    // Kette root -> 1 -> 2 -> ... -> n, jeweils Zeichen 'a'..'z'
+    private static List<CrdtInsertOp> chain(int n) {
+        List<CrdtInsertOp> ops = new ArrayList<>(n);
+        CrdtNodeId parent = rootId();
+        for (int i = 1; i <= n; i++) {
+            CrdtNodeId id = nodeId(i);
+            ops.add(new CrdtInsertOp(parent, id, (char) ('a' + (i - 1) % 26)));
+            parent = id;
+        }
+        return ops;
+    }
+
+    @Test
+    void reverseOrderChain_isReleasedWithoutStackOverflow() {
+        int n = 200_000;
+        List<CrdtInsertOp> ops = chain(n);
+
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        for (int i = n - 1; i >= 1; i--) {
+            doc.apply(ops.get(i));
+        }
+        assertEquals(n - 1, doc.getPendingOpCount());
+        assertEquals("", doc.render());
+
+        doc.apply(ops.get(0));
+
+        assertEquals(0, doc.getPendingOpCount());
+
+        String text = doc.render();
+        assertEquals(n, text.length());
+        assertEquals("abcdefghijklmnopqrstuvwxyz", text.substring(0, 26));
+    }
+
+    @Test
+    void pendingDelete_isAppliedOnceTargetArrives() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        List<CrdtInsertOp> ops = chain(3);
+
+        doc.apply(new CrdtDeleteOp(nodeId(2)));
+        doc.apply(ops.get(2));
+        doc.apply(ops.get(1));
+        assertEquals(3, doc.getPendingOpCount());
+
+        doc.apply(ops.get(0));
+
+        assertEquals(0, doc.getPendingOpCount());
+        assertEquals("ac", doc.render());
+    }
+
+    @Test
+    void stats_reportCountAndAge() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        assertEquals(0, doc.getPendingOpCount());
+        assertEquals(Duration.ZERO, doc.getOldestPendingOpAge());
+
+        doc.apply(chain(2).get(1));
+
+        assertEquals(1, doc.getPendingOpCount());
+        assertFalse(doc.getOldestPendingOpAge().isNegative());
+    }
+
+    @Test
+    void rejectPolicy_throwsAndLeavesDocumentUnchanged() {
+        CrdtDocument doc = (CrdtDocument) Document.create(
+                CausalBufferPolicy.bounded(2, CausalBufferPolicy.OverflowStrategy.REJECT));
+        List<CrdtInsertOp> ops = chain(4);
+
+        doc.apply(ops.get(3));
+        doc.apply(ops.get(2));
+        long revision = doc.getRevision();
+
+        assertThrows(IllegalStateException.class, () -> doc.apply(ops.get(1)));
+        assertEquals(revision, doc.getRevision());
+        assertEquals(2, doc.getPendingOpCount());
+
+        // non-pending ops are still accepted
+        doc.apply(ops.get(0));
+        assertEquals("a", doc.render());
+    }
+
+    @Test
+    void dropOldestPolicy_evictsLongestWaitingOp() {
+        CrdtDocument doc = (CrdtDocument) Document.create(
+                CausalBufferPolicy.bounded(2, CausalBufferPolicy.OverflowStrategy.DROP_OLDEST));
+        List<CrdtInsertOp> ops = chain(4);
+
+        doc.apply(ops.get(3)); // wird verdrängt
+        doc.apply(ops.get(2));
+        doc.apply(ops.get(1));
+
+        assertEquals(2, doc.getPendingOpCount());
+        assertEquals(1, doc.getDroppedPendingOpCount());
+
+        doc.apply(ops.get(0));
+        assertEquals("abc", doc.render());
+        assertEquals(0, doc.getPendingOpCount());
+    }
+
+    @Test
+    void dropNewestPolicy_discardsIncomingOp() {
+        CrdtDocument doc = (CrdtDocument) Document.create(
+                CausalBufferPolicy.bounded(1, CausalBufferPolicy.OverflowStrategy.DROP_NEWEST));
+        List<CrdtInsertOp> ops = chain(3);
+
+        doc.apply(ops.get(1));
+        doc.apply(ops.get(2)); // wird verworfen
+
+        assertEquals(1, doc.getPendingOpCount());
+        assertEquals(1, doc.getDroppedPendingOpCount());
+
+        doc.apply(ops.get(0));
+        assertEquals("ab", doc.render());
+    }
+}
@@ -0,0 +1,79 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkIndexTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static TextChunk chunk() {
+        return new TextChunk("", new CrdtNodeId[0], new BitSet());
+    }
+
+    @Test
+    void randomUpdates_matchHashMap_andOldVersionsStayUnchanged() {
+        Random random = new Random(42);
+        List<TextChunk> chunks = List.of(chunk(), chunk(), chunk(), chunk());
+
+        ChunkIndex index = ChunkIndex.EMPTY;
+        Map<CrdtNodeId, TextChunk> expected = new HashMap<>();
+        List<ChunkIndex> versions = new ArrayList<>();
+        List<Map<CrdtNodeId, TextChunk>> expectedVersions = new ArrayList<>();
+
+        for (int batch = 0; batch < 200; batch++) {
+            ChunkIndex.Update update = index.update();
+            for (int i = 0; i < 100; i++) {
+                CrdtNodeId id = new CrdtNodeId(SITE, random.nextInt(5_000));
+                TextChunk chunk = chunks.get(random.nextInt(chunks.size()));
+                if (random.nextInt(3) == 0) {
+                    update.remove(id);
+                    expected.remove(id);
+                } else {
+                    update.put(id, chunk);
+                    expected.put(id, chunk);
+                }
+            }
+            index = update.build();
+            versions.add(index);
+            expectedVersions.add(new HashMap<>(expected));
+        }
+
+        // jede Version sieht genau ihren Stand, auch nach späteren Updates
+        for (int v = 0; v < versions.size(); v += 20) {
+            for (int counter = 0; counter < 5_000; counter++) {
+                CrdtNodeId id = new CrdtNodeId(SITE, counter);
+                assertSame(expectedVersions.get(v).get(id), versions.get(v).get(id));
+            }
+        }
+    }
+
+    @Test
+    void updateAfterBuild_doesNotChangeTheBuiltIndex() {
+        TextChunk before = chunk();
+        TextChunk after = chunk();
+        CrdtNodeId id = new CrdtNodeId(SITE, 1);
+
+        ChunkIndex.Update update = ChunkIndex.EMPTY.update();
+        update.put(id, before);
+        ChunkIndex first = update.build();
+        update.put(id, after);
+        ChunkIndex second = update.build();
+        update.remove(id);
+        ChunkIndex third = update.build();
+
+        assertSame(before, first.get(id));
+        assertSame(after, second.get(id));
+        assertNull(third.get(id));
+        assertNull(ChunkIndex.EMPTY.get(id));
+    }
+}
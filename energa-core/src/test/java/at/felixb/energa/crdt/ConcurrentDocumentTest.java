@@ -0,0 +1,172 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentDocumentTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    @Test
+    void readsDuringWrites_seeConsistentStates() throws Exception {
+        ConcurrentDocument doc = new ConcurrentDocument(Document.create());
+        int n = 20_000;
+
+        // erstes Zeichen 'x', danach wird nur noch dahinter getippt
+        CrdtNodeId first = new CrdtNodeId(SITE, 1);
+        doc.apply(new CrdtInsertOp(rootId(), first, 'x'));
+        Anchor afterFirst = doc.createAnchor(1, Gravity.LEFT);
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                results.add(readers.submit(() -> {
+                    while (!done.get()) {
+                        assertEquals(1, doc.resolveAnchor(afterFirst));
+                        assertEquals('x', doc.charAt(0));
+                        int length = doc.length(OffsetUnit.UTF16);
+                        assertTrue(length >= 1 && length <= n);
+                        // nur angehängt -> eine einmal gesehene Zeile behält ihren Anfang
+                        int lastLine = doc.lineCount() - 1;
+                        assertEquals(lastLine, doc.lineOfOffset(doc.offsetOfLine(lastLine)));
+                    }
+                }));
+            }
+
+            CrdtNodeId parent = first;
+            for (int i = 2; i <= n; i++) {
+                CrdtNodeId id = new CrdtNodeId(SITE, i);
+                doc.apply(new CrdtInsertOp(parent, id, i % 50 == 0 ? '\n' : 'a'));
+                parent = id;
+            }
+            done.set(true);
+
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+
+        assertEquals(n, doc.render().length());
+        assertTrue(doc.getOptimisticReadCount() > 0);
+        assertTrue(doc.getOptimisticReadFailureCount() <= doc.getOptimisticReadCount());
+    }
+
+    @Test
+    void genuineErrors_arePropagated() {
+        ConcurrentDocument doc = new ConcurrentDocument(Document.create());
+        doc.apply(new CrdtInsertOp(rootId(), new CrdtNodeId(SITE, 1), 'a'));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> doc.charAt(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> doc.offsetOfLine(1));
+        assertEquals("a", doc.read(Document::render));
+    }
+
+    @Test
+    void listener_canReadAndWrite_duringApply() {
+        ConcurrentDocument doc = new ConcurrentDocument(Document.create());
+        List<String> seen = new ArrayList<>();
+        doc.registerDocumentChangedListener(event -> {
+            // liest über den Wrapper, das Write-Lock ist schon freigegeben
+            seen.add(doc.getRevision() + ":" + doc.render());
+            if (doc.getRevision() == 1) {
+                doc.apply(new CrdtInsertOp(new CrdtNodeId(SITE, 1), new CrdtNodeId(SITE, 2), 'b'));
+            }
+        });
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> doc.apply(new CrdtInsertOp(rootId(), new CrdtNodeId(SITE, 1), 'a')));
+
+        assertEquals(List.of("1:a", "2:ab"), seen);
+    }
+
+    @Test
+    void feedWithDirectExecutor_canReadDuringApply() {
+        ConcurrentDocument doc = new ConcurrentDocument(Document.create());
+        List<String> seen = new ArrayList<>();
+        doc.operationFeed(0, Runnable::run).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<CrdtOperation> item) {
+                seen.add(doc.getRevision() + ":" + doc.render());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                seen.add("error");
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> doc.apply(new CrdtInsertOp(rootId(), new CrdtNodeId(SITE, 1), 'a')));
+
+        assertEquals(List.of("1:a"), seen);
+    }
+
+    @Test
+    void feedWithRejectingExecutor_doesNotFailApply() {
+        ConcurrentDocument doc = new ConcurrentDocument(Document.create());
+        List<String> seen = new ArrayList<>();
+        AtomicBoolean accepting = new AtomicBoolean(true);
+        doc.operationFeed(0, command -> {
+            if (!accepting.get()) throw new RejectedExecutionException("shut down");
+            command.run();
+        }).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<CrdtOperation> item) {
+                seen.add(doc.getRevision() + ":" + doc.render());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                seen.add(throwable.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        doc.apply(new CrdtInsertOp(rootId(), new CrdtNodeId(SITE, 1), 'a'));
+        accepting.set(false);
+        // die Ablehnung kommt erst nach dem Write-Lock, darf aber trotzdem nicht aus apply() fliegen
+        assertDoesNotThrow(() -> doc.apply(new CrdtInsertOp(new CrdtNodeId(SITE, 1), new CrdtNodeId(SITE, 2), 'b')));
+        doc.apply(new CrdtInsertOp(new CrdtNodeId(SITE, 2), new CrdtNodeId(SITE, 3), 'c'));
+
+        assertEquals(List.of("1:a", "RejectedExecutionException"), seen);
+        assertEquals("abc", doc.render());
+    }
+}
@@ -3,8 +3,16 @@ package at.felixb.energa.crdt;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -190,4 +198,222 @@ class CrdtDocumentTest {
         applyUserOp(OperationFactory.createInsertOp(0, "Say: "));
         assertEquals("Say: Hello, CRDT", document.render());
     }
+
+    @Test
+    void changeEvents_carryPositionContentOriginAndRevision() {
+        List<DocumentChangeEvent> events = new ArrayList<>();
+        document.registerDocumentChangedListener(events::add);
+
+        applyUserOp(OperationFactory.createInsertOp(0, "ac"));
+        applyUserOp(OperationFactory.createInsertOp(1, "b"));
+        applyUserOp(OperationFactory.createDeleteOp(0, 1));
+
+        assertEquals(4, events.size());
+        DocumentChangeEvent insertB = events.get(2);
+        assertEquals(DocumentChangeEvent.DocumentChangeEventType.INSERT, insertB.eventType());
+        assertEquals(1, insertB.visibleIndex());
+        assertEquals("b", insertB.text());
+        assertEquals(document.getSiteId(), insertB.originSiteId());
+        assertEquals(3, insertB.revision());
+
+        DocumentChangeEvent deleteA = events.get(3);
+        assertEquals(DocumentChangeEvent.DocumentChangeEventType.DELETE, deleteA.eventType());
+        assertEquals(0, deleteA.visibleIndex());
+        assertEquals(1, deleteA.length());
+        assertEquals(document.getSiteId(), deleteA.originSiteId());
+        assertEquals(document.getRevision(), deleteA.revision());
+    }
+
+    @Test
+    void changeEvents_replayedOnMirror_matchRender() {
+        StringBuilder mirror = new StringBuilder();
+        document.registerDocumentChangedListener(event -> {
+            switch (event.eventType()) {
+                case INSERT -> mirror.insert(event.visibleIndex(), event.text());
+                case DELETE -> mirror.delete(event.visibleIndex(), event.visibleIndex() + event.length());
+            }
+        });
+
+        applyUserOp(OperationFactory.createInsertOp(0, "hello world"));
+        applyUserOp(OperationFactory.createDeleteOp(2, 7));
+        applyUserOp(OperationFactory.createInsertOp(3, "XY"));
+        applyUserOp(OperationFactory.createDeleteOp(0, 1));
+
+        // doppeltes Delete einer bereits gelöschten Node -> kein Event
+        CrdtNode tombstone = ((CrdtDocument) document).getLinearOrder().get(0);
+        document.apply(new CrdtDeleteOp(tombstone.getNodeId()));
+
+        assertEquals(document.render(), mirror.toString());
+    }
+
+    @Test
+    void render_isCachedAndUpdatedOnEveryVisibleChange() {
+        applyUserOp(OperationFactory.createInsertOp(0, "hello"));
+        String first = document.render();
+        assertSame(first, document.render());
+
+        // Listener sehen den neuen Text schon während apply()
+        List<String> seenByListener = new ArrayList<>();
+        document.registerDocumentChangedListener(event -> seenByListener.add(document.render()));
+
+        applyUserOp(OperationFactory.createInsertOp(5, "!"));
+        applyUserOp(OperationFactory.createDeleteOp(0, 1));
+
+        assertEquals(List.of("hello!", "ello!"), seenByListener);
+        assertEquals("ello!", document.render());
+    }
+
+    @Test
+    void render_onPool_matchesSequentialRenderOfLargeDocument() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) expected.append((char) ('a' + i % 26));
+        applyUserOp(OperationFactory.createInsertOp(0, expected.toString()));
+        for (int from = 90_000; from > 0; from -= 10_000) {
+            applyUserOp(OperationFactory.createDeleteOp(from, from + 100));
+            expected.delete(from, from + 100);
+        }
+        applyUserOp(OperationFactory.createInsertOp(5, "\uD83D\uDE00"));
+        expected.insert(5, "\uD83D\uDE00");
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            String parallel = document.render(pool);
+            assertEquals(expected.toString(), parallel);
+            assertSame(parallel, document.render()); // derselbe Cache
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void streams_matchLinearOrderCopies() {
+        applyUserOp(OperationFactory.createInsertOp(0, "the quick brown fox"));
+        applyUserOp(OperationFactory.createDeleteOp(4, 10));
+        CrdtDocument crdt = (CrdtDocument) document;
+
+        assertEquals(crdt.getLinearOrder(), crdt.streamAll().toList());
+        assertEquals(crdt.getActiveOnlyLinearOrder(), crdt.streamVisible().toList());
+        assertEquals(document.render(), crdt.streamVisible().parallel()
+                .map(node -> String.valueOf(node.getCharacter()))
+                .collect(Collectors.joining()));
+
+        Stream<CrdtNode> stale = crdt.streamVisible();
+        applyUserOp(OperationFactory.createInsertOp(0, "!"));
+        assertThrows(ConcurrentModificationException.class, stale::toList);
+    }
+
+    @Test
+    void renderRangeAndCharAt_matchFullRender() {
+        applyUserOp(OperationFactory.createInsertOp(0, "the quick brown fox jumps over the lazy dog"));
+        applyUserOp(OperationFactory.createDeleteOp(4, 10));
+        applyUserOp(OperationFactory.createInsertOp(3, "XYZ"));
+
+        String text = document.render();
+        for (int from = 0; from <= text.length(); from += 3) {
+            for (int to = from; to <= text.length(); to += 5) {
+                assertEquals(text.substring(from, to), document.renderRange(from, to));
+            }
+        }
+        for (int i = 0; i < text.length(); i++) {
+            assertEquals(text.charAt(i), document.charAt(i));
+        }
+
+        // ohne gecachten Render-String über den Baum
+        applyUserOp(OperationFactory.createInsertOp(0, "<"));
+        assertEquals("<th", document.renderRange(0, 3));
+        assertEquals('<', document.charAt(0));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> document.charAt(document.render().length()));
+        assertThrows(IndexOutOfBoundsException.class, () -> document.renderRange(2, 1));
+    }
+
+    @Test
+    void asCharSequence_supportsRegexWithoutRendering() {
+        applyUserOp(OperationFactory.createInsertOp(0, "foo=1; bar=22; baz=333"));
+        applyUserOp(OperationFactory.createDeleteOp(0, 1));
+        String text = document.render();
+        applyUserOp(OperationFactory.createInsertOp(0, "x")); // Render-Cache verwerfen
+        text = "x" + text;
+
+        CharSequence view = document.asCharSequence();
+        assertFalse(view instanceof String);
+        assertEquals(text, view.toString());
+        assertEquals(text.substring(3, 9), view.subSequence(3, 9).toString());
+
+        Matcher matcher = Pattern.compile("(\\w+)=(\\d+)").matcher(view);
+        List<String> keys = new ArrayList<>();
+        while (matcher.find()) keys.add(matcher.group(1));
+        assertEquals(List.of("xoo", "bar", "baz"), keys);
+
+        applyUserOp(OperationFactory.createInsertOp(0, "!"));
+        assertThrows(ConcurrentModificationException.class, () -> view.charAt(0));
+    }
+
+    @Test
+    void lineIndex_followsInsertsAndDeletes() {
+        applyUserOp(OperationFactory.createInsertOp(0, "first\nsecond\n\nfourth"));
+
+        assertEquals(4, document.lineCount());
+        assertEquals(0, document.lineOfOffset(5));
+        assertEquals(1, document.lineOfOffset(6));
+        assertEquals(3, document.lineOfOffset(document.render().length()));
+        assertEquals(List.of(0, 6, 13, 14), List.of(document.offsetOfLine(0), document.offsetOfLine(1),
+                document.offsetOfLine(2), document.offsetOfLine(3)));
+
+        Anchor inFourth = document.createAnchor(16, Gravity.LEFT); // "fo|urth"
+        assertEquals(new LineColumn(3, 2), document.resolveAnchorToLineColumn(inFourth));
+
+        // erste Zeilenumbruch löschen -> Zeilen rücken nach
+        applyUserOp(OperationFactory.createDeleteOp(5, 6));
+        assertEquals("firstsecond\n\nfourth", document.render());
+        assertEquals(3, document.lineCount());
+        assertEquals(13, document.offsetOfLine(2));
+        assertEquals(new LineColumn(2, 2), document.resolveAnchorToLineColumn(inFourth));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> document.offsetOfLine(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> document.lineOfOffset(-1));
+    }
+
+    @Test
+    void offsetConversion_matchesEncodedText() {
+        String text = "a\u00e4\u20ac\ud83d\ude00b\n\ud83d\ude80x";
+        applyUserOp(OperationFactory.createInsertOp(0, text));
+        applyUserOp(OperationFactory.createDeleteOp(0, 1)); // Tombstone am Anfang
+        text = text.substring(1);
+
+        assertEquals(text.length(), document.length(OffsetUnit.UTF16));
+        assertEquals(text.codePointCount(0, text.length()), document.length(OffsetUnit.CODE_POINT));
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, document.length(OffsetUnit.UTF8));
+
+        for (int i = 0; i <= text.length(); i++) {
+            // Position innerhalb eines Surrogatpaars -> Anfang des Paars
+            int start = i > 0 && i < text.length() && Character.isLowSurrogate(text.charAt(i)) ? i - 1 : i;
+            int bytes = text.substring(0, start).getBytes(StandardCharsets.UTF_8).length;
+            int codePoints = text.codePointCount(0, start);
+
+            assertEquals(bytes, document.convertOffset(i, OffsetUnit.UTF16, OffsetUnit.UTF8));
+            assertEquals(codePoints, document.convertOffset(i, OffsetUnit.UTF16, OffsetUnit.CODE_POINT));
+            assertEquals(start, document.convertOffset(bytes, OffsetUnit.UTF8, OffsetUnit.UTF16));
+            assertEquals(start, document.convertOffset(codePoints, OffsetUnit.CODE_POINT, OffsetUnit.UTF16));
+            assertEquals(bytes, document.convertOffset(codePoints, OffsetUnit.CODE_POINT, OffsetUnit.UTF8));
+        }
+
+        // Byte-Offset mitten im '€' (Bytes 2..4) -> Anfang des Zeichens
+        assertEquals(1, document.convertOffset(3, OffsetUnit.UTF8, OffsetUnit.UTF16));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> document.convertOffset(document.length(OffsetUnit.UTF8) + 1, OffsetUnit.UTF8, OffsetUnit.UTF16));
+    }
+
+    @Test
+    void anchors_acceptUtf8AndCodePointOffsets() {
+        applyUserOp(OperationFactory.createInsertOp(0, "\ud83d\ude00\u00e4bc"));
+
+        Anchor beforeB = document.createAnchor(6, OffsetUnit.UTF8, Gravity.RIGHT); // 4 + 2 Bytes
+        assertEquals(3, document.resolveAnchor(beforeB));
+        assertEquals(2, document.resolveAnchor(beforeB, OffsetUnit.CODE_POINT));
+
+        applyUserOp(OperationFactory.createInsertOp(0, "\u20ac"));
+        assertEquals(9, document.resolveAnchor(beforeB, OffsetUnit.UTF8));
+        assertEquals(3, document.resolveAnchor(beforeB, OffsetUnit.CODE_POINT));
+    }
 }
@@ -0,0 +1,170 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrdtForkTest {
+
+    private static final UUID SITE_ORIGIN = UUID.fromString("00000000-0000-0000-0000-0000000000A1");
+    private static final UUID SITE_FORK = UUID.fromString("00000000-0000-0000-0000-0000000000B1");
+
+    private final Random random = new Random(42);
+    private final Map<UUID, Integer> counters = new HashMap<>();
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    private CrdtNodeId nextId(UUID site) {
+        return new CrdtNodeId(site, counters.merge(site, 1, Integer::sum));
+    }
+
+    // zufällige Inserts/gestempelte Deletes der Site auf dem aktuellen Stand von doc
+    private List<CrdtOperation> randomOps(CrdtDocument doc, UUID site, int numOps) {
+        List<CrdtNodeId> existing = new ArrayList<>();
+        existing.add(rootId());
+        doc.getLinearOrder().forEach(node -> existing.add(node.getNodeId()));
+
+        List<CrdtOperation> ops = new ArrayList<>(numOps);
+        for (int i = 0; i < numOps; i++) {
+            if (existing.size() > 1 && random.nextInt(3) == 0) {
+                ops.add(new CrdtDeleteOp(existing.get(1 + random.nextInt(existing.size() - 1)), nextId(site)));
+            } else {
+                CrdtNodeId id = nextId(site);
+                ops.add(new CrdtInsertOp(existing.get(random.nextInt(existing.size())), id, (char) ('a' + random.nextInt(26))));
+                existing.add(id);
+            }
+        }
+        return ops;
+    }
+
+    @Test
+    void fork_hasSameState_andIsIndependent() {
+        CrdtDocument origin = (CrdtDocument) Document.create();
+        origin.applyAll(randomOps(origin, SITE_ORIGIN, 2_000));
+        String text = origin.render();
+        DocumentSnapshot snapshot = origin.snapshot();
+
+        CrdtDocument fork = origin.fork();
+
+        assertEquals(text, fork.render());
+        assertEquals(origin.getLinearOrder(), fork.getLinearOrder());
+        assertEquals(fork.traverse(), fork.getLinearOrder());
+        assertEquals(origin.getRevision(), fork.getRevision());
+        assertEquals(origin.getTombstoneCount(), fork.getTombstoneCount());
+        assertEquals(origin.lineCount(), fork.lineCount());
+        assertNotEquals(origin.getSiteId(), fork.getSiteId());
+        assertSame(snapshot, fork.getPublishedSnapshot()); // gleicher Inhalt, gleiche Revision
+
+        // Vorschau: Änderungen am Fork lassen das Original unberührt
+        fork.applyAll(randomOps(fork, SITE_FORK, 500));
+        fork.apply(new CrdtDeleteOp(fork.getLinearOrder().get(0).getNodeId()));
+        assertEquals(text, origin.render());
+        assertNotEquals(text, fork.render());
+        assertNotSame(origin.getLinearOrder().get(0), fork.getLinearOrder().get(0));
+    }
+
+    @Test
+    void forkSharesState_untilOneSideWrites() {
+        CrdtDocument origin = (CrdtDocument) Document.create();
+        origin.applyAll(randomOps(origin, SITE_ORIGIN, 1_000));
+        String text = origin.render();
+
+        CrdtDocument fork = origin.fork();
+        CrdtNode shared = origin.getLinearOrder().get(0);
+        assertSame(shared, fork.getLinearOrder().get(0)); // nichts kopiert
+
+        // das Original schreibt zuerst -> es kopiert, der Fork behält den geteilten Stand
+        origin.applyAll(randomOps(origin, SITE_ORIGIN, 200));
+        assertNotSame(shared, origin.getLinearOrder().get(0));
+        assertSame(shared, fork.getLinearOrder().get(0));
+        assertEquals(text, fork.render());
+
+        // danach gehört der Stand dem Fork allein und wird nicht mehr kopiert
+        fork.applyAll(randomOps(fork, SITE_FORK, 200));
+        assertSame(shared, fork.getLinearOrder().get(fork.getLinearOrder().indexOf(shared)));
+        assertEquals(fork.traverse(), fork.getLinearOrder());
+        assertEquals(origin.traverse(), origin.getLinearOrder());
+
+        String originText = origin.render();
+        CrdtDocument second = fork.fork();
+        second.apply(new CrdtDeleteOp(second.getActiveOnlyLinearOrder().get(0).getNodeId()));
+        assertEquals(originText, origin.render());
+        assertNotEquals(fork.render(), second.render());
+    }
+
+    @Test
+    void forkLog_startsAtForkRevision() {
+        CrdtDocument origin = (CrdtDocument) Document.create();
+        origin.applyAll(randomOps(origin, SITE_ORIGIN, 100));
+        long forkRevision = origin.getRevision();
+
+        CrdtDocument fork = origin.fork();
+        assertEquals(forkRevision, fork.getBaselineRevision());
+        assertEquals(List.of(), fork.getOperationsSince(forkRevision));
+        assertThrows(IllegalStateException.class, () -> fork.getOperationsSince(0));
+
+        List<CrdtOperation> branch = randomOps(fork, SITE_FORK, 10);
+        fork.applyAll(branch);
+        assertEquals(branch, fork.getOperationsSince(forkRevision));
+    }
+
+    @Test
+    void concurrentEdits_onForkAndOrigin_mergeBackAndConverge() {
+        CrdtDocument origin = (CrdtDocument) Document.create();
+        origin.applyAll(randomOps(origin, SITE_ORIGIN, 1_000));
+        long forkRevision = origin.getRevision();
+        CrdtDocument fork = origin.fork();
+
+        fork.applyAll(randomOps(fork, SITE_FORK, 300));
+        origin.applyAll(randomOps(origin, SITE_ORIGIN, 300));
+
+        // über den normalen Op-Strom in beide Richtungen
+        List<CrdtOperation> fromFork = fork.getOperationsSince(forkRevision);
+        List<CrdtOperation> fromOrigin = origin.getOperationsSince(forkRevision);
+        origin.applyAll(fromFork);
+        fork.applyAll(fromOrigin);
+
+        assertEquals(origin.render(), fork.render());
+        assertEquals(origin.getLinearOrder(), fork.getLinearOrder());
+        assertEquals(0, origin.getPendingOpCount());
+    }
+
+    @Test
+    void pendingOps_andCollectedNodes_areCarriedOver() {
+        CrdtDocument origin = (CrdtDocument) Document.create();
+        CrdtNodeId a = nextId(SITE_ORIGIN);
+        CrdtNodeId b = nextId(SITE_ORIGIN);
+        CrdtNodeId x = nextId(SITE_ORIGIN);
+        CrdtNodeId deleteStamp = nextId(SITE_ORIGIN);
+        origin.apply(new CrdtInsertOp(rootId(), a, 'A'));
+        origin.apply(new CrdtInsertOp(rootId(), x, 'X'));
+        origin.apply(new CrdtDeleteOp(x, deleteStamp));
+        assertEquals(1, origin.collectGarbage(VersionVector.of(Map.of(SITE_ORIGIN, Integer.MAX_VALUE))));
+        CrdtNodeId c = nextId(SITE_ORIGIN);
+        origin.apply(new CrdtInsertOp(b, c, 'C')); // b fehlt noch -> wartet
+
+        long forkRevision = origin.getRevision();
+        CrdtDocument fork = origin.fork();
+        assertEquals(1, fork.getPendingOpCount());
+        assertEquals(0, fork.getTombstoneCount());
+
+        fork.apply(new CrdtInsertOp(a, b, 'B'));
+        fork.apply(new CrdtInsertOp(x, nextId(SITE_ORIGIN), '!')); // Elter gesammelt -> hinter den Vorgänger
+        assertEquals("!ABC", fork.render());
+        assertEquals(0, fork.getPendingOpCount());
+        assertEquals(1, origin.getPendingOpCount());
+
+        origin.applyAll(fork.getOperationsSince(forkRevision));
+        assertEquals(fork.render(), origin.render());
+        assertEquals(0, origin.getPendingOpCount());
+    }
+}
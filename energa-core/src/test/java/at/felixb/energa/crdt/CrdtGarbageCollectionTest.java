@@ -0,0 +1,328 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrdtGarbageCollectionTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static CrdtNodeId nodeId(int counter) {
+        return new CrdtNodeId(SITE, counter);
+    }
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    private static VersionVector stableUpTo(int counter) {
+        return VersionVector.of(Map.of(SITE, counter));
+    }
+
+    // "ABCDE" als Kette 1..5, Deletes gestempelt mit 101..
+    private static CrdtDocument abcde() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        CrdtNodeId parent = rootId();
+        for (int i = 1; i <= 5; i++) {
+            doc.apply(new CrdtInsertOp(parent, nodeId(i), (char) ('A' + i - 1)));
+            parent = nodeId(i);
+        }
+        return doc;
+    }
+
+    private static void delete(CrdtDocument doc, int node, int stamp) {
+        doc.apply(new CrdtDeleteOp(nodeId(node), nodeId(stamp)));
+    }
+
+    @Test
+    void stableLeafTombstones_areCollectedBottomUp() {
+        CrdtDocument doc = abcde();
+        delete(doc, 4, 101);
+        delete(doc, 5, 102);
+
+        assertEquals(2, doc.collectGarbage(stableUpTo(102)));
+
+        assertEquals("ABC", doc.render());
+        assertEquals(3, doc.getNodeCount());
+        assertEquals(0, doc.getTombstoneCount());
+        assertEquals(List.of(nodeId(1), nodeId(2), nodeId(3)),
+                doc.getLinearOrder().stream().map(CrdtNode::getNodeId).toList());
+    }
+
+    @Test
+    void unstableDeletes_areKept() {
+        CrdtDocument doc = abcde();
+        delete(doc, 5, 101);
+        delete(doc, 4, 102);
+
+        // nur Delete 101 ist stabil -> 5 wird entfernt, 4 bleibt
+        assertEquals(1, doc.collectGarbage(stableUpTo(101)));
+        assertEquals(4, doc.getNodeCount());
+        assertEquals(1, doc.getTombstoneCount());
+
+        assertEquals(1, doc.collectGarbage(stableUpTo(102)));
+        assertEquals(3, doc.getNodeCount());
+    }
+
+    @Test
+    void tombstonesWithLiveChildren_areSplicedOut() {
+        CrdtDocument doc = abcde();
+        delete(doc, 2, 101);
+
+        assertEquals(1, doc.collectGarbage(stableUpTo(200)));
+        assertEquals("ACDE", doc.render());
+        assertEquals(List.of(nodeId(1), nodeId(3), nodeId(4), nodeId(5)),
+                doc.getLinearOrder().stream().map(CrdtNode::getNodeId).toList());
+        assertEquals(1, doc.resolveAnchor(new Anchor(nodeId(2), Gravity.LEFT)));
+    }
+
+    @Test
+    void deletedStartOfTypingChain_isCollectedCompletely() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        CrdtNodeId parent = rootId();
+        for (int i = 1; i <= 10_000; i++) {
+            doc.apply(new CrdtInsertOp(parent, nodeId(i), 'a'));
+            parent = nodeId(i);
+        }
+        for (int i = 1; i <= 9_000; i++) delete(doc, i, 10_000 + i);
+
+        assertEquals(9_000, doc.collectGarbage(stableUpTo(Integer.MAX_VALUE)));
+        assertEquals(1_000, doc.getNodeCount());
+        assertEquals("a".repeat(1_000), doc.render());
+
+        // Tippen geht hinter dem Rest ganz normal weiter
+        doc.apply(new CrdtInsertOp(nodeId(10_000), nodeId(30_001), 'b'));
+        assertEquals("a".repeat(1_000) + "b", doc.render());
+    }
+
+    @Test
+    void tombstoneWhoseChildrenWouldOvertakeASibling_isKept() {
+        CrdtDocument doc = (CrdtDocument) Document.fromLog(List.of(
+                new CrdtInsertOp(rootId(), nodeId(1), 'A'),
+                new CrdtInsertOp(nodeId(1), nodeId(2), 'X'),
+                new CrdtInsertOp(nodeId(1), nodeId(3), 'Y'),
+                new CrdtInsertOp(nodeId(2), nodeId(4), 'Z'),
+                new CrdtDeleteOp(nodeId(2), nodeId(5))));
+        assertEquals("AYZ", doc.render());
+
+        // Z unter A würde vor Y sortieren
+        assertEquals(0, doc.collectGarbage(stableUpTo(5)));
+        assertEquals("AYZ", doc.render());
+    }
+
+    @Test
+    void lateInsertBetweenSplicedChildren_convergesWithReplicaThatKeptIt() {
+        UUID otherSite = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        List<CrdtOperation> base = List.of(
+                new CrdtInsertOp(rootId(), nodeId(1), 'A'),
+                new CrdtInsertOp(nodeId(1), nodeId(2), 'Y'),
+                new CrdtInsertOp(nodeId(1), nodeId(3), 'X'),
+                new CrdtInsertOp(nodeId(3), nodeId(4), 'Z'),
+                new CrdtDeleteOp(nodeId(3), nodeId(5)));
+        CrdtDocument collecting = (CrdtDocument) Document.fromLog(base);
+        CrdtDocument keeping = (CrdtDocument) Document.fromLog(base);
+        assertEquals(1, collecting.collectGarbage(stableUpTo(5)));
+        assertEquals("AZY", collecting.render());
+
+        // Id liegt zwischen X und Z: gehört vor X, also auch vor Z
+        CrdtInsertOp late = new CrdtInsertOp(nodeId(1), new CrdtNodeId(otherSite, 3), 'L');
+        collecting.apply(late);
+        keeping.apply(late);
+
+        assertEquals("ALZY", keeping.render());
+        assertEquals(keeping.getLinearOrder().stream().map(CrdtNode::getNodeId).toList(),
+                collecting.getLinearOrder().stream().map(CrdtNode::getNodeId).toList());
+
+        // X ist wieder da und bleibt: Z würde jetzt vor L sortieren
+        assertEquals(1, collecting.getTombstoneCount());
+        assertEquals(0, collecting.collectGarbage(stableUpTo(5)));
+        assertEquals("ALZY", collecting.render());
+    }
+
+    @Test
+    void insertBelowSplicedTombstone_takesItsChildrenBack() {
+        CrdtDocument doc = abcde();
+        delete(doc, 2, 101);
+        delete(doc, 3, 102);
+        assertEquals(2, doc.collectGarbage(stableUpTo(102)));
+
+        // F wurde unter B erzeugt, bevor das Delete ankam
+        doc.apply(new CrdtInsertOp(nodeId(2), nodeId(6), 'F'));
+
+        CrdtDocument keeping = abcde();
+        delete(keeping, 2, 101);
+        delete(keeping, 3, 102);
+        keeping.apply(new CrdtInsertOp(nodeId(2), nodeId(6), 'F'));
+
+        assertEquals("AFDE", keeping.render());
+        assertEquals(keeping.render(), doc.render());
+        // C bleibt eingesammelt, D hängt wieder unter B
+        assertEquals(List.of(nodeId(1), nodeId(2), nodeId(6), nodeId(4), nodeId(5)),
+                doc.getLinearOrder().stream().map(CrdtNode::getNodeId).toList());
+        assertEquals(nodeId(2), doc.getLinearOrder().get(3).getParent().getNodeId());
+    }
+
+    @Test
+    void unstampedDeletes_areNeverCollected() {
+        CrdtDocument doc = abcde();
+        doc.apply(new CrdtDeleteOp(nodeId(5)));
+
+        assertEquals(0, doc.collectGarbage(stableUpTo(Integer.MAX_VALUE)));
+        assertEquals(5, doc.getNodeCount());
+    }
+
+    @Test
+    void tombstoneAboveReleasedPendingInserts_isSplicedOut() {
+        CrdtDocument doc = abcde();
+        delete(doc, 5, 101);
+        doc.apply(new CrdtInsertOp(nodeId(50), nodeId(51), 'X')); // wartet auf 50
+        doc.apply(new CrdtInsertOp(nodeId(5), nodeId(50), 'Y'));
+
+        assertEquals(1, doc.collectGarbage(stableUpTo(101)));
+        assertEquals("ABCDYX", doc.render());
+        assertEquals(0, doc.getPendingOpCount());
+    }
+
+    @Test
+    void anchorsOnCollectedNodes_resolveToFormerPosition() {
+        CrdtDocument doc = abcde();
+        Anchor onD = new Anchor(nodeId(4), Gravity.RIGHT);
+        Anchor onE = new Anchor(nodeId(5), Gravity.LEFT);
+        int beforeD = doc.resolveAnchor(onD);
+
+        delete(doc, 4, 101);
+        delete(doc, 5, 102);
+        int resolvedBefore = doc.resolveAnchor(onE);
+
+        doc.collectGarbage(stableUpTo(102));
+
+        assertEquals(3, beforeD);
+        assertEquals(3, resolvedBefore);
+        assertEquals(3, doc.resolveAnchor(onD));
+        assertEquals(3, doc.resolveAnchor(onE));
+
+        // "ABC" -> C auch löschen und einsammeln: Anker wandern mit. Der Vektor rückt nur
+        // für die andere Site weiter, die Einträge des ersten Laufs bleiben also erhalten
+        UUID otherSite = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        doc.apply(new CrdtDeleteOp(nodeId(3), new CrdtNodeId(otherSite, 1)));
+        doc.collectGarbage(VersionVector.of(Map.of(SITE, 102, otherSite, 1)));
+        assertEquals("AB", doc.render());
+        assertEquals(2, doc.resolveAnchor(onE));
+    }
+
+    @Test
+    void lateOpsForCollectedNodes_doNotResurrectThem() {
+        CrdtDocument doc = abcde();
+        CrdtInsertOp insertE = new CrdtInsertOp(nodeId(4), nodeId(5), 'E');
+        delete(doc, 5, 101);
+        doc.collectGarbage(stableUpTo(101));
+
+        doc.apply(insertE);
+        delete(doc, 5, 101);
+
+        assertEquals("ABCD", doc.render());
+        assertEquals(0, doc.getPendingOpCount());
+    }
+
+    @Test
+    void insertBelowCollectedParent_restoresItAsTombstone() {
+        CrdtDocument doc = abcde();
+        delete(doc, 4, 101);
+        delete(doc, 5, 102);
+        assertEquals(2, doc.collectGarbage(stableUpTo(102)));
+
+        doc.apply(new CrdtInsertOp(nodeId(5), nodeId(6), 'F'));
+
+        // D und E kommen als Tombstones zurück, F hängt unter E
+        assertEquals("ABCF", doc.render());
+        assertEquals(6, doc.getNodeCount());
+        assertEquals(2, doc.getTombstoneCount());
+        assertEquals(List.of(nodeId(1), nodeId(2), nodeId(3), nodeId(4), nodeId(5), nodeId(6)),
+                doc.getLinearOrder().stream().map(CrdtNode::getNodeId).toList());
+        assertEquals(3, doc.resolveAnchor(new Anchor(nodeId(5), Gravity.LEFT)));
+
+        // wieder einsammelbar, sobald F weg ist
+        delete(doc, 6, 103);
+        assertEquals(3, doc.collectGarbage(stableUpTo(103)));
+        assertEquals("ABC", doc.render());
+    }
+
+    @Test
+    void lateInsertBelowCollectedParent_convergesWithReplicaThatKeptIt() {
+        UUID otherSite = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        List<CrdtOperation> base = List.of(
+                new CrdtInsertOp(rootId(), nodeId(1), 'A'),
+                new CrdtInsertOp(nodeId(1), nodeId(2), 'Y'),
+                new CrdtInsertOp(nodeId(1), nodeId(3), 'X'),
+                new CrdtDeleteOp(nodeId(3), nodeId(4)));
+        CrdtDocument collecting = (CrdtDocument) Document.fromLog(base);
+        CrdtDocument keeping = (CrdtDocument) Document.fromLog(base);
+        assertEquals(1, collecting.collectGarbage(stableUpTo(4)));
+
+        // vor dem Delete auf der anderen Site erzeugt, kommt erst jetzt an
+        CrdtInsertOp late = new CrdtInsertOp(nodeId(3), new CrdtNodeId(otherSite, 1), 'C');
+        collecting.apply(late);
+        keeping.apply(late);
+
+        // C gehört hinter X, nicht zwischen die Geschwister von X
+        assertEquals("ACY", keeping.render());
+        assertEquals(keeping.render(), collecting.render());
+        assertEquals(keeping.getLinearOrder().stream().map(CrdtNode::getNodeId).toList(),
+                collecting.getLinearOrder().stream().map(CrdtNode::getNodeId).toList());
+    }
+
+    @Test
+    void collectedIds_areForgotten_onceTheStableVectorMovedOn() {
+        CrdtDocument doc = abcde();
+        delete(doc, 5, 101);
+        delete(doc, 4, 102);
+        assertEquals(1, doc.collectGarbage(stableUpTo(101)));
+        assertEquals(1, doc.getCollectedNodeCount());
+
+        // gleicher Vektor: nichts wird vergessen
+        assertEquals(0, doc.collectGarbage(stableUpTo(101)));
+        assertEquals(1, doc.getCollectedNodeCount());
+
+        // 102 ist dem ersten Lauf voraus: E wird vergessen, D eingesammelt
+        assertEquals(1, doc.collectGarbage(stableUpTo(102)));
+        assertEquals(1, doc.getCollectedNodeCount());
+        assertEquals(3, doc.resolveAnchor(new Anchor(nodeId(4), Gravity.LEFT)));
+
+        doc.collectGarbage(stableUpTo(103));
+        assertEquals(0, doc.getCollectedNodeCount());
+        assertEquals(0, doc.resolveAnchor(new Anchor(nodeId(4), Gravity.LEFT)));
+        assertEquals("ABC", doc.render());
+    }
+
+    @Test
+    void userDeleteOps_areStampedAndCollectable() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        OperationFactory.createInsertOp(0, "hello world").transformToInternal(doc).forEach(doc::apply);
+        OperationFactory.createDeleteOp(5, 11).transformToInternal(doc).forEach(doc::apply);
+
+        int collected = doc.collectGarbage(VersionVector.of(Map.of(doc.getSiteId(), Integer.MAX_VALUE)));
+
+        assertEquals(6, collected);
+        assertEquals("hello", doc.render());
+        assertEquals(5, doc.getNodeCount());
+    }
+
+    @Test
+    void stableVector_isElementWiseMinimum() {
+        UUID other = UUID.randomUUID();
+        VersionVector a = VersionVector.of(Map.of(SITE, 5, other, 2));
+        VersionVector b = VersionVector.of(Map.of(SITE, 3));
+
+        VersionVector stable = VersionVector.stable(List.of(a, b));
+
+        assertEquals(VersionVector.of(Map.of(SITE, 3)), stable);
+        assertTrue(stable.covers(nodeId(3)));
+        assertFalse(stable.covers(nodeId(4)));
+        assertFalse(stable.covers(new CrdtNodeId(other, 1)));
+    }
+}
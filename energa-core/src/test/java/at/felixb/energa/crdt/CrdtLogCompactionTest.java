@@ -0,0 +1,108 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrdtLogCompactionTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private final Random random = new Random(42);
+    private int counter = 0;
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    // zufällige Inserts/gestempelte Deletes auf dem aktuellen Stand von doc
+    private List<CrdtOperation> randomOps(CrdtDocument doc, int numOps) {
+        List<CrdtNodeId> existing = new ArrayList<>();
+        existing.add(rootId());
+        doc.getLinearOrder().forEach(node -> existing.add(node.getNodeId()));
+
+        List<CrdtOperation> ops = new ArrayList<>(numOps);
+        for (int i = 0; i < numOps; i++) {
+            if (existing.size() > 1 && random.nextInt(3) == 0) {
+                CrdtNodeId target = existing.get(1 + random.nextInt(existing.size() - 1));
+                ops.add(new CrdtDeleteOp(target, new CrdtNodeId(SITE, ++counter)));
+            } else {
+                CrdtNodeId id = new CrdtNodeId(SITE, ++counter);
+                ops.add(new CrdtInsertOp(existing.get(random.nextInt(existing.size())), id, (char) ('a' + random.nextInt(26))));
+                existing.add(id);
+            }
+        }
+        return ops;
+    }
+
+    @Test
+    void compactLog_keepsStateAndMovesBaseline() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        randomOps(doc, 300).forEach(doc::apply);
+        String text = doc.render();
+
+        doc.compactLog(200);
+
+        assertEquals(200, doc.getBaselineRevision());
+        assertEquals(300, doc.getRevision());
+        assertEquals(100, doc.getOperationsSince(200).size());
+        assertEquals(text, doc.render());
+    }
+
+    @Test
+    void peerAheadOfBaseline_isServedWithDelta() {
+        CrdtDocument server = (CrdtDocument) Document.create();
+        CrdtDocument peer = (CrdtDocument) Document.create();
+
+        randomOps(server, 200).forEach(server::apply);
+        server.getOperationsSince(0).forEach(peer::apply);
+        long peerSyncedAt = server.getRevision();
+
+        randomOps(server, 50).forEach(server::apply);
+        server.compactLog(peerSyncedAt);
+        randomOps(server, 50).forEach(server::apply);
+
+        server.getOperationsSince(peerSyncedAt).forEach(peer::apply);
+
+        assertEquals(server.render(), peer.render());
+        assertEquals(List.of(), server.getOperationsSince(server.getRevision()));
+    }
+
+    @Test
+    void peerBehindBaseline_needsSnapshot() {
+        CrdtDocument server = (CrdtDocument) Document.create();
+        randomOps(server, 300).forEach(server::apply);
+        server.compactLog(server.getRevision());
+
+        assertThrows(IllegalStateException.class, () -> server.getOperationsSince(10));
+
+        CrdtDocument peer = (CrdtDocument) Document.fromLog(server.exportSnapshot());
+        assertEquals(server.render(), peer.render());
+        assertEquals(server.getTombstoneCount(), peer.getTombstoneCount());
+
+        // weitere Ops konvergieren auf beiden Seiten
+        List<CrdtOperation> more = randomOps(server, 100);
+        more.forEach(server::apply);
+        more.forEach(peer::apply);
+        assertEquals(server.render(), peer.render());
+    }
+
+    @Test
+    void compactLog_rejectsRevisionsOutsideLog() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        randomOps(doc, 10).forEach(doc::apply);
+        doc.compactLog(5);
+
+        assertThrows(IllegalArgumentException.class, () -> doc.compactLog(4));
+        assertThrows(IllegalArgumentException.class, () -> doc.compactLog(11));
+        assertThrows(IllegalArgumentException.class, () -> doc.getOperationsSince(11));
+
+        doc.compactLog(5); // no-op
+        assertEquals(5, doc.getOperationsSince(5).size());
+    }
+}
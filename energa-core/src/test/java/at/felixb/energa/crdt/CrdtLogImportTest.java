@@ -0,0 +1,158 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrdtLogImportTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private final Random random = new Random(42);
+
+    private static CrdtNodeId nodeId(int counter) {
+        return new CrdtNodeId(SITE, counter);
+    }
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    private List<CrdtOperation> generateRandomInsertDeleteOps(int numOps) {
+        List<CrdtOperation> ops = new ArrayList<>();
+        List<UUID> sites = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        int[] counters = new int[sites.size()];
+
+        List<CrdtNodeId> existing = new ArrayList<>();
+        existing.add(rootId());
+
+        for (int i = 0; i < numOps; i++) {
+            if (existing.size() > 1 && random.nextInt(3) == 0) {
+                ops.add(new CrdtDeleteOp(existing.get(1 + random.nextInt(existing.size() - 1))));
+            } else {
+                int site = random.nextInt(sites.size());
+                CrdtNodeId id = new CrdtNodeId(sites.get(site), ++counters[site]);
+                ops.add(new CrdtInsertOp(existing.get(random.nextInt(existing.size())), id, (char) ('a' + random.nextInt(26))));
+                existing.add(id);
+            }
+        }
+        return ops;
+    }
+
+    // Referenz: jede Op einzeln über apply()
+    private static CrdtDocument applySequentially(List<CrdtOperation> ops) {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        ops.forEach(doc::apply);
+        return doc;
+    }
+
+    @RepeatedTest(10)
+    void shuffledLog_bulkImportMatchesSequentialApply() {
+        List<CrdtOperation> ops = generateRandomInsertDeleteOps(500);
+        Collections.shuffle(ops, random);
+
+        CrdtDocument imported = (CrdtDocument) Document.fromLog(ops);
+        CrdtDocument sequential = applySequentially(ops);
+
+        assertEquals(sequential.render(), imported.render());
+        assertEquals(sequential.getLinearOrder(), imported.getLinearOrder());
+        assertEquals(sequential.traverse(), imported.getLinearOrder());
+        assertEquals(ops.size(), imported.getRevision());
+        assertEquals(0, imported.getPendingOpCount());
+    }
+
+    @Test
+    void orphanOps_areBufferedAndReleasedLater() {
+        CrdtInsertOp a = new CrdtInsertOp(rootId(), nodeId(1), 'A');
+        CrdtInsertOp b = new CrdtInsertOp(nodeId(1), nodeId(2), 'B');
+        CrdtInsertOp c = new CrdtInsertOp(nodeId(2), nodeId(3), 'C');
+        CrdtDeleteOp deleteC = new CrdtDeleteOp(nodeId(3));
+
+        // B fehlt im Log -> C und das Delete können nicht platziert werden
+        CrdtDocument doc = (CrdtDocument) Document.fromLog(List.of(deleteC, c, a));
+
+        assertEquals("A", doc.render());
+        assertEquals(2, doc.getPendingOpCount());
+        assertEquals(3, doc.getRevision());
+
+        doc.apply(b);
+
+        assertEquals("AB", doc.render());
+        assertEquals(0, doc.getPendingOpCount());
+    }
+
+    @Test
+    void duplicateInserts_areIgnored() {
+        CrdtInsertOp a = new CrdtInsertOp(rootId(), nodeId(1), 'A');
+        CrdtInsertOp b = new CrdtInsertOp(nodeId(1), nodeId(2), 'B');
+
+        CrdtDocument doc = (CrdtDocument) Document.fromLog(List.of(b, a, b, a));
+
+        assertEquals("AB", doc.render());
+        assertEquals(4, doc.getRevision());
+    }
+
+    @Test
+    void importedDocument_acceptsFurtherOps() {
+        List<CrdtOperation> ops = generateRandomInsertDeleteOps(300);
+        CrdtDocument doc = (CrdtDocument) Document.fromLog(ops);
+        CrdtDocument sequential = applySequentially(ops);
+
+        CrdtInsertOp tail = new CrdtInsertOp(rootId(), nodeId(1), 'Z');
+        doc.apply(tail);
+        sequential.apply(tail);
+
+        assertEquals(sequential.render(), doc.render());
+    }
+
+    @Test
+    void parallelImport_matchesSequentialImport() {
+        List<CrdtOperation> ops = generateRandomInsertDeleteOps(60_000);
+        Collections.shuffle(ops, random);
+        ops.subList(0, 50).clear(); // ein paar fehlende Eltern -> Waisen
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CrdtDocument parallel = (CrdtDocument) Document.fromLog(ops, pool);
+            CrdtDocument sequential = (CrdtDocument) Document.fromLog(ops);
+
+            assertEquals(sequential.render(), parallel.render());
+            assertEquals(sequential.getLinearOrder(), parallel.getLinearOrder());
+            assertEquals(sequential.getRevision(), parallel.getRevision());
+            assertEquals(sequential.getPendingOpCount(), parallel.getPendingOpCount());
+            assertTrue(parallel.getPendingOpCount() > 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void parallelImport_ofLongChainWithSideBranches() {
+        // Worst Case für Teilbäume unter der Wurzel: eine einzige Kette, nur gelegentlich verzweigt
+        List<CrdtOperation> ops = new ArrayList<>();
+        UUID other = UUID.fromString("00000000-0000-0000-0000-000000000002");
+        CrdtNodeId parent = rootId();
+        for (int i = 1; i <= 40_000; i++) {
+            CrdtNodeId id = nodeId(i);
+            ops.add(new CrdtInsertOp(parent, id, (char) ('a' + i % 26)));
+            if (i % 100 == 0) ops.add(new CrdtInsertOp(parent, new CrdtNodeId(other, i), '|'));
+            parent = id;
+        }
+        Collections.shuffle(ops, random);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CrdtDocument parallel = (CrdtDocument) Document.fromLog(ops, pool);
+
+            assertEquals(Document.fromLog(ops).render(), parallel.render());
+            assertEquals(parallel.traverse(), parallel.getLinearOrder());
+            assertEquals(0, parallel.getPendingOpCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
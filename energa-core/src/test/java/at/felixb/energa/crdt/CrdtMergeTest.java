@@ -0,0 +1,161 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CrdtMergeTest {
+
+    private static final UUID SITE_A = UUID.fromString("00000000-0000-0000-0000-0000000000A1");
+    private static final UUID SITE_B = UUID.fromString("00000000-0000-0000-0000-0000000000B1");
+
+    private final Random random = new Random(42);
+    private final Map<UUID, Integer> counters = new HashMap<>();
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    private CrdtNodeId nextId(UUID site) {
+        return new CrdtNodeId(site, counters.merge(site, 1, Integer::sum));
+    }
+
+    // zufällige Inserts/gestempelte Deletes der Site auf dem aktuellen Stand von doc
+    private List<CrdtOperation> randomOps(CrdtDocument doc, UUID site, int numOps) {
+        List<CrdtNodeId> existing = new ArrayList<>();
+        existing.add(rootId());
+        doc.getLinearOrder().forEach(node -> existing.add(node.getNodeId()));
+
+        List<CrdtOperation> ops = new ArrayList<>(numOps);
+        for (int i = 0; i < numOps; i++) {
+            if (existing.size() > 1 && random.nextInt(3) == 0) {
+                ops.add(new CrdtDeleteOp(existing.get(1 + random.nextInt(existing.size() - 1)), nextId(site)));
+            } else {
+                CrdtNodeId id = nextId(site);
+                ops.add(new CrdtInsertOp(existing.get(random.nextInt(existing.size())), id, (char) ('a' + random.nextInt(26))));
+                existing.add(id);
+            }
+        }
+        return ops;
+    }
+
+    @RepeatedTest(5)
+    void divergedReplicas_mergeBothWays_andConverge() {
+        List<CrdtOperation> base = randomOps((CrdtDocument) Document.create(), SITE_A, 500);
+        CrdtDocument a = (CrdtDocument) Document.fromLog(base);
+        CrdtDocument b = (CrdtDocument) Document.fromLog(base);
+
+        List<CrdtOperation> opsA = randomOps(a, SITE_A, 300);
+        List<CrdtOperation> opsB = randomOps(b, SITE_B, 300);
+        a.applyAll(opsA);
+        b.applyAll(opsB);
+
+        // Referenz: alle Ops über den Log
+        CrdtDocument reference = (CrdtDocument) Document.fromLog(base);
+        reference.applyAll(opsA);
+        reference.applyAll(opsB);
+
+        // nur die Zustände, z.B. aus Snapshots wiederhergestellt
+        CrdtDocument restoredB = (CrdtDocument) Document.fromLog(b.exportSnapshot());
+        a.merge(restoredB);
+        restoredB.merge(a);
+
+        assertEquals(reference.render(), a.render());
+        assertEquals(reference.getLinearOrder(), a.getLinearOrder());
+        assertEquals(a.getLinearOrder(), restoredB.getLinearOrder());
+        assertEquals(reference.getTombstoneCount(), a.getTombstoneCount());
+        assertEquals(a.traverse(), a.getLinearOrder());
+    }
+
+    @Test
+    void merge_appliesOnlyTheDifference() {
+        CrdtDocument a = (CrdtDocument) Document.create();
+        a.applyAll(randomOps(a, SITE_A, 1_000));
+        CrdtDocument b = a.fork();
+
+        List<CrdtOperation> opsB = randomOps(b, SITE_B, 20);
+        b.applyAll(opsB);
+        long revision = a.getRevision();
+
+        List<CrdtOperation> merged = a.merge(b);
+
+        // neue Knoten, die in b schon wieder gelöscht sind, kommen als Insert + Delete
+        assertTrue(merged.size() <= opsB.size() + 20);
+        assertEquals(b.render(), a.render());
+        assertEquals(merged, a.getOperationsSince(revision));
+
+        // ein zweites Mal gibt es nichts zu tun
+        assertEquals(List.of(), a.merge(b));
+        assertEquals(List.of(), a.merge(a));
+    }
+
+    @Test
+    void merge_firesChangeEvents_andCarriesPendingOps() {
+        CrdtDocument a = (CrdtDocument) Document.create();
+        CrdtDocument b = (CrdtDocument) Document.create();
+        CrdtNodeId x = nextId(SITE_B);
+        CrdtNodeId y = nextId(SITE_B);
+        CrdtNodeId orphan = nextId(SITE_B);
+        b.apply(new CrdtInsertOp(rootId(), x, 'X'));
+        b.apply(new CrdtInsertOp(y, orphan, 'Z')); // y fehlt in b -> wartet
+        assertEquals(1, b.getPendingOpCount());
+
+        List<DocumentChangeEvent> events = new ArrayList<>();
+        a.registerDocumentChangedListener(events::add);
+        a.merge(b);
+
+        assertEquals("X", a.render());
+        assertEquals(1, events.size());
+        assertEquals(1, a.getPendingOpCount());
+
+        a.apply(new CrdtInsertOp(x, y, 'Y'));
+        assertEquals("XYZ", a.render());
+    }
+
+    @Test
+    void merge_skipsPendingOpsAppliedOrBufferedHere() {
+        CrdtDocument a = (CrdtDocument) Document.create();
+        CrdtDocument b = (CrdtDocument) Document.create();
+        CrdtNodeId x = nextId(SITE_B);
+        CrdtNodeId y = nextId(SITE_B);
+        CrdtNodeId orphan = nextId(SITE_B);
+        CrdtNodeId deleteStamp = nextId(SITE_B);
+        CrdtInsertOp pendingInsert = new CrdtInsertOp(y, orphan, 'Z');
+        b.apply(pendingInsert); // y fehlt in b -> wartet
+        b.apply(new CrdtDeleteOp(x, deleteStamp)); // x fehlt in b -> wartet
+        a.apply(new CrdtInsertOp(rootId(), x, 'X'));
+        a.apply(new CrdtDeleteOp(x, deleteStamp));
+        assertEquals(2, b.getPendingOpCount());
+
+        // das Delete hat a schon, nur der wartende Insert kommt mit
+        assertEquals(List.of(pendingInsert), a.merge(b));
+        long revision = a.getRevision();
+
+        // beim zweiten Mal wartet er in a schon -> nichts doppelt puffern oder loggen
+        assertEquals(List.of(), a.merge(b));
+        assertEquals(revision, a.getRevision());
+        assertEquals(1, a.getPendingOpCount());
+    }
+
+    @Test
+    void merge_skipsNodesCollectedHere() {
+        CrdtDocument a = (CrdtDocument) Document.create();
+        CrdtNodeId x = nextId(SITE_A);
+        a.apply(new CrdtInsertOp(rootId(), x, 'X'));
+        CrdtDocument b = a.fork();
+
+        a.apply(new CrdtDeleteOp(x, nextId(SITE_A)));
+        assertEquals(1, a.collectGarbage(VersionVector.of(Map.of(SITE_A, Integer.MAX_VALUE))));
+
+        assertEquals(List.of(), a.merge(b));
+        assertEquals("", a.render());
+    }
+}
@@ -0,0 +1,191 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentSnapshotTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static CrdtNodeId nodeId(int counter) {
+        return new CrdtNodeId(SITE, counter);
+    }
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    // Text als Kette 1..n
+    private static CrdtDocument chain(String text) {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        CrdtNodeId parent = rootId();
+        for (int i = 1; i <= text.length(); i++) {
+            doc.apply(new CrdtInsertOp(parent, nodeId(i), text.charAt(i - 1)));
+            parent = nodeId(i);
+        }
+        return doc;
+    }
+
+    @Test
+    void snapshot_staysAtItsRevisionWhileDocumentChanges() {
+        CrdtDocument doc = chain("hello world");
+        Anchor beforeWorld = doc.createAnchor(6, Gravity.RIGHT);
+        DocumentSnapshot snapshot = doc.snapshot();
+
+        doc.apply(new CrdtDeleteOp(nodeId(1)));
+        doc.apply(new CrdtInsertOp(nodeId(5), nodeId(100), '!'));
+
+        assertEquals("ello! world", doc.render());
+        assertEquals(11, snapshot.getRevision());
+        assertEquals("hello world", snapshot.render());
+        assertEquals("lo w", snapshot.renderRange(3, 7));
+        assertEquals('w', snapshot.charAt(6));
+        assertEquals(nodeId(7), snapshot.nodeIdAt(6));
+        assertEquals(6, snapshot.resolveAnchor(beforeWorld));
+        assertEquals(6, doc.resolveAnchor(beforeWorld));
+
+        // Anker auf ein erst später gelöschtes Zeichen
+        assertEquals(0, snapshot.resolveAnchor(new Anchor(nodeId(1), Gravity.RIGHT)));
+        assertEquals(1, snapshot.resolveAnchor(new Anchor(nodeId(1), Gravity.LEFT)));
+        // Anker auf ein Zeichen, das es im Snapshot noch nicht gibt
+        assertEquals(0, snapshot.resolveAnchor(new Anchor(nodeId(100), Gravity.LEFT)));
+        assertThrows(IndexOutOfBoundsException.class, () -> snapshot.charAt(11));
+    }
+
+    @Test
+    void snapshotAnchors_matchDocumentAnchors_includingTombstonesAndCollectedNodes() {
+        CrdtDocument doc = chain("abcdefghij");
+        doc.apply(new CrdtDeleteOp(nodeId(3), nodeId(101)));
+        doc.apply(new CrdtDeleteOp(nodeId(10), nodeId(102)));
+        doc.apply(new CrdtDeleteOp(nodeId(9), nodeId(103)));
+        doc.collectGarbage(VersionVector.of(Map.of(SITE, 103)));
+
+        DocumentSnapshot snapshot = doc.snapshot();
+        assertEquals(doc.render(), snapshot.render());
+
+        for (int i = 0; i <= 11; i++) {
+            for (Gravity gravity : Gravity.values()) {
+                Anchor anchor = new Anchor(i == 0 ? rootId() : nodeId(i), gravity);
+                assertEquals(doc.resolveAnchor(anchor), snapshot.resolveAnchor(anchor), anchor.toString());
+            }
+        }
+        for (int caret = 0; caret <= doc.render().length(); caret++) {
+            for (Gravity gravity : Gravity.values()) {
+                assertEquals(doc.createAnchor(caret, gravity), snapshot.createAnchor(caret, gravity));
+            }
+        }
+    }
+
+    @Test
+    void snapshots_followRandomEdits() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        Random random = new Random(7);
+        List<CrdtNodeId> ids = new ArrayList<>();
+        int counter = 0;
+
+        for (int step = 0; step < 3000; step++) {
+            if (ids.isEmpty() || random.nextInt(4) != 0) {
+                CrdtNodeId parent = ids.isEmpty() || random.nextInt(10) == 0 ? rootId() : ids.get(random.nextInt(ids.size()));
+                CrdtNodeId id = nodeId(++counter);
+                doc.apply(new CrdtInsertOp(parent, id, (char) ('a' + random.nextInt(26))));
+                ids.add(id);
+            } else {
+                doc.apply(new CrdtDeleteOp(ids.get(random.nextInt(ids.size()))));
+            }
+
+            if (step % 100 == 0) {
+                DocumentSnapshot snapshot = doc.snapshot();
+                String text = doc.render();
+                assertEquals(text, snapshot.render());
+                int from = random.nextInt(text.length() + 1);
+                int to = from + random.nextInt(text.length() - from + 1);
+                assertEquals(text.substring(from, to), doc.snapshot().renderRange(from, to));
+            }
+        }
+    }
+
+    @Test
+    void olderSnapshots_resolveAnchorsAtTheirRevision_afterLaterSnapshots() {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        Random random = new Random(11);
+        List<CrdtNodeId> ids = new ArrayList<>();
+        List<DocumentSnapshot> snapshots = new ArrayList<>();
+        List<int[]> expected = new ArrayList<>();
+        int counter = 0;
+
+        for (int step = 1; step <= 2000; step++) {
+            if (ids.isEmpty() || random.nextInt(4) != 0) {
+                CrdtNodeId parent = ids.isEmpty() ? rootId() : ids.get(random.nextInt(ids.size()));
+                CrdtNodeId id = nodeId(++counter);
+                doc.apply(new CrdtInsertOp(parent, id, 'x'));
+                ids.add(id);
+            } else {
+                doc.apply(new CrdtDeleteOp(ids.get(random.nextInt(ids.size()))));
+            }
+
+            if (step % 250 == 0) {
+                snapshots.add(doc.snapshot());
+                int[] resolved = new int[ids.size()];
+                for (int i = 0; i < ids.size(); i++) resolved[i] = doc.resolveAnchor(new Anchor(ids.get(i), Gravity.LEFT));
+                expected.add(resolved);
+            }
+        }
+
+        CrdtNodeId later = nodeId(++counter);
+        doc.apply(new CrdtInsertOp(rootId(), later, 'y'));
+        doc.snapshot();
+
+        // der Index zeigt inzwischen auf neuere Chunks, alte Snapshots bleiben bei ihrer Revision
+        for (int s = 0; s < snapshots.size(); s++) {
+            int[] resolved = expected.get(s);
+            for (int i = 0; i < resolved.length; i++) {
+                assertEquals(resolved[i], snapshots.get(s).resolveAnchor(new Anchor(ids.get(i), Gravity.LEFT)));
+            }
+            // erst später eingefügt -> 0
+            assertEquals(0, snapshots.get(s).resolveAnchor(new Anchor(later, Gravity.LEFT)));
+        }
+    }
+
+    @Test
+    void publishedSnapshots_areConsistentForConcurrentReaders() throws Exception {
+        CrdtDocument doc = (CrdtDocument) Document.create();
+        doc.setSnapshotPublishing(true);
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    DocumentSnapshot snapshot = doc.getPublishedSnapshot();
+                    // nur Inserts -> Länge == Revision, Text immer "xxx..."
+                    assertEquals(snapshot.getRevision(), snapshot.length());
+                    assertEquals("x".repeat(snapshot.length()), snapshot.render());
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+
+        CrdtNodeId parent = rootId();
+        for (int i = 1; i <= 2000; i++) {
+            doc.apply(new CrdtInsertOp(parent, nodeId(i), 'x'));
+            parent = nodeId(i);
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(2000, doc.getPublishedSnapshot().getRevision());
+        assertSame(doc.getPublishedSnapshot(), doc.snapshot()); // unverändert -> kein neuer Snapshot
+    }
+}
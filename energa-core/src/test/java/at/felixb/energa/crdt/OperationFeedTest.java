@@ -0,0 +1,231 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OperationFeedTest {
+
+    // Subscriber mit manueller Nachfrage
+    private static class RecordingSubscriber implements Flow.Subscriber<List<CrdtOperation>> {
+        final List<List<CrdtOperation>> batches = new CopyOnWriteArrayList<>();
+        final long initialDemand;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+
+        RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) subscription.request(initialDemand);
+        }
+
+        @Override
+        public void onNext(List<CrdtOperation> item) {
+            batches.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        List<CrdtOperation> received() {
+            List<CrdtOperation> ops = new ArrayList<>();
+            batches.forEach(ops::addAll);
+            return ops;
+        }
+    }
+
+    private static void type(Document document, String text) {
+        OperationFactory.createInsertOp(document.render().length(), text).transformToInternal(document).forEach(document::apply);
+    }
+
+    @Test
+    void subscriber_resumesFromRevisionAndFollowsLiveOps() {
+        CrdtDocument document = (CrdtDocument) Document.create();
+        type(document, "hello");
+
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        document.operationFeed(3).subscribe(subscriber);
+        assertEquals(document.getOperationsSince(3), subscriber.received());
+
+        type(document, " world");
+
+        assertEquals(document.getOperationsSince(3), subscriber.received());
+    }
+
+    @Test
+    void laggingSubscriber_getsLargerBatchesOnlyOnDemand() {
+        Document document = Document.create();
+        RecordingSubscriber slow = new RecordingSubscriber(0);
+        RecordingSubscriber fast = new RecordingSubscriber(Long.MAX_VALUE);
+        document.operationFeed(0).subscribe(slow);
+        document.operationFeed(0).subscribe(fast);
+
+        type(document, "x".repeat(5000));
+
+        assertEquals(5000, fast.batches.size());
+        assertTrue(slow.batches.isEmpty());
+
+        slow.subscription.request(1);
+        assertEquals(1, slow.batches.size());
+        assertEquals(OperationFeed.MAX_BATCH_SIZE, slow.batches.get(0).size());
+
+        slow.subscription.request(5);
+        assertEquals(2, slow.batches.size());
+        assertEquals(fast.received(), slow.received());
+    }
+
+    @Test
+    void replicaFedByFeed_converges() {
+        Document source = Document.create();
+        Document replica = Document.create();
+        source.operationFeed(0).subscribe(new RecordingSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onNext(List<CrdtOperation> item) {
+                item.forEach(replica::apply);
+            }
+        });
+
+        type(source, "abc");
+        OperationFactory.createDeleteOp(1, 2).transformToInternal(source).forEach(source::apply);
+        type(source, "def");
+
+        assertEquals(source.render(), replica.render());
+    }
+
+    @Test
+    void cancelledSubscriber_receivesNothingMore() {
+        Document document = Document.create();
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        document.operationFeed(0).subscribe(subscriber);
+
+        type(document, "ab");
+        subscriber.subscription.cancel();
+        type(document, "cd");
+
+        assertEquals(2, subscriber.received().size());
+    }
+
+    @Test
+    void rejectingExecutor_cancelsOnlyThatSubscription() {
+        Document document = Document.create();
+        AtomicBoolean accepting = new AtomicBoolean(true);
+        Executor closable = command -> {
+            if (!accepting.get()) throw new RejectedExecutionException("shut down");
+            command.run();
+        };
+        RecordingSubscriber rejected = new RecordingSubscriber(Long.MAX_VALUE);
+        RecordingSubscriber other = new RecordingSubscriber(Long.MAX_VALUE);
+        document.operationFeed(0, closable).subscribe(rejected);
+        document.operationFeed(0).subscribe(other);
+
+        type(document, "ab");
+        accepting.set(false);
+        type(document, "cd"); // wirft nicht aus apply()
+        accepting.set(true);
+        type(document, "ef");
+
+        assertInstanceOf(RejectedExecutionException.class, rejected.error);
+        assertEquals(2, rejected.received().size());
+        assertEquals(6, other.received().size());
+        assertEquals("abcdef", document.render());
+    }
+
+    @Test
+    void compactionPastCursor_signalsError() {
+        CrdtDocument document = (CrdtDocument) Document.create();
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        document.operationFeed(0).subscribe(subscriber);
+
+        type(document, "abc");
+        document.compactLog(2);
+        subscriber.subscription.request(1);
+
+        assertInstanceOf(IllegalStateException.class, subscriber.error);
+        assertTrue(subscriber.batches.isEmpty());
+    }
+
+    @Test
+    void invalidRequest_signalsError() {
+        Document document = Document.create();
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        document.operationFeed(0).subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertInstanceOf(IllegalArgumentException.class, subscriber.error);
+        assertThrows(IllegalArgumentException.class, () -> document.operationFeed(1));
+    }
+
+    @Test
+    void invalidRequest_isSignalledOnTheExecutor_afterTheRunningDelivery() {
+        Document document = Document.create();
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        List<String> signals = new ArrayList<>();
+        Flow.Subscriber<List<CrdtOperation>> subscriber = new Flow.Subscriber<>() {
+            Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(List<CrdtOperation> item) {
+                signals.add("next");
+                subscription.request(-1); // mitten in onNext
+                signals.add("next done");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add("error " + throwable.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+        type(document, "ab");
+        document.operationFeed(0, tasks::add).subscribe(subscriber);
+
+        for (Runnable task; (task = tasks.poll()) != null; ) task.run();
+
+        assertEquals(List.of("next", "next done", "error IllegalArgumentException"), signals);
+    }
+
+    @Test
+    void executorDelivery_receivesAllOps() throws Exception {
+        Document document = Document.create();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+            document.operationFeed(0, executor).subscribe(subscriber);
+
+            type(document, "x".repeat(10_000));
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(10_000, subscriber.received().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package at.felixb.energa.crdt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextExportTest {
+
+    // ASCII, 2-, 3- und 4-Byte-Zeichen, lange genug für mehrere Chunks
+    private static final String SAMPLE = "abc äöü € 日本語 😀 end\n";
+
+    private static CrdtDocument documentWith(String text) {
+        CrdtDocument document = (CrdtDocument) Document.create();
+        OperationFactory.createInsertOp(0, text).transformToInternal(document).forEach(document::apply);
+        return document;
+    }
+
+    @Test
+    void writeTo_writerReceivesVisibleText() throws IOException {
+        CrdtDocument document = documentWith(SAMPLE.repeat(1000));
+        OperationFactory.createDeleteOp(0, 4).transformToInternal(document).forEach(document::apply);
+
+        StringWriter writer = new StringWriter();
+        document.writeTo(writer);
+
+        assertEquals(document.render(), writer.toString());
+    }
+
+    @Test
+    void writeUtf8_streamMatchesStringEncoding() throws IOException {
+        CrdtDocument document = documentWith(SAMPLE.repeat(1000));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.writeUtf8(out);
+
+        assertArrayEquals(document.render().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    void writeUtf8_smallBufferIsResumableAndNeverSplitsCharacters() {
+        CrdtDocument document = documentWith(SAMPLE.repeat(20));
+        int length = document.render().length();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        for (int pos = 0; pos < length; ) {
+            buffer.clear();
+            int next = document.writeUtf8(buffer, pos);
+            assertTrue(next > pos);
+            pos = next;
+            out.write(buffer.array(), 0, buffer.position());
+        }
+
+        assertArrayEquals(document.render().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+    }
+
+    @Test
+    void writeUtf8_bufferTooSmallForNextCharacter_throwsInsteadOfLoopingForever() {
+        CrdtDocument document = documentWith("ab😀c");
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+
+        // 'a' und 'b' passen, das Surrogatpaar braucht 4 Bytes -> Abbruch davor
+        assertEquals(2, document.writeUtf8(buffer, 0));
+        assertEquals(2, buffer.position());
+
+        buffer.clear();
+        assertThrows(IllegalArgumentException.class, () -> document.writeUtf8(buffer, 2));
+        assertEquals(0, buffer.position());
+        // dahinter geht es mit demselben Puffer weiter
+        assertEquals(5, document.writeUtf8(buffer, 4));
+    }
+
+    @Test
+    void lengths_matchWrittenBytes_whenSurrogatesLoseOrRegainTheirPartner() throws IOException {
+        CrdtDocument document = documentWith("a😀b\uDE00c\uD83D");
+        assertLengthsMatchExport(document);
+
+        // Zeichen zwischen die Hälften -> beide einzeln
+        OperationFactory.createInsertOp(2, "x").transformToInternal(document).forEach(document::apply);
+        assertLengthsMatchExport(document);
+        // wieder gelöscht -> wieder ein Paar
+        OperationFactory.createDeleteOp(2, 1).transformToInternal(document).forEach(document::apply);
+        assertLengthsMatchExport(document);
+        // hohe Hälfte gelöscht -> tiefe einzeln; 'b' gelöscht -> zwei tiefe Hälften nebeneinander
+        OperationFactory.createDeleteOp(1, 1).transformToInternal(document).forEach(document::apply);
+        OperationFactory.createDeleteOp(2, 1).transformToInternal(document).forEach(document::apply);
+        assertLengthsMatchExport(document);
+        // neue hohe Hälfte vor der tiefen -> Paar
+        OperationFactory.createInsertOp(1, "\uD83D").transformToInternal(document).forEach(document::apply);
+        assertLengthsMatchExport(document);
+
+        assertLengthsMatchExport((CrdtDocument) Document.fromLog(document.exportSnapshot()));
+    }
+
+    private static void assertLengthsMatchExport(CrdtDocument document) throws IOException {
+        String text = document.render();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.writeUtf8(out);
+
+        assertEquals(out.size(), document.length(OffsetUnit.UTF8), text);
+        assertEquals(text.codePointCount(0, text.length()), document.length(OffsetUnit.CODE_POINT), text);
+        for (int i = 0; i <= text.length(); i++) {
+            boolean insidePair = i > 0 && i < text.length()
+                    && Character.isHighSurrogate(text.charAt(i - 1)) && Character.isLowSurrogate(text.charAt(i));
+            String before = text.substring(0, insidePair ? i - 1 : i);
+            assertEquals(before.getBytes(StandardCharsets.UTF_8).length,
+                    document.convertOffset(i, OffsetUnit.UTF16, OffsetUnit.UTF8), text + " @" + i);
+            assertEquals(before.codePointCount(0, before.length()),
+                    document.convertOffset(i, OffsetUnit.UTF16, OffsetUnit.CODE_POINT), text + " @" + i);
+        }
+    }
+
+    @Test
+    void writeUtf8_loneSurrogate_isReplacedLikeStringEncoding() {
+        CrdtDocument document = documentWith("a\uD83Db\uDE00");
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+
+        assertEquals(4, document.writeUtf8(buffer, 0));
+
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip().get(bytes);
+        assertArrayEquals("a\uD83Db\uDE00".getBytes(StandardCharsets.UTF_8), bytes);
+    }
+}
@@ -0,0 +1,112 @@
+package at.felixb.energa.jmh;
+
+import at.felixb.energa.crdt.BPlusList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BPlusList} on its own, with the degree the linear order cache uses and
+ * {@code tombstoneRatio} of the values invisible.
+ * <br/>
+ * The mutating benchmarks keep the list at its size: {@link #addAndRemove} removes what it
+ * added, {@link #toggleVisible} flips a value and flips it back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class BPlusListBenchmark {
+
+    private static final int DEGREE = 32;
+    private static final int INDEXES = 1 << 10;
+
+    @Param({ "10000", "100000", "1000000" })
+    int size;
+
+    @Param({ "0.0", "0.5" })
+    double tombstoneRatio;
+
+    private BPlusList<Object> list;
+    private Object[] values;
+    private int[] indexes;
+    private int[] visibleIndexes;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        List<Object> all = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            all.add(new Object());
+        }
+        Random random = new Random(Fixtures.SEED);
+        Set<Object> invisible = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object value : all) {
+            if (random.nextDouble() < tombstoneRatio) invisible.add(value);
+        }
+
+        list = new BPlusList<>(DEGREE);
+        list.bulkLoad(all, value -> !invisible.contains(value));
+
+        indexes = Fixtures.randomIndexes(INDEXES, size);
+        visibleIndexes = Fixtures.randomIndexes(INDEXES, Math.max(1, list.visibleSize()));
+        values = new Object[INDEXES];
+        for (int i = 0; i < INDEXES; i++) {
+            values[i] = all.get(indexes[i]);
+        }
+    }
+
+    @Benchmark
+    public Object get() {
+        return list.get(indexes[next++ & (INDEXES - 1)]);
+    }
+
+    @Benchmark
+    public Object getVisible() {
+        return list.getVisible(visibleIndexes[next++ & (INDEXES - 1)]);
+    }
+
+    @Benchmark
+    public int indexOf() {
+        return list.indexOf(values[next++ & (INDEXES - 1)]);
+    }
+
+    @Benchmark
+    public int visibleRank() {
+        return list.visibleRank(values[next++ & (INDEXES - 1)]);
+    }
+
+    @Benchmark
+    public boolean toggleVisible() {
+        Object value = values[next++ & (INDEXES - 1)];
+        boolean visible = list.isVisible(value);
+        list.setVisible(value, !visible);
+        return list.setVisible(value, visible);
+    }
+
+    @Benchmark
+    public boolean addAndRemove() {
+        Object value = new Object();
+        list.add(indexes[next++ & (INDEXES - 1)], value);
+        return list.remove(value);
+    }
+}
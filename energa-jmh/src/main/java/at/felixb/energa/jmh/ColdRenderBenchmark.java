@@ -0,0 +1,69 @@
+package at.felixb.energa.jmh;
+
+import at.felixb.energa.crdt.CrdtDocument;
+import at.felixb.energa.crdt.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full render of a document without cached text or leaf chunks, e.g. the first render
+ * after loading.
+ * <br/>
+ * Every invocation renders a fresh fork, forking costs about as much as rendering, so this
+ * runs in single shot mode with many iterations instead of per-invocation setup in a
+ * timed loop.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class ColdRenderBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    int size;
+
+    @Param({ "1", "4", "16" })
+    int sites;
+
+    @Param({ "0.0", "0.5" })
+    double tombstoneRatio;
+
+    private CrdtDocument origin;
+    private CrdtDocument document;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        origin = (CrdtDocument) Document.fromLog(Fixtures.log(size, sites, tombstoneRatio));
+    }
+
+    // the origin is never rendered, so its forks start without render cache
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        document = origin.fork();
+    }
+
+    @Benchmark
+    public String render() {
+        return document.render();
+    }
+
+    @Benchmark
+    public String renderParallel() {
+        return document.render(ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,132 @@
+package at.felixb.energa.jmh;
+
+import at.felixb.energa.crdt.Anchor;
+import at.felixb.energa.crdt.CrdtDocument;
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.crdt.Gravity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Core operations of {@link CrdtDocument} on a document of {@code size} nodes written by
+ * {@code sites} sites, of which {@code tombstoneRatio} are deleted.
+ * <p>
+ * Each iteration works on a fresh {@link CrdtDocument#fork() fork} of the same document,
+ * so the inserts of {@link #applyRemoteInsert} and {@link #renderAfterEdit} only grow it
+ * within one iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class DocumentBenchmark {
+
+    private static final int INDEXES = 1 << 10;
+
+    @Param({ "10000", "100000", "1000000" })
+    int size;
+
+    @Param({ "1", "4", "16" })
+    int sites;
+
+    @Param({ "0.0", "0.5" })
+    double tombstoneRatio;
+
+    private List<CrdtOperation> log;
+    private CrdtDocument origin;
+    private CrdtNodeId[] parents;
+
+    private CrdtDocument document;
+    private UUID remoteSite;
+    private int remoteCounter;
+    private int[] visibleIndexes;
+    private Anchor[] anchors;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        log = Fixtures.log(size, sites, tombstoneRatio);
+        origin = (CrdtDocument) Document.fromLog(log);
+
+        List<CrdtNodeId> nodeIds = new ArrayList<>(size);
+        origin.streamAll().forEach(node -> nodeIds.add(node.getNodeId()));
+        int[] picks = Fixtures.randomIndexes(INDEXES, nodeIds.size());
+        parents = new CrdtNodeId[INDEXES];
+        for (int i = 0; i < INDEXES; i++) {
+            parents[i] = nodeIds.get(picks[i]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        document = origin.fork();
+        remoteSite = UUID.randomUUID();
+        remoteCounter = 0;
+
+        int visibleLength = document.render().length();
+        visibleIndexes = Fixtures.randomIndexes(INDEXES, visibleLength + 1);
+        anchors = new Anchor[INDEXES];
+        for (int i = 0; i < INDEXES; i++) {
+            anchors[i] = document.createAnchor(visibleIndexes[i], Gravity.RIGHT);
+        }
+    }
+
+    @Benchmark
+    public Document fromLog() {
+        return Document.fromLog(log);
+    }
+
+    /**
+     * A remote insert under a random existing node.
+     */
+    @Benchmark
+    public long applyRemoteInsert() {
+        document.apply(nextRemoteInsert());
+        return document.getRevision();
+    }
+
+    /**
+     * Render after one remote insert, the way a server re-renders per change.
+     */
+    @Benchmark
+    public String renderAfterEdit() {
+        document.apply(nextRemoteInsert());
+        return document.render();
+    }
+
+    @Benchmark
+    public Anchor createAnchor() {
+        return document.createAnchor(visibleIndexes[next++ & (INDEXES - 1)], Gravity.RIGHT);
+    }
+
+    @Benchmark
+    public int resolveAnchor() {
+        return document.resolveAnchor(anchors[next++ & (INDEXES - 1)]);
+    }
+
+    // #### Private
+
+    private CrdtInsertOp nextRemoteInsert() {
+        return new CrdtInsertOp(parents[next++ & (INDEXES - 1)], new CrdtNodeId(remoteSite, ++remoteCounter), 'x');
+    }
+}
@@ -0,0 +1,79 @@
+package at.felixb.energa.jmh;
+
+import at.felixb.energa.crdt.CrdtDeleteOp;
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Deterministic operation logs for the benchmarks, same seed -> same document on every
+ * machine.
+ */
+final class Fixtures {
+
+    static final long SEED = 42L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Log of {@code size} inserts under random parents, spread over {@code sites} sites,
+     * followed by stamped deletes of {@code tombstoneRatio * size} distinct nodes.
+     */
+    static List<CrdtOperation> log(int size, int sites, double tombstoneRatio) {
+        if (size < 1 || sites < 1) {
+            throw new IllegalArgumentException("size and sites must be >= 1");
+        }
+        if (tombstoneRatio < 0.0 || tombstoneRatio > 1.0) {
+            throw new IllegalArgumentException("tombstoneRatio must be within [0, 1]");
+        }
+
+        Random random = new Random(SEED);
+        UUID[] siteIds = new UUID[sites];
+        int[] counters = new int[sites];
+        for (int i = 0; i < sites; i++) {
+            siteIds[i] = new UUID(SEED, i + 1);
+        }
+
+        List<CrdtNodeId> nodeIds = new ArrayList<>(size + 1);
+        nodeIds.add(new CrdtNodeId(Document.ROOT_SITE_ID, 0));
+
+        List<CrdtOperation> log = new ArrayList<>(size + (int) (size * tombstoneRatio));
+        for (int i = 0; i < size; i++) {
+            int site = random.nextInt(sites);
+            CrdtNodeId parentId = nodeIds.get(random.nextInt(nodeIds.size()));
+            CrdtNodeId nodeId = new CrdtNodeId(siteIds[site], ++counters[site]);
+            nodeIds.add(nodeId);
+            log.add(new CrdtInsertOp(parentId, nodeId, (char) ('a' + random.nextInt(26))));
+        }
+
+        List<CrdtNodeId> deleted = new ArrayList<>(nodeIds.subList(1, nodeIds.size()));
+        Collections.shuffle(deleted, random);
+        for (CrdtNodeId nodeId : deleted.subList(0, (int) (size * tombstoneRatio))) {
+            int site = random.nextInt(sites);
+            log.add(new CrdtDeleteOp(nodeId, new CrdtNodeId(siteIds[site], ++counters[site])));
+        }
+
+        return log;
+    }
+
+    /**
+     * {@code count} random ints in [0, bound), benchmarks cycle through them instead of
+     * calling the random generator inside the measured code.
+     */
+    static int[] randomIndexes(int count, int bound) {
+        Random random = new Random(SEED);
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            indexes[i] = random.nextInt(bound);
+        }
+        return indexes;
+    }
+}
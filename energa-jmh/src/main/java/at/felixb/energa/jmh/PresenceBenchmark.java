@@ -0,0 +1,73 @@
+package at.felixb.energa.jmh;
+
+import at.felixb.energa.crdt.CrdtDocument;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.presence.PresenceRegistry;
+import at.felixb.energa.presence.RawCaret;
+import at.felixb.energa.presence.RawSelection;
+import at.felixb.energa.presence.ResolvedState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PresenceRegistry#getResolvedState()} with {@code sessions} sessions, each with a
+ * caret and a selection, on a document of {@code size} nodes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class PresenceBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    int size;
+
+    @Param({ "4" })
+    int sites;
+
+    @Param({ "0.0", "0.5" })
+    double tombstoneRatio;
+
+    @Param({ "10", "100" })
+    int sessions;
+
+    private PresenceRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CrdtDocument document = (CrdtDocument) Document.fromLog(Fixtures.log(size, sites, tombstoneRatio));
+        int visibleLength = document.render().length();
+        int[] positions = Fixtures.randomIndexes(2 * sessions, visibleLength + 1);
+
+        registry = PresenceRegistry.create(document);
+        for (int i = 0; i < sessions; i++) {
+            String sessionId = "session-" + i;
+            int caret = positions[2 * i];
+            int end = Math.min(visibleLength, caret + 1 + positions[2 * i + 1] % 100);
+
+            registry.addPresence(sessionId);
+            registry.updatePresence(sessionId, 1, null,
+                    List.of(new RawCaret(caret, 1), new RawSelection(caret, 1, end, -1, 1)));
+        }
+    }
+
+    @Benchmark
+    public ResolvedState getResolvedState() {
+        return registry.getResolvedState();
+    }
+}
@@ -0,0 +1,336 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.CrdtDocument;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.crdt.ReplicaSnapshot;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Collection of documents that are loaded lazily and kept on the heap within a byte budget.
+ * <p>
+ * Documents are only accessed through {@link #withDocument}, which runs the action under
+ * the lock of the document's stripe (lock striping by id hash), so actions on documents
+ * of different stripes never contend. A document that is not resident is loaded from the
+ * {@link DocumentStore}, or created empty. Loading (store I/O and replay) runs without the
+ * stripe lock, so it does not hold up the other documents of the stripe; concurrent
+ * accesses to the same document wait for one shared load.
+ * <p>
+ * After each access the estimated footprint of the document is updated. When the resident
+ * documents exceed the budget, the least recently used ones are saved to the store and
+ * dropped until the total is 10% below the budget. Documents that are in use at that
+ * moment are skipped.
+ * <br/>
+ * A reloaded document continues as the same replica (see {@link Document#fromReplica}): same
+ * site id and revision, but its log starts after the snapshot, so a client behind it gets an
+ * {@link IllegalStateException} from {@code getOperationsSince} and re-syncs from a snapshot.
+ * Operations still waiting for their dependencies are part of the snapshot and keep waiting
+ * after the reload. The ids of garbage collected nodes are not (see
+ * {@link CrdtDocument#exportSnapshot()}).
+ */
+public final class DocumentRegistry {
+
+    // measured with benchmarkLogCompaction: ~180 bytes per node, ~45 bytes per logged op
+    private static final long BYTES_PER_NODE = 180;
+    private static final long BYTES_PER_LOGGED_OP = 45;
+    private static final long BYTES_PER_DOCUMENT = 4_096;
+
+    private final DocumentStore store;
+    private final long maxResidentBytes;
+    private final ToLongFunction<CrdtDocument> footprintEstimator;
+    private final ReentrantLock[] stripes;
+
+    private final Map<String, Entry> resident = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final AtomicLong accessClock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder evictionFailures = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+    private final AtomicLong maxLoadNanos = new AtomicLong();
+
+    public DocumentRegistry(DocumentStore store, long maxResidentBytes) {
+        this(store, maxResidentBytes, 64, DocumentRegistry::estimateFootprint);
+    }
+
+    /**
+     * @param store              keeps evicted documents
+     * @param maxResidentBytes   budget for the estimated footprint of all resident documents
+     * @param lockStripes        number of locks the document ids are spread over
+     * @param footprintEstimator estimated heap bytes of a document
+     */
+    public DocumentRegistry(DocumentStore store, long maxResidentBytes, int lockStripes,
+                            ToLongFunction<CrdtDocument> footprintEstimator) {
+        if (store == null || footprintEstimator == null) {
+            throw new IllegalArgumentException("store and footprintEstimator must not be null");
+        }
+        if (maxResidentBytes < 0) {
+            throw new IllegalArgumentException("maxResidentBytes must be >= 0");
+        }
+        if (lockStripes < 1) {
+            throw new IllegalArgumentException("lockStripes must be >= 1");
+        }
+
+        this.store = store;
+        this.maxResidentBytes = maxResidentBytes;
+        this.footprintEstimator = footprintEstimator;
+        this.stripes = new ReentrantLock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Rough heap footprint of a document: its nodes (tombstones included) and its
+     * operation log since the last compaction.
+     */
+    public static long estimateFootprint(CrdtDocument document) {
+        long loggedOps = document.getRevision() - document.getBaselineRevision();
+        return BYTES_PER_DOCUMENT + document.getNodeCount() * BYTES_PER_NODE + loggedOps * BYTES_PER_LOGGED_OP;
+    }
+
+    /**
+     * Runs the action on the document, loading it first if it is not resident. The action
+     * has exclusive access to the document and must not keep the reference.
+     */
+    public <R> R withDocument(String documentId, Function<? super CrdtDocument, R> action) {
+        R result;
+
+        boolean missed = false;
+        ReentrantLock lock = stripeOf(documentId);
+        while (true) {
+            if (!resident.containsKey(documentId)) {
+                missed = true;
+                loadResident(documentId);
+            }
+
+            lock.lock();
+            try {
+                Entry entry = resident.get(documentId);
+                if (entry == null) continue; // evicted again before we got the lock
+
+                (missed ? misses : hits).increment();
+                entry.lastAccess = accessClock.incrementAndGet();
+                try {
+                    result = action.apply(entry.document);
+                } finally {
+                    long footprint = footprintEstimator.applyAsLong(entry.document);
+                    residentBytes.addAndGet(footprint - entry.footprint);
+                    entry.footprint = footprint;
+                }
+                break;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if (residentBytes.get() > maxResidentBytes) evictOverBudget();
+        return result;
+    }
+
+    /**
+     * Loads the document into the heap without running an action on it, e.g. on startup.
+     * Does not count as an access and does not evict.
+     *
+     * @return the time the load took, empty if the document was already resident
+     */
+    public Optional<Duration> preload(String documentId) {
+        if (resident.containsKey(documentId)) return Optional.empty();
+
+        Entry entry = loadResident(documentId);
+        return entry == null ? Optional.empty() : Optional.of(Duration.ofNanos(entry.loadNanos));
+    }
+
+    /**
+     * @return true while the resident documents are below the budget
+     */
+    public boolean hasCapacity() {
+        return residentBytes.get() < maxResidentBytes;
+    }
+
+    public boolean isResident(String documentId) {
+        return resident.containsKey(documentId);
+    }
+
+    /**
+     * Saves the document to the store and drops it from the heap.
+     *
+     * @return false if it was not resident or is in use by another thread
+     */
+    public boolean evict(String documentId) {
+        ReentrantLock lock = stripeOf(documentId);
+        // never evict a document an enclosing withDocument on this thread is working on
+        if (lock.isHeldByCurrentThread() || !lock.tryLock()) return false;
+        try {
+            Entry entry = resident.get(documentId);
+            if (entry == null) return false;
+
+            store.save(documentId, entry.document.exportReplica());
+            resident.remove(documentId);
+            residentBytes.addAndGet(-entry.footprint);
+            evictions.increment();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts every resident document that is not in use, e.g. on shutdown.
+     */
+    public void evictAll() {
+        for (String documentId : new ArrayList<>(resident.keySet())) {
+            evict(documentId);
+        }
+    }
+
+    public RegistryMetrics getMetrics() {
+        return new RegistryMetrics(hits.sum(), misses.sum(), loads.sum(), evictions.sum(),
+                evictionFailures.sum(),
+                Duration.ofNanos(totalLoadNanos.sum()), Duration.ofNanos(maxLoadNanos.get()),
+                resident.size(), residentBytes.get());
+    }
+
+    DocumentStore getStore() {
+        return store;
+    }
+
+    // #### Private
+
+    private ReentrantLock stripeOf(String documentId) {
+        return stripes[Math.floorMod(documentId.hashCode(), stripes.length)];
+    }
+
+    /**
+     * Makes the document resident, loading it without the stripe lock. Only one thread
+     * loads a document at a time, the others wait for its result. The load starts after
+     * checking under the stripe lock that the document is not resident, i.e. after its
+     * last eviction saved it, and no one can evict it before it is installed.
+     *
+     * @return the entry this call loaded, null if another thread made it resident
+     */
+    private Entry loadResident(String documentId) {
+        CompletableFuture<Entry> own = new CompletableFuture<>();
+        CompletableFuture<Entry> running = loading.putIfAbsent(documentId, own);
+        if (running != null) {
+            awaitLoad(running);
+            return null;
+        }
+
+        ReentrantLock lock = stripeOf(documentId);
+        try {
+            lock.lock();
+            try {
+                if (resident.containsKey(documentId)) {
+                    own.complete(null);
+                    return null;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            Entry entry = load(documentId);
+
+            lock.lock();
+            try {
+                entry.lastAccess = accessClock.incrementAndGet();
+                resident.put(documentId, entry);
+                residentBytes.addAndGet(entry.footprint);
+            } finally {
+                lock.unlock();
+            }
+            own.complete(entry);
+            return entry;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(documentId, own);
+        }
+    }
+
+    private static void awaitLoad(CompletableFuture<Entry> running) {
+        try {
+            running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    // called without any lock, only by the thread that owns the document's loading future
+    private Entry load(String documentId) {
+        long start = System.nanoTime();
+
+        Optional<ReplicaSnapshot> snapshot = store.load(documentId);
+        CrdtDocument document = (CrdtDocument) snapshot.map(Document::fromReplica).orElseGet(Document::create);
+
+        long nanos = System.nanoTime() - start;
+        loads.increment();
+        totalLoadNanos.add(nanos);
+        maxLoadNanos.accumulateAndGet(nanos, Math::max);
+
+        return new Entry(document, footprintEstimator.applyAsLong(document), nanos);
+    }
+
+    // one evicting thread at a time, the others just go on
+    private void evictOverBudget() {
+        if (!evictionLock.tryLock()) return;
+        try {
+            long target = maxResidentBytes - maxResidentBytes / 10;
+
+            // copy the access times, they keep changing while we sort
+            List<Candidate> byAge = new ArrayList<>(resident.size());
+            resident.forEach((id, entry) -> byAge.add(new Candidate(id, entry.lastAccess)));
+            byAge.sort(Comparator.comparingLong(Candidate::lastAccess));
+
+            for (Candidate candidate : byAge) {
+                if (residentBytes.get() <= target) break;
+                try {
+                    evict(candidate.documentId());
+                } catch (RuntimeException e) {
+                    // keep the document resident, the store may recover later
+                    evictionFailures.increment();
+                    break;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private record Candidate(String documentId, long lastAccess) {
+    }
+
+    private static final class Entry {
+        final CrdtDocument document;
+        volatile long lastAccess;
+        final long loadNanos;
+        long footprint;               // guarded by the stripe lock
+
+        Entry(CrdtDocument document, long footprint, long loadNanos) {
+            this.document = document;
+            this.footprint = footprint;
+            this.loadNanos = loadNanos;
+        }
+    }
+}
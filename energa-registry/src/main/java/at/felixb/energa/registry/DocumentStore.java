@@ -0,0 +1,37 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.CrdtDocument;
+import at.felixb.energa.crdt.ReplicaSnapshot;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where the {@link DocumentRegistry} keeps evicted documents, as the
+ * {@link CrdtDocument#exportReplica() replica snapshot}.
+ * <br/>
+ * Implementations must be thread-safe; the registry never saves or loads the same
+ * document id from two threads at once.
+ */
+public interface DocumentStore {
+
+    /**
+     * @return the snapshot saved last for the id, empty if there is none
+     */
+    Optional<ReplicaSnapshot> load(String documentId);
+
+    /**
+     * Replaces the snapshot of the id.
+     */
+    void save(String documentId, ReplicaSnapshot snapshot);
+
+    /**
+     * Ids of all saved documents, the most recently saved first. Used by the
+     * {@link StartupLoader} to restore active documents before idle ones.
+     *
+     * @return empty if the store cannot list its documents
+     */
+    default List<String> listByRecentActivity() {
+        return List.of();
+    }
+}
@@ -0,0 +1,101 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.ReplicaSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keeps one binary snapshot file per document in a local directory. Files are replaced
+ * atomically, a crash during save leaves the previous snapshot intact.
+ */
+public final class FileDocumentStore implements DocumentStore {
+
+    private static final String SUFFIX = ".snapshot";
+
+    private final Path directory;
+
+    public FileDocumentStore(Path directory) {
+        try {
+            this.directory = Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<ReplicaSnapshot> load(String documentId) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fileOf(documentId))))) {
+            return Optional.of(OperationCodec.read(in));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Loading snapshot of " + documentId + " failed", e);
+        }
+    }
+
+    @Override
+    public void save(String documentId, ReplicaSnapshot snapshot) {
+        Path file = fileOf(documentId);
+        try {
+            Path tmp = Files.createTempFile(directory, "save", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                OperationCodec.write(snapshot, out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Saving snapshot of " + documentId + " failed", e);
+        }
+    }
+
+    /**
+     * Orders by the modification time of the snapshot files.
+     */
+    @Override
+    public List<String> listByRecentActivity() {
+        List<Saved> saved = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                saved.add(new Saved(idOf(file), Files.getLastModifiedTime(file)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Listing snapshots in " + directory + " failed", e);
+        }
+
+        saved.sort(Comparator.comparing(Saved::modified).reversed());
+        return saved.stream().map(Saved::documentId).toList();
+    }
+
+    // #### Private
+
+    // ids are arbitrary strings -> URL-safe Base64 file names
+    private Path fileOf(String documentId) {
+        String name = Base64.getUrlEncoder().withoutPadding().encodeToString(documentId.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(name + SUFFIX);
+    }
+
+    private static String idOf(Path file) {
+        String name = file.getFileName().toString();
+        byte[] id = Base64.getUrlDecoder().decode(name.substring(0, name.length() - SUFFIX.length()));
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private record Saved(String documentId, FileTime modified) {
+    }
+}
@@ -0,0 +1,44 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.ReplicaSnapshot;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps snapshots on the heap. For tests and for hosts that persist documents elsewhere.
+ */
+public final class InMemoryDocumentStore implements DocumentStore {
+
+    private final Map<String, Saved> snapshots = new ConcurrentHashMap<>();
+    private final AtomicLong saveClock = new AtomicLong();
+
+    @Override
+    public Optional<ReplicaSnapshot> load(String documentId) {
+        return Optional.ofNullable(snapshots.get(documentId)).map(Saved::snapshot);
+    }
+
+    @Override
+    public void save(String documentId, ReplicaSnapshot snapshot) {
+        snapshots.put(documentId, new Saved(snapshot, saveClock.incrementAndGet()));
+    }
+
+    @Override
+    public List<String> listByRecentActivity() {
+        return snapshots.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Saved> entry) -> entry.getValue().savedAt()).reversed())
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    private record Saved(ReplicaSnapshot snapshot, long savedAt) {
+    }
+}
@@ -0,0 +1,99 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.CrdtDeleteOp;
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.ReplicaSnapshot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Binary format of a snapshot: magic, version, the replica's site id (two longs),
+ * revision and next counter, op count, then per op a type byte and its node ids (UUID
+ * as two longs plus counter).
+ * <br/>
+ * Version 1 files have no replica header; they are read as {@link ReplicaSnapshot#of}.
+ */
+final class OperationCodec {
+
+    private static final int MAGIC = 0x454E5247; // "ENRG"
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_REPLICA = 1;
+
+    private static final byte INSERT = 0;
+    private static final byte DELETE = 1;
+    private static final byte STAMPED_DELETE = 2;
+
+    private OperationCodec() {
+    }
+
+    static void write(ReplicaSnapshot snapshot, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(snapshot.siteId().getMostSignificantBits());
+        out.writeLong(snapshot.siteId().getLeastSignificantBits());
+        out.writeLong(snapshot.revision());
+        out.writeInt(snapshot.nextCounter());
+
+        List<CrdtOperation> operations = snapshot.operations();
+        out.writeInt(operations.size());
+
+        for (CrdtOperation operation : operations) {
+            if (operation instanceof CrdtInsertOp insertOp) {
+                out.writeByte(INSERT);
+                writeNodeId(insertOp.getParentNodeId(), out);
+                writeNodeId(insertOp.getInsertNodeId(), out);
+                out.writeChar(insertOp.getCharacter());
+            } else if (operation instanceof CrdtDeleteOp deleteOp) {
+                out.writeByte(deleteOp.getStamp() == null ? DELETE : STAMPED_DELETE);
+                writeNodeId(deleteOp.getDeleteNodeId(), out);
+                if (deleteOp.getStamp() != null) writeNodeId(deleteOp.getStamp(), out);
+            } else {
+                throw new IllegalArgumentException("Unsupported op type: " + operation.getClass());
+            }
+        }
+    }
+
+    static ReplicaSnapshot read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a document snapshot");
+        int version = in.readInt();
+        if (version == VERSION_WITHOUT_REPLICA) return ReplicaSnapshot.of(readOperations(in));
+        if (version != VERSION) throw new IOException("Unsupported snapshot version: " + version);
+
+        UUID siteId = new UUID(in.readLong(), in.readLong());
+        long revision = in.readLong();
+        int nextCounter = in.readInt();
+        return new ReplicaSnapshot(siteId, revision, nextCounter, readOperations(in));
+    }
+
+    private static List<CrdtOperation> readOperations(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<CrdtOperation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            switch (type) {
+                case INSERT -> operations.add(new CrdtInsertOp(readNodeId(in), readNodeId(in), in.readChar()));
+                case DELETE -> operations.add(new CrdtDeleteOp(readNodeId(in)));
+                case STAMPED_DELETE -> operations.add(new CrdtDeleteOp(readNodeId(in), readNodeId(in)));
+                default -> throw new IOException("Unknown op type: " + type);
+            }
+        }
+        return operations;
+    }
+
+    private static void writeNodeId(CrdtNodeId nodeId, DataOutputStream out) throws IOException {
+        out.writeLong(nodeId.siteId().getMostSignificantBits());
+        out.writeLong(nodeId.siteId().getLeastSignificantBits());
+        out.writeInt(nodeId.counter());
+    }
+
+    private static CrdtNodeId readNodeId(DataInputStream in) throws IOException {
+        return new CrdtNodeId(new UUID(in.readLong(), in.readLong()), in.readInt());
+    }
+}
@@ -0,0 +1,30 @@
+package at.felixb.energa.registry;
+
+import java.time.Duration;
+
+/**
+ * Point-in-time counters of a {@link DocumentRegistry}.
+ *
+ * @param hits              accesses to a resident document
+ * @param misses            accesses that had to load (or create) the document
+ * @param loads             documents loaded (or created), by misses and by preloading
+ * @param evictions         documents saved to the store and dropped from the heap
+ * @param evictionFailures  evictions that failed to save, the document stayed resident
+ * @param totalLoadTime     time spent loading, summed over all loads
+ * @param maxLoadTime       slowest single load
+ * @param residentDocuments documents currently on the heap
+ * @param residentBytes     estimated heap footprint of the resident documents
+ */
+public record RegistryMetrics(long hits, long misses, long loads, long evictions, long evictionFailures,
+                              Duration totalLoadTime, Duration maxLoadTime,
+                              int residentDocuments, long residentBytes) {
+
+    public double hitRate() {
+        long accesses = hits + misses;
+        return accesses == 0 ? 0.0 : (double) hits / accesses;
+    }
+
+    public Duration averageLoadTime() {
+        return loads == 0 ? Duration.ZERO : totalLoadTime.dividedBy(loads);
+    }
+}
@@ -0,0 +1,103 @@
+package at.felixb.energa.registry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Restores many documents into a {@link DocumentRegistry} in parallel, e.g. on the cold
+ * start of a node.
+ * <p>
+ * The ids are handed out in the given order to a bounded pool of loading threads, so the
+ * first ids are loaded first. Loading stops as soon as the registry budget is reached;
+ * the rest stays in the store and is loaded on first access. Each load replays the
+ * snapshot with {@code Document.fromLog}, which is independent per
+ * document, so the cold start scales with the number of cores.
+ */
+public final class StartupLoader {
+
+    private final DocumentRegistry registry;
+    private final int parallelism;
+
+    public StartupLoader(DocumentRegistry registry) {
+        this(registry, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StartupLoader(DocumentRegistry registry, int parallelism) {
+        if (registry == null) {
+            throw new IllegalArgumentException("registry must not be null");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+
+        this.registry = registry;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Loads the documents of the registry's store, the most recently active first.
+     */
+    public StartupReport loadRecentlyActive() {
+        return load(registry.getStore().listByRecentActivity());
+    }
+
+    /**
+     * Loads the documents in the given order of priority. Blocks until all loading
+     * threads are done; a failing document is reported and does not stop the others.
+     */
+    public StartupReport load(List<String> documentIds) {
+        String[] ids = documentIds.toArray(new String[0]);
+        Duration[] loadTimes = new Duration[ids.length];
+        RuntimeException[] failures = new RuntimeException[ids.length];
+        AtomicInteger next = new AtomicInteger();
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<?>> workers = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(pool.submit(() -> drain(ids, loadTimes, failures, next)));
+            }
+            for (ForkJoinTask<?> worker : workers) {
+                worker.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Duration wallTime = Duration.ofNanos(System.nanoTime() - start);
+
+        Map<String, Duration> loaded = new LinkedHashMap<>();
+        Map<String, RuntimeException> failed = new LinkedHashMap<>();
+        List<String> skipped = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (loadTimes[i] != null) loaded.put(ids[i], loadTimes[i]);
+            else if (failures[i] != null) failed.put(ids[i], failures[i]);
+            else skipped.add(ids[i]);
+        }
+        return new StartupReport(loaded, failed, skipped, wallTime, parallelism);
+    }
+
+    // #### Private
+
+    // each thread claims the next id until all are claimed or the budget is reached
+    private void drain(String[] ids, Duration[] loadTimes, RuntimeException[] failures, AtomicInteger next) {
+        while (registry.hasCapacity()) {
+            int index = next.getAndIncrement();
+            if (index >= ids.length) return;
+
+            try {
+                Optional<Duration> loadTime = registry.preload(ids[index]);
+                loadTimes[index] = loadTime.orElse(null);
+            } catch (RuntimeException e) {
+                failures[index] = e;
+            }
+        }
+    }
+}
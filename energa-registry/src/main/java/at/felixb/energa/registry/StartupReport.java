@@ -0,0 +1,43 @@
+package at.felixb.energa.registry;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a {@link StartupLoader} run.
+ *
+ * @param loadTimes   load time per restored document, in load order
+ * @param failures    documents whose snapshot could not be loaded
+ * @param skipped     documents not loaded because the budget was reached or they were
+ *                    already resident
+ * @param wallTime    time from start to the last load
+ * @param parallelism number of loading threads
+ */
+public record StartupReport(Map<String, Duration> loadTimes, Map<String, RuntimeException> failures,
+                            List<String> skipped, Duration wallTime, int parallelism) {
+
+    public int loadedCount() {
+        return loadTimes.size();
+    }
+
+    /**
+     * Load time summed over all documents; divided by {@link #wallTime} it gives the
+     * effective speedup of the parallel load.
+     */
+    public Duration totalLoadTime() {
+        return loadTimes.values().stream().reduce(Duration.ZERO, Duration::plus);
+    }
+
+    /**
+     * @return the ids of the {@code count} slowest documents, slowest first
+     */
+    public List<String> slowest(int count) {
+        return loadTimes.entrySet().stream()
+                .sorted(Map.Entry.<String, Duration>comparingByValue(Comparator.reverseOrder()))
+                .limit(count)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+}
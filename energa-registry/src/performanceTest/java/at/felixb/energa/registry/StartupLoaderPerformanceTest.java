@@ -0,0 +1,67 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.crdt.ReplicaSnapshot;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+@Tag("perf")
+public class StartupLoaderPerformanceTest {
+
+    private static final int DOCUMENTS = 5_000;
+    private static final int OPS_PER_DOCUMENT = 200;
+    private static final long RANDOM_SEED = 42L;
+
+    // zufällige Einfügungen, jede hinter einem zufälligen früheren Knoten
+    private static ReplicaSnapshot randomSnapshot(Random random) {
+        UUID site = new UUID(random.nextLong(), random.nextLong());
+        List<CrdtNodeId> nodes = new ArrayList<>(OPS_PER_DOCUMENT + 1);
+        nodes.add(new CrdtNodeId(Document.ROOT_SITE_ID, 0));
+        List<CrdtOperation> operations = new ArrayList<>(OPS_PER_DOCUMENT);
+        for (int i = 1; i <= OPS_PER_DOCUMENT; i++) {
+            CrdtNodeId id = new CrdtNodeId(site, i);
+            operations.add(new CrdtInsertOp(nodes.get(random.nextInt(nodes.size())), id,
+                    (char) ('a' + random.nextInt(26))));
+            nodes.add(id);
+        }
+        return ReplicaSnapshot.of(operations);
+    }
+
+    private static void run(FileDocumentStore store, int parallelism, String label) {
+        DocumentRegistry registry = new DocumentRegistry(store, Long.MAX_VALUE);
+        StartupReport report = new StartupLoader(registry, parallelism).loadRecentlyActive();
+        if (report.loadedCount() != DOCUMENTS) throw new AssertionError("loaded " + report.loadedCount());
+
+        double seconds = report.wallTime().toNanos() / 1e9;
+        System.out.printf(Locale.ROOT,
+                "%-28s threads=%2d | %5d docs in %6.2f s = %7.0f docs/s | avg load %6.1f µs | max %7.1f µs | speedup %4.2fx%n",
+                label, parallelism, report.loadedCount(), seconds, report.loadedCount() / seconds,
+                registry.getMetrics().averageLoadTime().toNanos() / 1e3,
+                registry.getMetrics().maxLoadTime().toNanos() / 1e3,
+                (double) report.totalLoadTime().toNanos() / report.wallTime().toNanos());
+    }
+
+    @Test
+    void benchmarkColdStartOfFiveThousandDocuments(@TempDir Path directory) {
+        FileDocumentStore store = new FileDocumentStore(directory);
+        Random random = new Random(RANDOM_SEED);
+        for (int i = 0; i < DOCUMENTS; i++) store.save("doc-" + i, randomSnapshot(random));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        run(store, 1, "warmup");
+        run(store, 1, "cold start sequential");
+        run(store, cores, "cold start parallel");
+        run(store, 2 * cores, "cold start 2x oversubscribed");
+    }
+}
@@ -0,0 +1,271 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.CrdtDeleteOp;
+import at.felixb.energa.crdt.CrdtDocument;
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.crdt.ReplicaSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentRegistryTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static CrdtNodeId rootId() {
+        return new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+    }
+
+    // hängt den Text als Kette hinter die Wurzel, Zähler ab firstCounter
+    private static void type(CrdtDocument document, String text, int firstCounter) {
+        CrdtNodeId parent = rootId();
+        for (int i = 0; i < text.length(); i++) {
+            CrdtNodeId id = new CrdtNodeId(SITE, firstCounter + i);
+            document.apply(new CrdtInsertOp(parent, id, text.charAt(i)));
+            parent = id;
+        }
+    }
+
+    // fester Footprint von 100 Bytes pro Dokument
+    private static DocumentRegistry registry(DocumentStore store, long maxResidentBytes) {
+        return new DocumentRegistry(store, maxResidentBytes, 8, document -> 100);
+    }
+
+    @Test
+    void unknownDocument_isCreatedEmpty_andStaysResident() {
+        DocumentRegistry registry = registry(new InMemoryDocumentStore(), 1_000);
+
+        registry.withDocument("a", document -> {
+            type(document, "hello", 1);
+            return null;
+        });
+
+        assertEquals("hello", registry.withDocument("a", Document::render));
+        RegistryMetrics metrics = registry.getMetrics();
+        assertEquals(1, metrics.hits());
+        assertEquals(1, metrics.misses());
+        assertEquals(0.5, metrics.hitRate());
+        assertEquals(1, metrics.residentDocuments());
+        assertEquals(100, metrics.residentBytes());
+    }
+
+    @Test
+    void overBudget_evictsLeastRecentlyUsed_andReloadsTransparently() {
+        InMemoryDocumentStore store = new InMemoryDocumentStore();
+        DocumentRegistry registry = registry(store, 300);
+
+        for (String id : List.of("a", "b", "c")) {
+            registry.withDocument(id, document -> {
+                type(document, "text of " + id, 1);
+                return null;
+            });
+        }
+        registry.withDocument("a", Document::render); // a zuletzt benutzt -> b ist am ältesten
+
+        registry.withDocument("d", document -> null); // 400 > 300 -> bis 270 räumen
+
+        assertTrue(registry.isResident("a"));
+        assertFalse(registry.isResident("b"));
+        assertFalse(registry.isResident("c"));
+        assertTrue(registry.isResident("d"));
+        assertEquals(2, store.size());
+        assertEquals(200, registry.getMetrics().residentBytes());
+
+        assertEquals("text of b", registry.withDocument("b", Document::render));
+        assertEquals(2, registry.getMetrics().evictions());
+    }
+
+    @Test
+    void evictionFailure_keepsDocumentResident() {
+        DocumentStore failing = new DocumentStore() {
+            @Override
+            public Optional<ReplicaSnapshot> load(String documentId) {
+                return Optional.empty();
+            }
+
+            @Override
+            public void save(String documentId, ReplicaSnapshot snapshot) {
+                throw new IllegalStateException("disk full");
+            }
+        };
+        DocumentRegistry registry = registry(failing, 150);
+
+        registry.withDocument("a", document -> null);
+        registry.withDocument("b", document -> null);
+
+        assertTrue(registry.isResident("a"));
+        assertTrue(registry.isResident("b"));
+        assertEquals(1, registry.getMetrics().evictionFailures());
+    }
+
+    @Test
+    void fileStore_roundTripsInsertsAndStampedDeletes(@TempDir Path directory) {
+        FileDocumentStore store = new FileDocumentStore(directory);
+        DocumentRegistry registry = new DocumentRegistry(store, Long.MAX_VALUE);
+
+        String id = "docs/ä ö/1"; // beliebige Ids als Dateinamen
+        registry.withDocument(id, document -> {
+            type(document, "abcdef", 1);
+            document.apply(new CrdtDeleteOp(new CrdtNodeId(SITE, 2), new CrdtNodeId(SITE, 100)));
+            document.apply(new CrdtDeleteOp(new CrdtNodeId(SITE, 5)));
+            return null;
+        });
+        assertTrue(registry.evict(id));
+
+        DocumentRegistry restarted = new DocumentRegistry(new FileDocumentStore(directory), Long.MAX_VALUE);
+        assertEquals("acdf", restarted.withDocument(id, Document::render));
+        assertEquals(1, restarted.withDocument(id, CrdtDocument::getTombstoneCount)); // nur der gestempelte
+    }
+
+    @Test
+    void reloadedDocument_continuesAsTheSameReplica(@TempDir Path directory) {
+        DocumentRegistry registry = new DocumentRegistry(new FileDocumentStore(directory), Long.MAX_VALUE);
+        registry.withDocument("a", document -> {
+            type(document, "abc", 1);
+            document.apply(new CrdtDeleteOp(new CrdtNodeId(SITE, 3), new CrdtNodeId(SITE, 4)));
+            return null;
+        });
+        UUID siteId = registry.withDocument("a", CrdtDocument::getSiteId);
+        int nextCounter = registry.withDocument("a", document -> document.exportReplica().nextCounter());
+        assertTrue(registry.evict("a"));
+
+        DocumentRegistry restarted = new DocumentRegistry(new FileDocumentStore(directory), Long.MAX_VALUE);
+        restarted.withDocument("a", document -> {
+            assertEquals(siteId, document.getSiteId());
+            assertEquals(4, document.getRevision());
+            assertEquals(nextCounter, document.exportReplica().nextCounter());
+
+            // ein Client auf Stand 2 muss neu synchronisieren statt falsche Ops zu bekommen
+            assertThrows(IllegalStateException.class, () -> document.getOperationsSince(2));
+            assertEquals(List.of(), document.getOperationsSince(4));
+            document.apply(new CrdtInsertOp(new CrdtNodeId(SITE, 2), new CrdtNodeId(SITE, 5), 'x'));
+            assertEquals(1, document.getOperationsSince(4).size());
+            return null;
+        });
+        assertEquals("abx", restarted.withDocument("a", Document::render));
+    }
+
+    @Test
+    void evictedDocument_keepsBufferedOps_afterReload() {
+        DocumentRegistry registry = registry(new InMemoryDocumentStore(), 1_000);
+
+        CrdtNodeId late = new CrdtNodeId(SITE, 10);
+        registry.withDocument("a", document -> {
+            type(document, "ab", 1);
+            document.apply(new CrdtInsertOp(late, new CrdtNodeId(SITE, 11), 'd')); // Eltern fehlen noch
+            return null;
+        });
+        assertEquals(1, registry.withDocument("a", CrdtDocument::getPendingOpCount));
+        assertTrue(registry.evict("a"));
+
+        assertEquals(1, registry.withDocument("a", CrdtDocument::getPendingOpCount));
+        String text = registry.withDocument("a", document -> {
+            document.apply(new CrdtInsertOp(new CrdtNodeId(SITE, 2), late, 'c'));
+            return document.render();
+        });
+        assertEquals("abcd", text);
+        assertEquals(0, registry.withDocument("a", CrdtDocument::getPendingOpCount));
+    }
+
+    @Test
+    void slowLoad_blocksNeitherTheStripeNorLoadsTwice() throws Exception {
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        AtomicInteger storeLoads = new AtomicInteger();
+        InMemoryDocumentStore healthy = new InMemoryDocumentStore();
+        DocumentStore slow = new DocumentStore() {
+            @Override
+            public Optional<ReplicaSnapshot> load(String documentId) {
+                if (documentId.equals("slow")) {
+                    storeLoads.incrementAndGet();
+                    loadStarted.countDown();
+                    try {
+                        releaseLoad.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return healthy.load(documentId);
+            }
+
+            @Override
+            public void save(String documentId, ReplicaSnapshot snapshot) {
+                healthy.save(documentId, snapshot);
+            }
+        };
+        // ein einziger Stripe: alle Dokumente teilen sich das Lock
+        DocumentRegistry registry = new DocumentRegistry(slow, Long.MAX_VALUE, 1, document -> 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<String> first = CompletableFuture.supplyAsync(
+                    () -> registry.withDocument("slow", Document::render), executor);
+            assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+            CompletableFuture<String> second = CompletableFuture.supplyAsync(
+                    () -> registry.withDocument("slow", Document::render), executor);
+
+            // während "slow" lädt, kommt ein anderes Dokument des Stripes sofort dran
+            assertEquals("", CompletableFuture.supplyAsync(() -> registry.withDocument("other", Document::render))
+                    .get(10, TimeUnit.SECONDS));
+
+            releaseLoad.countDown();
+            assertEquals("", first.get(10, TimeUnit.SECONDS));
+            assertEquals("", second.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, storeLoads.get());
+        assertEquals(2, registry.getMetrics().loads());
+    }
+
+    @Test
+    void concurrentAccess_toManyDocuments() throws Exception {
+        DocumentRegistry registry = new DocumentRegistry(new InMemoryDocumentStore(), 20 * 10_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<CompletableFuture<Void>> done = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                done.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        String id = "doc-" + (i * 7 + thread) % 100;
+                        registry.withDocument(id, document -> {
+                            document.apply(new CrdtInsertOp(rootId(),
+                                    new CrdtNodeId(UUID.randomUUID(), 1), 'x'));
+                            return null;
+                        });
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        // keine Einfügung geht durch Verdrängen verloren
+        int total = 0;
+        for (int d = 0; d < 100; d++) {
+            total += registry.withDocument("doc-" + d, document -> document.render().length());
+        }
+        assertEquals(4 * 2_000, total);
+        assertTrue(registry.getMetrics().evictions() > 0);
+        assertTrue(registry.getMetrics().residentBytes() <= 20 * 10_000 + 100_000);
+    }
+}
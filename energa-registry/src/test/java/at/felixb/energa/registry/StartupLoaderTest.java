@@ -0,0 +1,114 @@
+package at.felixb.energa.registry;
+
+import at.felixb.energa.crdt.CrdtInsertOp;
+import at.felixb.energa.crdt.CrdtNodeId;
+import at.felixb.energa.crdt.CrdtOperation;
+import at.felixb.energa.crdt.Document;
+import at.felixb.energa.crdt.ReplicaSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StartupLoaderTest {
+
+    private static final UUID SITE = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private static ReplicaSnapshot snapshotOf(String text) {
+        List<CrdtOperation> operations = new ArrayList<>();
+        CrdtNodeId parent = new CrdtNodeId(Document.ROOT_SITE_ID, 0);
+        for (int i = 0; i < text.length(); i++) {
+            CrdtNodeId id = new CrdtNodeId(SITE, i + 1);
+            operations.add(new CrdtInsertOp(parent, id, text.charAt(i)));
+            parent = id;
+        }
+        return ReplicaSnapshot.of(operations);
+    }
+
+    @Test
+    void loadsAllDocuments_inParallel() {
+        InMemoryDocumentStore store = new InMemoryDocumentStore();
+        for (int i = 0; i < 200; i++) store.save("doc-" + i, snapshotOf("text " + i));
+        DocumentRegistry registry = new DocumentRegistry(store, Long.MAX_VALUE);
+
+        StartupReport report = new StartupLoader(registry, 4).loadRecentlyActive();
+
+        assertEquals(200, report.loadedCount());
+        assertTrue(report.failures().isEmpty());
+        assertTrue(report.skipped().isEmpty());
+        assertEquals(200, registry.getMetrics().loads());
+        assertEquals(0, registry.getMetrics().misses()); // Vorladen ist kein Zugriff
+        assertEquals("text 17", registry.withDocument("doc-17", Document::render));
+        assertEquals(1, registry.getMetrics().hits());
+    }
+
+    @Test
+    void budgetReached_loadsMostRecentlyActiveFirst() {
+        InMemoryDocumentStore store = new InMemoryDocumentStore();
+        for (String id : List.of("old", "older", "recent", "most recent")) store.save(id, snapshotOf(id));
+        store.save("older", snapshotOf("older"));     // jetzt zweitjüngster
+        store.save("most recent", snapshotOf("most recent"));
+        assertEquals(List.of("most recent", "older", "recent", "old"), store.listByRecentActivity());
+
+        DocumentRegistry registry = new DocumentRegistry(store, 200, 8, document -> 100);
+        StartupReport report = new StartupLoader(registry, 1).loadRecentlyActive();
+
+        assertEquals(List.of("most recent", "older"), List.copyOf(report.loadTimes().keySet()));
+        assertEquals(List.of("recent", "old"), report.skipped());
+        assertFalse(registry.isResident("recent"));
+        assertEquals("recent", registry.withDocument("recent", Document::render)); // beim ersten Zugriff
+    }
+
+    @Test
+    void failingSnapshot_isReported_andOthersStillLoad() {
+        InMemoryDocumentStore healthy = new InMemoryDocumentStore();
+        DocumentStore store = new DocumentStore() {
+            @Override
+            public Optional<ReplicaSnapshot> load(String documentId) {
+                if (documentId.equals("broken")) throw new IllegalStateException("corrupt");
+                return healthy.load(documentId);
+            }
+
+            @Override
+            public void save(String documentId, ReplicaSnapshot snapshot) {
+                healthy.save(documentId, snapshot);
+            }
+        };
+        store.save("a", snapshotOf("a"));
+        store.save("b", snapshotOf("b"));
+        DocumentRegistry registry = new DocumentRegistry(store, Long.MAX_VALUE);
+
+        StartupReport report = new StartupLoader(registry, 1).load(List.of("a", "broken", "b", "a"));
+
+        assertEquals(List.of("a", "b"), List.copyOf(report.loadTimes().keySet()));
+        assertInstanceOf(IllegalStateException.class, report.failures().get("broken"));
+        assertEquals(List.of("a"), report.skipped()); // doppelt: schon geladen
+        assertEquals(2, report.slowest(5).size());
+    }
+
+    @Test
+    void fileStore_listsByModificationTime(@TempDir Path directory) throws Exception {
+        FileDocumentStore store = new FileDocumentStore(directory);
+        store.save("first", snapshotOf("1"));
+        store.save("second/ü", snapshotOf("2"));
+        store.save("third", snapshotOf("3"));
+
+        long now = System.currentTimeMillis();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+        }
+        Files.setLastModifiedTime(directory.resolve("Zmlyc3Q.snapshot"), FileTime.fromMillis(now + 60_000));
+        Files.setLastModifiedTime(directory.resolve("dGhpcmQ.snapshot"), FileTime.fromMillis(now - 60_000));
+
+        assertEquals(List.of("first", "second/ü", "third"), store.listByRecentActivity());
+    }
+}